@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so allocation rates are
+ * reported next to ops/s. Takes the usual JMH command line, for example a
+ * regular expression to pick benchmarks:
+ * <pre>
+ * mvn -P jmh package
+ * java -jar target/phase4-scsb-mock-sip-server-2.9.8-benchmarks.jar MessageCodec
+ * </pre>
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder().parent(options).addProfiler(GCProfiler.class).build()).run();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.messages;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The checksum and date handling shared by every message type. formatDate
+ * formats the same second each time, as a busy server mostly does, and
+ * formatNewDate a different second each time, so that nothing is cached.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FieldFormatBenchmark {
+    private String unchecked;
+    private String date = "20200101    120000";
+    private long now;
+    private long next;
+
+    @Setup
+    public void setUp() throws Exception {
+        PatronInformationResponse response = new PatronInformationResponse();
+        response.setInstitutionId("Institution");
+        response.setPatronIdentifier("P1234567890");
+        response.setPersonalName("Doe, Jane");
+        response.setScreenMessage("Screen message");
+        String encoded = response.encode('0');
+        this.unchecked = encoded.substring(0, encoded.length() - 4);
+        this.now = System.currentTimeMillis();
+        this.next = this.now;
+    }
+
+    @Benchmark
+    public String calculateChecksum() throws Exception {
+        return Message.calculateChecksum(this.unchecked);
+    }
+
+    @Benchmark
+    public String formatDate() {
+        return SIPDateFormat.format(this.now);
+    }
+
+    @Benchmark
+    public String formatNewDate() {
+        this.next += 1000;
+        return SIPDateFormat.format(this.next);
+    }
+
+    @Benchmark
+    public Date parseDate() {
+        return SIPDateFormat.parse(this.date);
+    }
+}
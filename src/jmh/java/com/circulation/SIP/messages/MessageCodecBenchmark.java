@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.messages;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and decoding of each message type, with its required fields
+ * auto-populated and its identifiers filled in. The checksum and date
+ * handling every type shares are in {@link FieldFormatBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+    /**
+     * Left without values, so JMH runs every message type.
+     */
+    @Param
+    public Messages type;
+
+    private MessagePlan plan;
+    private Message message;
+    private String encoded;
+
+    @Setup
+    public void setUp() throws Exception {
+        @SuppressWarnings("unchecked")
+        Class<? extends Message> messageClass = (Class<? extends Message>) Class.forName(Messages.class.getPackage().getName() + "." + this.type.name());
+        this.plan = MessagePlan.get(messageClass);
+        this.message = messageClass.newInstance();
+        MessageCodecBenchmark.fill(this.message, "setInstitutionId", "Institution");
+        MessageCodecBenchmark.fill(this.message, "setPatronIdentifier", "P1234567890");
+        MessageCodecBenchmark.fill(this.message, "setItemIdentifier", "I32101012345678");
+        MessageCodecBenchmark.fill(this.message, "setTitleIdentifier", "A Title Of Some Length For The Screen");
+        MessageCodecBenchmark.fill(this.message, "setPersonalName", "Doe, Jane");
+        MessageCodecBenchmark.fill(this.message, "setScreenMessage", new String[] { "Screen message" });
+        this.message.setSequenceCharacter('0');
+        this.encoded = this.message.encode('0');
+    }
+
+    private static void fill(Message message, String setter, Object value) {
+        try {
+            Method method = message.getClass().getMethod(setter, value.getClass());
+            method.invoke(message, value);
+        } catch (NoSuchMethodException ex) {
+            // not a field of this message
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Benchmark
+    public String encode() throws Exception {
+        return this.message.encode('0');
+    }
+
+    @Benchmark
+    public Message decode() throws Exception {
+        return Message.decode(this.encoded, '0', true);
+    }
+
+    /**
+     * The tagged fields as decode reads them for a type without a generated
+     * codec.
+     */
+    @Benchmark
+    public Message parseVarFields() {
+        Message parsed = this.plan.newInstance();
+        parsed.parseVarFields(this.plan, this.plan.fixedFieldEnd + 1, this.encoded);
+        return parsed;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.netty.server;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.circulation.SIP.messages.ItemInformation;
+import com.circulation.SIP.messages.Message;
+import com.circulation.SIP.messages.PatronInformation;
+import com.circulation.SIP.messages.SCStatus;
+import com.circulation.SIP.samples.netty.DummyDriverFactory;
+import com.circulation.SIP.types.enumerations.ProtocolVersion;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+/**
+ * A request through the whole server pipeline, as SIPServerInitializer sets
+ * it up, in an EmbeddedChannel: framing and decoding, the dummy driver, and
+ * encoding the response.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+
+    @Param({ "SCStatus", "PatronInformation", "ItemInformation" })
+    public String request;
+
+    private EmbeddedChannel channel;
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() throws Exception {
+        Message message;
+        if (this.request.equals("SCStatus")) {
+            SCStatus status = new SCStatus();
+            status.setProtocolVersion(ProtocolVersion.VERSION_2_00);
+            message = status;
+        } else if (this.request.equals("PatronInformation")) {
+            PatronInformation patron = new PatronInformation();
+            patron.setInstitutionId("Institution");
+            patron.setPatronIdentifier("P1234567890");
+            message = patron;
+        } else {
+            ItemInformation item = new ItemInformation();
+            item.setInstitutionId("Institution");
+            item.setItemIdentifier("I32101012345678");
+            message = item;
+        }
+        this.bytes = (message.encode('0') + "\r").getBytes(Charset.forName(Message.getCharsetEncoding()));
+        this.channel = new EmbeddedChannel(new SIPServerInitializer(new DummyDriverFactory(), true));
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.channel.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public int roundTrip() {
+        ByteBuf in = PooledByteBufAllocator.DEFAULT.buffer(this.bytes.length);
+        in.writeBytes(this.bytes);
+        this.channel.writeInbound(in);
+        ByteBuf out = this.channel.readOutbound();
+        try {
+            return out.readableBytes();
+        } finally {
+            out.release();
+        }
+    }
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.performance;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+
+import com.circulation.SIP.messages.ACSStatus;
+import com.circulation.SIP.messages.CheckIn;
+import com.circulation.SIP.messages.CheckOut;
+import com.circulation.SIP.messages.ItemInformation;
+import com.circulation.SIP.messages.Message;
+import com.circulation.SIP.messages.PatronInformation;
+import com.circulation.SIP.messages.PatronStatusRequest;
+import com.circulation.SIP.messages.Renew;
+import com.circulation.SIP.messages.SCStatus;
+import com.circulation.SIP.netty.server.SIPDaemon;
+import com.circulation.SIP.samples.netty.DummyDriverFactory;
+import com.circulation.SIP.transport.SSLSocketConnection;
+import com.circulation.SIP.transport.SocketConnection;
+import com.circulation.SIP.types.enumerations.ProtocolVersion;
+
+/**
+ * Drives a SIP server with simulated kiosks, each holding one connection
+ * open for the whole run after the usual SC Status handshake, and reports
+ * throughput and latency percentiles per command.
+ * <p>
+ * By default each kiosk sends its next request as soon as it has the last
+ * response (closed loop). With --rate the kiosks between them send that
+ * many requests a second on a fixed schedule instead (open loop), and
+ * latency is measured from when a request was due rather than when it was
+ * sent, so a stalled server is charged for the requests it held up.
+ * <pre>
+ * --host localhost --port 12345 --ssl ca.pem   server, and its CA for TLS
+ * --embedded                                   start a server with the sample driver
+ * --kiosks 50                                  connections
+ * --duration 60 --warmup 10                    seconds; nothing is recorded in warm up
+ * --rate 2000                                  requests a second, open loop
+ * --mix checkout=60,checkin=30,patron=10       weights of checkout, checkin, patron,
+ *                                              item, status and renew
+ * --csv results.csv                            also write the report as CSV
+ * </pre>
+ * It is built into the benchmarks jar:
+ * <pre>
+ * mvn -P jmh package
+ * java -cp target/phase4-scsb-mock-sip-server-2.9.8-benchmarks.jar com.circulation.SIP.performance.LoadGenerator --embedded
+ * </pre>
+ */
+public class LoadGenerator {
+    private static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toMicros(10);
+    private static final String[] COMMANDS = { "checkout", "checkin", "patron", "item", "status", "renew" };
+
+    private String host = "localhost";
+    private int port = 12345;
+    private File certificate = null;
+    private boolean embedded = false;
+    private int kiosks = 10;
+    private int duration = 60;
+    private int warmup = 10;
+    private double rate = 0;
+    private int[] weights = { 60, 30, 10, 0, 0, 0 };
+    private File csv = null;
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        generator.parse(args);
+        generator.run();
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--embedded")) {
+                this.embedded = true;
+            } else if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("No value for " + option);
+            } else if (option.equals("--host")) {
+                this.host = args[++i];
+            } else if (option.equals("--port")) {
+                this.port = Integer.parseInt(args[++i]);
+            } else if (option.equals("--ssl")) {
+                this.certificate = new File(args[++i]);
+            } else if (option.equals("--kiosks")) {
+                this.kiosks = Integer.parseInt(args[++i]);
+            } else if (option.equals("--duration")) {
+                this.duration = Integer.parseInt(args[++i]);
+            } else if (option.equals("--warmup")) {
+                this.warmup = Integer.parseInt(args[++i]);
+            } else if (option.equals("--rate")) {
+                this.rate = Double.parseDouble(args[++i]);
+            } else if (option.equals("--mix")) {
+                this.weights = LoadGenerator.parseMix(args[++i]);
+            } else if (option.equals("--csv")) {
+                this.csv = new File(args[++i]);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+    }
+
+    private static int[] parseMix(String mix) {
+        int[] weights = new int[COMMANDS.length];
+        for (String entry : mix.split(",")) {
+            String[] pair = entry.trim().split("=");
+            int command = LoadGenerator.indexOf(pair[0].trim());
+            if ((command < 0) || (pair.length != 2)) {
+                throw new IllegalArgumentException("Bad mix entry " + entry);
+            }
+            weights[command] = Integer.parseInt(pair[1].trim());
+        }
+        return weights;
+    }
+
+    private static int indexOf(String command) {
+        for (int i = 0; i < COMMANDS.length; i++) {
+            if (COMMANDS[i].equalsIgnoreCase(command)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void run() throws Exception {
+        SIPDaemon server = null;
+        if (this.embedded) {
+            server = new SIPDaemon("LoadGenerator", this.host, this.port, new DummyDriverFactory(), true);
+            server.start();
+        }
+        try {
+            long start = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+            long measureFrom = start + TimeUnit.SECONDS.toNanos(this.warmup);
+            long end = measureFrom + TimeUnit.SECONDS.toNanos(this.duration);
+            CountDownLatch done = new CountDownLatch(this.kiosks);
+            List<Kiosk> running = new ArrayList<Kiosk>();
+            for (int i = 0; i < this.kiosks; i++) {
+                // stagger the open loop schedules across the interval
+                long interval = (this.rate > 0) ? (long) (1e9 * this.kiosks / this.rate) : 0;
+                Kiosk kiosk = new Kiosk(i, start + (interval * i) / this.kiosks, interval, measureFrom, end, done);
+                running.add(kiosk);
+                kiosk.start();
+            }
+            done.await();
+            this.report(running);
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    private void report(List<Kiosk> kiosks) throws IOException {
+        Map<String, Histogram> latencies = new LinkedHashMap<String, Histogram>();
+        long[] errors = new long[COMMANDS.length];
+        int failed = 0;
+        for (int command = 0; command < COMMANDS.length; command++) {
+            Histogram total = new Histogram(HIGHEST_LATENCY, 3);
+            for (Kiosk kiosk : kiosks) {
+                total.add(kiosk.latencies[command]);
+                errors[command] += kiosk.errors[command];
+            }
+            if ((total.getTotalCount() > 0) || (errors[command] > 0)) {
+                latencies.put(COMMANDS[command], total);
+            }
+        }
+        for (Kiosk kiosk : kiosks) {
+            if (kiosk.failure != null) {
+                failed++;
+            }
+        }
+
+        String mode = (this.rate > 0) ? String.format(Locale.ROOT, "open loop at %.0f/s", this.rate) : "closed loop";
+        System.out.println(String.format(Locale.ROOT, "%d kiosks, %s, %ds measured after %ds warm up%s", this.kiosks, mode,
+                this.duration, this.warmup, (failed > 0) ? ", " + failed + " kiosks failed" : ""));
+        System.out.println(String.format(Locale.ROOT, "%-10s %10s %8s %10s %10s %10s %10s %10s", "command", "count", "errors",
+                "ops/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+        PrintWriter out = (this.csv != null) ? new PrintWriter(new FileWriter(this.csv)) : null;
+        try {
+            if (out != null) {
+                out.println("command,count,errors,ops_per_second,p50_ms,p99_ms,p99_9_ms,max_ms");
+            }
+            for (Map.Entry<String, Histogram> entry : latencies.entrySet()) {
+                Histogram histogram = entry.getValue();
+                long errorCount = errors[LoadGenerator.indexOf(entry.getKey())];
+                double throughput = histogram.getTotalCount() / (double) this.duration;
+                double p50 = histogram.getValueAtPercentile(50) / 1000.0;
+                double p99 = histogram.getValueAtPercentile(99) / 1000.0;
+                double p999 = histogram.getValueAtPercentile(99.9) / 1000.0;
+                double max = histogram.getMaxValue() / 1000.0;
+                System.out.println(String.format(Locale.ROOT, "%-10s %10d %8d %10.1f %10.3f %10.3f %10.3f %10.3f", entry.getKey(),
+                        histogram.getTotalCount(), errorCount, throughput, p50, p99, p999, max));
+                if (out != null) {
+                    out.println(String.format(Locale.ROOT, "%s,%d,%d,%.1f,%.3f,%.3f,%.3f,%.3f", entry.getKey(), histogram.getTotalCount(),
+                            errorCount, throughput, p50, p99, p999, max));
+                }
+            }
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * One self-check terminal: a connection, a schedule, and its own
+     * histograms, merged once the run is over.
+     */
+    private class Kiosk extends Thread {
+        private final int id;
+        private final long interval;
+        private final long measureFrom;
+        private final long end;
+        private final CountDownLatch done;
+        private final Random random;
+        private final Histogram[] latencies = new Histogram[COMMANDS.length];
+        private final long[] errors = new long[COMMANDS.length];
+        private final int totalWeight;
+        private long due;
+        private Exception failure;
+
+        Kiosk(int id, long start, long interval, long measureFrom, long end, CountDownLatch done) {
+            super("Kiosk-" + id);
+            this.id = id;
+            this.due = start;
+            this.interval = interval;
+            this.measureFrom = measureFrom;
+            this.end = end;
+            this.done = done;
+            this.random = new Random(id);
+            int total = 0;
+            for (int command = 0; command < COMMANDS.length; command++) {
+                this.latencies[command] = new Histogram(HIGHEST_LATENCY, 3);
+                total += LoadGenerator.this.weights[command];
+            }
+            this.totalWeight = total;
+            this.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            SocketConnection connection = null;
+            try {
+                connection = this.connect();
+                while (true) {
+                    long now = System.nanoTime();
+                    if (this.interval > 0) {
+                        while (now < this.due) {
+                            LockSupport.parkNanos(this.due - now);
+                            now = System.nanoTime();
+                        }
+                    } else {
+                        this.due = now;
+                    }
+                    if (this.due >= this.end) {
+                        break;
+                    }
+                    int command = this.pick();
+                    Message request = this.request(command);
+                    boolean ok;
+                    try {
+                        ok = connection.send(request) != null;
+                    } catch (Exception ex) {
+                        ok = false;
+                    }
+                    long latency = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - this.due);
+                    if (this.due >= this.measureFrom) {
+                        if (ok) {
+                            this.latencies[command].recordValue(Math.min(latency, HIGHEST_LATENCY));
+                        } else {
+                            this.errors[command]++;
+                        }
+                    }
+                    if (!ok) {
+                        // isConnected stays true after the socket is lost, so
+                        // start over on a fresh connection whatever went wrong
+                        connection.disconnect();
+                        connection = null;
+                        connection = this.connect();
+                    }
+                    this.due += this.interval;
+                }
+            } catch (Exception ex) {
+                this.failure = ex;
+                System.err.println(this.getName() + " failed: " + ex);
+            } finally {
+                if (connection != null) {
+                    connection.disconnect();
+                }
+                this.done.countDown();
+            }
+        }
+
+        private SocketConnection connect() throws Exception {
+            SocketConnection connection;
+            if (LoadGenerator.this.certificate != null) {
+                connection = new SSLSocketConnection();
+                ((SSLSocketConnection) connection).setServerCertificateCA(LoadGenerator.this.certificate);
+            } else {
+                connection = new SocketConnection();
+            }
+            connection.setHost(LoadGenerator.this.host);
+            connection.setPort(LoadGenerator.this.port);
+            connection.setConnectionTimeout(30000);
+            connection.setIdleTimeout(30000);
+            connection.setRetryAttempts(5);
+            connection.setRetryWait(500);
+            connection.connect();
+
+            SCStatus status = new SCStatus();
+            status.setProtocolVersion(ProtocolVersion.VERSION_2_00);
+            if (!(connection.send(status) instanceof ACSStatus)) {
+                connection.disconnect();
+                throw new IOException("No ACS Status from " + LoadGenerator.this.host + ":" + LoadGenerator.this.port);
+            }
+            return connection;
+        }
+
+        private int pick() {
+            int target = this.random.nextInt(this.totalWeight);
+            for (int command = 0; command < COMMANDS.length; command++) {
+                target -= LoadGenerator.this.weights[command];
+                if (target < 0) {
+                    return command;
+                }
+            }
+            return 0;
+        }
+
+        private Message request(int command) {
+            String patron = "P" + (this.id * 1000 + this.random.nextInt(1000));
+            String item = "I" + this.random.nextInt(1000000);
+            switch (command) {
+            case 0:
+                CheckOut checkOut = new CheckOut();
+                checkOut.setInstitutionId("LoadGenerator");
+                checkOut.setPatronIdentifier(patron);
+                checkOut.setItemIdentifier(item);
+                checkOut.setTransactionDate(new Date());
+                return checkOut;
+            case 1:
+                CheckIn checkIn = new CheckIn();
+                checkIn.setInstitutionId("LoadGenerator");
+                checkIn.setItemIdentifier(item);
+                checkIn.setTransactionDate(new Date());
+                return checkIn;
+            case 2:
+                PatronInformation information = new PatronInformation();
+                information.setInstitutionId("LoadGenerator");
+                information.setPatronIdentifier(patron);
+                return information;
+            case 3:
+                ItemInformation itemInformation = new ItemInformation();
+                itemInformation.setInstitutionId("LoadGenerator");
+                itemInformation.setItemIdentifier(item);
+                return itemInformation;
+            case 4:
+                PatronStatusRequest patronStatus = new PatronStatusRequest();
+                patronStatus.setInstitutionId("LoadGenerator");
+                patronStatus.setPatronIdentifier(patron);
+                return patronStatus;
+            default:
+                Renew renew = new Renew();
+                renew.setInstitutionId("LoadGenerator");
+                renew.setPatronIdentifier(patron);
+                renew.setItemIdentifier(item);
+                return renew;
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.types;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.circulation.SIP.types.enumerations.AbstractEnumeration;
+import com.circulation.SIP.types.enumerations.CirculationStatus;
+import com.circulation.SIP.types.enumerations.CurrencyType;
+import com.circulation.SIP.types.flagfields.PatronStatus;
+import com.circulation.SIP.types.flagfields.SupportedMessages;
+
+/**
+ * Enumeration code lookups and flag field operations, as the codec and the
+ * drivers use them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TypesBenchmark {
+    private final AbstractEnumeration currency = CurrencyType.US_DOLLARS;
+    private final AbstractEnumeration status = CirculationStatus.AVAILABLE;
+    private String currencyCode = "GBP";
+    private String statusCode = "08";
+    private String patronStatus = "Y  Y Y        ";
+
+    @Benchmark
+    public AbstractEnumeration currencyLookup() {
+        return this.currency.getKey(this.currencyCode);
+    }
+
+    @Benchmark
+    public AbstractEnumeration circulationStatusLookup() {
+        return this.status.getKey(this.statusCode);
+    }
+
+    /**
+     * What AbstractDriver.Status does for every status response.
+     */
+    @Benchmark
+    public String supportedMessages() {
+        SupportedMessages supported = new SupportedMessages();
+        supported.setBlockPatron(true);
+        supported.setCheckIn(true);
+        supported.setCheckOut(true);
+        supported.setEndPatronSession(true);
+        supported.setFeePaid(true);
+        supported.setHold(true);
+        supported.setItemInformation(true);
+        supported.setItemStatusUpdate(true);
+        supported.setLogin(true);
+        supported.setPatronEnable(true);
+        supported.setPatronInformation(true);
+        supported.setPatronStatusRequest(true);
+        supported.setRenew(true);
+        supported.setRenewAll(true);
+        supported.setRequestScAcsResend(true);
+        supported.setScAcsStatus(true);
+        return supported.toString();
+    }
+
+    @Benchmark
+    public void patronStatus(Blackhole blackhole) {
+        PatronStatus flags = new PatronStatus(this.patronStatus);
+        blackhole.consume(flags.isChargePrivilegesDenied());
+        blackhole.consume(flags.isTooManyItemsOverdue());
+        blackhole.consume(flags.toString());
+    }
+}
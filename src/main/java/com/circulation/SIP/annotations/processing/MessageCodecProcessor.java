@@ -0,0 +1,427 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.annotations.processing;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates a {@link com.circulation.SIP.messages.MessageCodec} named
+ * <code>&lt;message&gt;Codec</code> for every concrete {@code @Command} message
+ * class in the messages package. The codec encodes and decodes the message in
+ * straight-line code: one statement per positioned field in position order,
+ * one per tagged field, and a switch over the tagged fields when decoding,
+ * each calling the field's getter or setter and the
+ * {@link com.circulation.SIP.messages.FieldCodec} method for its type.
+ * Classes whose accessors or constructor cannot be resolved are skipped with
+ * a warning and keep using the reflective path.
+ */
+public class MessageCodecProcessor extends AbstractProcessor {
+    private static final String COMMAND = "com.circulation.SIP.annotations.Command";
+    private static final String POSITIONED_FIELD = "com.circulation.SIP.annotations.PositionedField";
+    private static final String TAGGED_FIELD = "com.circulation.SIP.annotations.TaggedField";
+    private static final String MESSAGE = "com.circulation.SIP.messages.Message";
+    private static final String MESSAGES_PACKAGE = "com.circulation.SIP.messages";
+    private static final String ABSTRACT_ENUMERATION = "com.circulation.SIP.types.enumerations.AbstractEnumeration";
+    private static final String ABSTRACT_FLAG_FIELD = "com.circulation.SIP.types.flagfields.AbstractFlagField";
+    private static final String MANDATORY_FIELD_OMITTED = "com.circulation.SIP.exceptions.MandatoryFieldOmitted";
+    private static final String INVALID_FIELD_LENGTH = "com.circulation.SIP.exceptions.InvalidFieldLength";
+
+    private enum Kind {
+        BOOLEAN, DATE, INTEGER, STRING, STRINGS, FLAG, ENUMERATION, OTHER
+    }
+
+    private static class Accessor {
+        int index;
+        String field;
+        String type;
+        Kind kind;
+        String getter;
+        String setter;
+        boolean positioned;
+        int start;
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(COMMAND);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement command = this.processingEnv.getElementUtils().getTypeElement(COMMAND);
+        TypeElement message = this.processingEnv.getElementUtils().getTypeElement(MESSAGE);
+        if (command == null || message == null) {
+            return false;
+        }
+        for (Element element : roundEnv.getElementsAnnotatedWith(command)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                continue;
+            }
+            TypeElement type = (TypeElement) element;
+            if (type.getModifiers().contains(Modifier.ABSTRACT) || type.getNestingKind() != NestingKind.TOP_LEVEL) {
+                continue;
+            }
+            if (!this.processingEnv.getTypeUtils().isSubtype(type.asType(), message.asType())) {
+                continue;
+            }
+            if (!this.processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().contentEquals(MESSAGES_PACKAGE)) {
+                this.processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                        "Not in " + MESSAGES_PACKAGE + ", " + type.getSimpleName() + "Codec not generated", type);
+                continue;
+            }
+            if (!this.hasDefaultConstructor(type)) {
+                this.processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                        "No public no-argument constructor, " + type.getSimpleName() + "Codec not generated", type);
+                continue;
+            }
+            List<Accessor> accessors = this.getAccessors(type);
+            if (accessors == null) {
+                continue;
+            }
+            try {
+                this.write(type, accessors);
+            } catch (IOException ex) {
+                this.processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to write codec: " + ex.getMessage(), type);
+            }
+        }
+        return false;
+    }
+
+    private AnnotationMirror getAnnotation(Element element, String annotation) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotation)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private int getStart(AnnotationMirror positioned) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : positioned.getElementValues().entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals("start")) {
+                return ((Number) entry.getValue().getValue()).intValue();
+            }
+        }
+        return 0;
+    }
+
+    private ExecutableElement findMethod(List<ExecutableElement> methods, String name, TypeMirror parameter) {
+        for (ExecutableElement method : methods) {
+            if (!method.getSimpleName().contentEquals(name) || !method.getModifiers().contains(Modifier.PUBLIC)) {
+                continue;
+            }
+            if (parameter == null && method.getParameters().isEmpty()) {
+                return method;
+            }
+            if (parameter != null && method.getParameters().size() == 1
+                    && this.processingEnv.getTypeUtils().isSameType(method.getParameters().get(0).asType(), parameter)) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Same classification as MessagePlan.Slot makes at run time.
+     */
+    private Kind getKind(TypeMirror fieldType) {
+        String name = fieldType.toString();
+        if (name.equals("java.lang.Boolean")) {
+            return Kind.BOOLEAN;
+        }
+        if (name.equals("java.util.Date")) {
+            return Kind.DATE;
+        }
+        if (name.equals("java.lang.Integer")) {
+            return Kind.INTEGER;
+        }
+        if (name.equals("java.lang.String")) {
+            return Kind.STRING;
+        }
+        if (name.equals("java.lang.String[]")) {
+            return Kind.STRINGS;
+        }
+        if (fieldType.getKind() == TypeKind.DECLARED) {
+            TypeElement element = (TypeElement) ((DeclaredType) fieldType).asElement();
+            if (this.processingEnv.getTypeUtils().erasure(element.getSuperclass()).toString().equals(ABSTRACT_FLAG_FIELD)) {
+                return Kind.FLAG;
+            }
+            for (TypeMirror interfce : element.getInterfaces()) {
+                if (this.processingEnv.getTypeUtils().erasure(interfce).toString().equals(ABSTRACT_ENUMERATION)) {
+                    return Kind.ENUMERATION;
+                }
+            }
+        }
+        return Kind.OTHER;
+    }
+
+    private List<Accessor> getAccessors(TypeElement type) {
+        List<ExecutableElement> methods = ElementFilter.methodsIn(this.processingEnv.getElementUtils().getAllMembers(type));
+        List<Accessor> accessors = new ArrayList<Accessor>();
+        for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            AnnotationMirror positioned = this.getAnnotation(field, POSITIONED_FIELD);
+            if (positioned == null && this.getAnnotation(field, TAGGED_FIELD) == null) {
+                continue;
+            }
+            String name = field.getSimpleName().toString();
+            String property = name.substring(0, 1).toUpperCase() + name.substring(1);
+            TypeMirror fieldType = field.asType();
+            ExecutableElement getter = this.findMethod(methods, "get" + property, null);
+            if (getter == null && fieldType.toString().equals("java.lang.Boolean")) {
+                getter = this.findMethod(methods, "is" + property, null);
+            }
+            ExecutableElement setter = this.findMethod(methods, "set" + property, fieldType);
+            if (getter == null || setter == null) {
+                this.processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                        "No public getter/setter for " + name + ", " + type.getSimpleName() + "Codec not generated", field);
+                return null;
+            }
+            Accessor accessor = new Accessor();
+            accessor.index = accessors.size();
+            accessor.field = name;
+            accessor.type = this.processingEnv.getTypeUtils().erasure(fieldType).toString();
+            accessor.kind = this.getKind(fieldType);
+            accessor.getter = getter.getSimpleName().toString();
+            accessor.setter = setter.getSimpleName().toString();
+            accessor.positioned = (positioned != null);
+            if (accessor.positioned) {
+                if (accessor.kind == Kind.STRINGS) {
+                    this.processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                            "Repeated positioned field " + name + ", " + type.getSimpleName() + "Codec not generated", field);
+                    return null;
+                }
+                accessor.start = this.getStart(positioned);
+            }
+            accessors.add(accessor);
+        }
+        return accessors;
+    }
+
+    private boolean hasDefaultConstructor(TypeElement type) {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && constructor.getModifiers().contains(Modifier.PUBLIC)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String slot(Accessor accessor) {
+        return "s[" + accessor.index + "]";
+    }
+
+    /**
+     * Expression formatting the field's value, null if it is left out.
+     */
+    private String encoder(Accessor accessor) {
+        String value = "message." + accessor.getter + "()";
+        switch (accessor.kind) {
+        case BOOLEAN:
+            return "FieldCodec.encodeBoolean(" + this.slot(accessor) + ", " + value + ", autoPop)";
+        case DATE:
+            return "FieldCodec.encodeDate(" + this.slot(accessor) + ", " + value + ", autoPop)";
+        case INTEGER:
+            return "FieldCodec.encodeInteger(" + this.slot(accessor) + ", " + value + ", autoPop)";
+        case STRINGS:
+            return value;
+        default:
+            return "FieldCodec.encodeObject(" + this.slot(accessor) + ", " + value + ", autoPop)";
+        }
+    }
+
+    /**
+     * Statements setting the field from the String expression value, none if
+     * the field's type is not parsed.
+     */
+    private void printDecoder(PrintWriter out, String indent, Accessor accessor, String value) {
+        String set = indent + "message." + accessor.setter + "(";
+        switch (accessor.kind) {
+        case BOOLEAN:
+            out.println(set + "FieldCodec.decodeBoolean(" + value + "));");
+            break;
+        case DATE:
+            out.println(set + "FieldCodec.decodeDate(" + value + "));");
+            break;
+        case INTEGER:
+            out.println(indent + "number = FieldCodec.decodeInteger(" + this.slot(accessor) + ", " + value + ");");
+            out.println(indent + "if (number != null) {");
+            out.println(indent + "    message." + accessor.setter + "(number);");
+            out.println(indent + "}");
+            break;
+        case STRING:
+            out.println(set + value + ");");
+            break;
+        case STRINGS:
+            out.println(set + "FieldCodec.add(message." + accessor.getter + "(), " + value + "));");
+            break;
+        case FLAG:
+            out.println(set + "new " + accessor.type + "(" + value + "));");
+            break;
+        case ENUMERATION:
+            out.println(set + "(" + accessor.type + ") FieldCodec.decodeEnumeration(" + this.slot(accessor) + ", " + value + "));");
+            break;
+        default:
+            break;
+        }
+    }
+
+    private void write(TypeElement type, List<Accessor> accessors) throws IOException {
+        String pkg = this.processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String message = type.getSimpleName().toString();
+        String codec = message + "Codec";
+        List<Accessor> positioned = new ArrayList<Accessor>();
+        List<Accessor> tagged = new ArrayList<Accessor>();
+        boolean integers = false;
+        for (Accessor accessor : accessors) {
+            if (accessor.positioned) {
+                positioned.add(accessor);
+            } else {
+                tagged.add(accessor);
+            }
+            integers |= (accessor.kind == Kind.INTEGER);
+        }
+        Collections.sort(positioned, new Comparator<Accessor>() {
+            @Override
+            public int compare(Accessor a, Accessor b) {
+                return Integer.compare(a.start, b.start);
+            }
+        });
+
+        JavaFileObject file = this.processingEnv.getFiler().createSourceFile(pkg + "." + codec, type);
+        PrintWriter out = new PrintWriter(file.openWriter());
+        try {
+            out.println("package " + pkg + ";");
+            out.println();
+            out.println("/**");
+            out.println(" * Generated by " + MessageCodecProcessor.class.getSimpleName() + " from " + message + ". Do not edit.");
+            out.println(" */");
+            out.println("@SuppressWarnings(\"deprecation\")");
+            out.println("final class " + codec + " extends MessageCodec<" + message + "> {");
+            out.print("    private static final String[] FIELDS = new String[] {");
+            for (int i = 0; i < accessors.size(); i++) {
+                out.print((i == 0 ? " \"" : ", \"") + accessors.get(i).field + "\"");
+            }
+            out.println(" };");
+            out.println();
+            out.println("    @Override");
+            out.println("    String[] getFields() {");
+            out.println("        return FIELDS.clone();");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    " + message + " newInstance() {");
+            out.println("        return new " + message + "();");
+            out.println("    }");
+
+            out.println();
+            out.println("    @Override");
+            out.println("    void encode(" + message + " message, MessageSink out, MessagePlan plan, boolean autoPop) throws " + MANDATORY_FIELD_OMITTED + ", "
+                    + INVALID_FIELD_LENGTH + " {");
+            out.println("        MessagePlan.Slot[] s = plan.codecSlots;");
+            out.println("        out.append(plan.command);");
+            for (Accessor accessor : positioned) {
+                out.println("        FieldCodec.positioned(out, " + this.slot(accessor) + ", " + this.encoder(accessor) + ");");
+            }
+            out.println("        String[][] tagged = new String[plan.tagged.length][];");
+            for (Accessor accessor : tagged) {
+                out.println("        tagged[" + this.slot(accessor) + ".index] = FieldCodec.tagged(" + this.slot(accessor) + ", " + this.encoder(accessor) + ");");
+            }
+            out.println("        FieldCodec.appendTagged(out, plan, tagged);");
+            out.println("    }");
+
+            out.println();
+            out.println("    @Override");
+            out.println("    " + message + " decode(CharSequence frame, MessagePlan plan, boolean autoPop) throws " + MANDATORY_FIELD_OMITTED + " {");
+            out.println("        MessagePlan.Slot[] s = plan.codecSlots;");
+            out.println("        " + message + " message = new " + message + "();");
+            if (integers) {
+                out.println("        Integer number;");
+            }
+            for (Accessor accessor : positioned) {
+                this.printDecoder(out, "        ", accessor, "FieldCodec.positioned(frame, " + this.slot(accessor) + ", autoPop)");
+            }
+            out.println("        int length = frame.length();");
+            out.println("        for (int n = plan.fixedFieldEnd + 1; n + 2 <= length;) {");
+            out.println("            int end = FieldCodec.fieldEnd(frame, n);");
+            out.println("            if (end < 0) {");
+            out.println("                break;");
+            out.println("            }");
+            out.println("            MessagePlan.Slot slot = plan.getTagged(frame.charAt(n), frame.charAt(n + 1));");
+            out.println("            if (slot != null) {");
+            out.println("                String value = frame.subSequence(n + 2, end).toString();");
+            out.println("                switch (slot.codecIndex) {");
+            for (Accessor accessor : tagged) {
+                out.println("                case " + accessor.index + ":");
+                this.printDecoder(out, "                    ", accessor, "value");
+                out.println("                    break;");
+            }
+            out.println("                default:");
+            out.println("                    break;");
+            out.println("                }");
+            out.println("            }");
+            out.println("            n = end + 1;");
+            out.println("        }");
+            for (Accessor accessor : tagged) {
+                if (accessor.kind == Kind.STRINGS) {
+                    continue;
+                }
+                out.println("        if (FieldCodec.omitted(" + this.slot(accessor) + ", message." + accessor.getter + "())) {");
+                out.println("            if (!autoPop) {");
+                out.println("                throw new " + MANDATORY_FIELD_OMITTED + "(" + this.slot(accessor) + ".name);");
+                out.println("            }");
+                this.printDecoder(out, "            ", accessor, "\"\"");
+                out.println("        }");
+            }
+            out.println("        return message;");
+            out.println("    }");
+            out.println("}");
+        } finally {
+            out.close();
+        }
+    }
+}
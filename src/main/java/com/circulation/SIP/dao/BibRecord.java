@@ -0,0 +1,34 @@
+package com.circulation.SIP.dao;
+
+/**
+ * A row of the bib table.
+ */
+public class BibRecord {
+    private final int bibId;
+    private final String patronIdentifier;
+    private final String itemIdentifier;
+    private final String titleIdentifier;
+
+    public BibRecord(int bibId, String patronIdentifier, String itemIdentifier, String titleIdentifier) {
+        this.bibId = bibId;
+        this.patronIdentifier = patronIdentifier;
+        this.itemIdentifier = itemIdentifier;
+        this.titleIdentifier = titleIdentifier;
+    }
+
+    public int getBibId() {
+        return bibId;
+    }
+
+    public String getPatronIdentifier() {
+        return patronIdentifier;
+    }
+
+    public String getItemIdentifier() {
+        return itemIdentifier;
+    }
+
+    public String getTitleIdentifier() {
+        return titleIdentifier;
+    }
+}
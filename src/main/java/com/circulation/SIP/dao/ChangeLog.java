@@ -0,0 +1,233 @@
+package com.circulation.SIP.dao;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Append-only log of the rows put into an {@link InMemoryCirculationStore}
+ * since its last {@link StoreSnapshot}. The log is split into numbered
+ * segments, changes.&lt;sequence&gt;.log, and a new segment is started for
+ * each snapshot so the older ones can be deleted once it is written.
+ * <p>
+ * Records are a length, the CRC32 of the payload, then the payload: a
+ * {@link RecordCodec} type byte and row. They are written straight to the
+ * file, so they survive the process dying; they are only forced to disk when
+ * the segment is synced, rotated or closed.
+ */
+final class ChangeLog {
+    private static Log logger = LogFactory.getLog(ChangeLog.class);
+
+    private static final String PREFIX = "changes.";
+    private static final String SUFFIX = ".log";
+
+    private final File directory;
+    private long sequence;
+    private FileChannel channel;
+
+    ChangeLog(File directory, long sequence) throws IOException {
+        this.directory = directory;
+        this.sequence = sequence;
+        this.channel = open(segment(directory, sequence));
+    }
+
+    synchronized long getSequence() {
+        return sequence;
+    }
+
+    void appendLogin(String userName, String password) throws IOException {
+        Record record = new Record(RecordCodec.LOGIN);
+        RecordCodec.writeLogin(record.out, userName, password);
+        this.append(record);
+    }
+
+    void appendPatron(PatronRecord patron) throws IOException {
+        Record record = new Record(RecordCodec.PATRON);
+        RecordCodec.writePatron(record.out, patron);
+        this.append(record);
+    }
+
+    void appendItem(ItemRecord item) throws IOException {
+        Record record = new Record(RecordCodec.ITEM);
+        RecordCodec.writeItem(record.out, item);
+        this.append(record);
+    }
+
+    void appendCheckout(CheckoutRecord checkout) throws IOException {
+        Record record = new Record(RecordCodec.CHECKOUT);
+        RecordCodec.writeCheckout(record.out, checkout);
+        this.append(record);
+    }
+
+    void appendBib(BibRecord bib) throws IOException {
+        Record record = new Record(RecordCodec.BIB);
+        RecordCodec.writeBib(record.out, bib);
+        this.append(record);
+    }
+
+    private synchronized void append(Record record) throws IOException {
+        ByteBuffer buffer = record.toBuffer();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    synchronized void sync() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Forces and closes the current segment and starts the next, returning
+     * its sequence: everything appended before this call is in earlier
+     * segments.
+     */
+    synchronized long rotate() throws IOException {
+        channel.force(false);
+        channel.close();
+        sequence++;
+        channel = open(segment(directory, sequence));
+        return sequence;
+    }
+
+    synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            channel.force(false);
+            channel.close();
+        }
+    }
+
+    static File segment(File directory, long sequence) {
+        return new File(directory, PREFIX + sequence + SUFFIX);
+    }
+
+    /**
+     * Sequences of the segments in directory, in order.
+     */
+    static List<Long> sequences(File directory) {
+        List<Long> sequences = new ArrayList<Long>();
+        String[] names = directory.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }
+        });
+        if (names != null) {
+            for (String name : names) {
+                try {
+                    sequences.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+                } catch (NumberFormatException ex) {
+                    logger.warn("Ignoring " + name + " in " + directory);
+                }
+            }
+        }
+        Collections.sort(sequences);
+        return sequences;
+    }
+
+    /**
+     * Applies the records in a segment to store, truncating an incomplete
+     * record left at the end by a crash. Returns the number applied.
+     */
+    static int replay(File segment, InMemoryCirculationStore store) throws IOException {
+        FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(segment + " is larger than 2GB");
+            }
+            ByteBuffer contents = ByteBuffer.allocate((int) size);
+            while (contents.hasRemaining() && channel.read(contents, contents.position()) >= 0) {
+            }
+            contents.flip();
+            int count = 0;
+            while (contents.remaining() >= 9) {
+                int start = contents.position();
+                int length = contents.getInt(start);
+                if (length <= 0 || length > contents.remaining() - 8) {
+                    break;
+                }
+                int crc = contents.getInt(start + 4);
+                byte[] payload = new byte[length];
+                contents.position(start + 8);
+                contents.get(payload);
+                CRC32 check = new CRC32();
+                check.update(payload);
+                if ((int) check.getValue() != crc) {
+                    contents.position(start);
+                    break;
+                }
+                apply(ByteBuffer.wrap(payload), store);
+                count++;
+            }
+            if (contents.position() < size) {
+                logger.warn("Discarding " + (size - contents.position()) + " bytes of incomplete record at the end of " + segment);
+                channel.truncate(contents.position());
+            }
+            return count;
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static void apply(ByteBuffer payload, InMemoryCirculationStore store) throws IOException {
+        byte type = payload.get();
+        switch (type) {
+        case RecordCodec.LOGIN:
+            String[] login = RecordCodec.readLogin(payload);
+            store.applyLogin(login[0], login[1]);
+            break;
+        case RecordCodec.PATRON:
+            store.applyPatron(RecordCodec.readPatron(payload));
+            break;
+        case RecordCodec.ITEM:
+            store.applyItem(RecordCodec.readItem(payload));
+            break;
+        case RecordCodec.CHECKOUT:
+            store.applyCheckout(RecordCodec.readCheckout(payload));
+            break;
+        case RecordCodec.BIB:
+            store.applyBib(RecordCodec.readBib(payload));
+            break;
+        default:
+            throw new IOException("Unknown record type " + type);
+        }
+    }
+
+    private static FileChannel open(File segment) throws IOException {
+        return FileChannel.open(segment.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static class Record {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        Record(byte type) throws IOException {
+            out.writeByte(type);
+        }
+
+        ByteBuffer toBuffer() throws IOException {
+            out.flush();
+            byte[] payload = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            ByteBuffer buffer = ByteBuffer.allocate(payload.length + 8);
+            buffer.putInt(payload.length);
+            buffer.putInt((int) crc.getValue());
+            buffer.put(payload);
+            buffer.flip();
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.circulation.SIP.dao;
+
+import java.util.Date;
+
+/**
+ * A row of the check_out table.
+ */
+public class CheckoutRecord {
+    private final String transactionId;
+    private final Date transactionDate;
+    private final String patronIdentifier;
+    private final String itemIdentifier;
+    private final Date dueDate;
+
+    public CheckoutRecord(String transactionId, Date transactionDate, String patronIdentifier, String itemIdentifier, Date dueDate) {
+        this.transactionId = transactionId;
+        this.transactionDate = transactionDate;
+        this.patronIdentifier = patronIdentifier;
+        this.itemIdentifier = itemIdentifier;
+        this.dueDate = dueDate;
+    }
+
+    public String getTransactionId() {
+        return transactionId;
+    }
+
+    public Date getTransactionDate() {
+        return transactionDate;
+    }
+
+    public String getPatronIdentifier() {
+        return patronIdentifier;
+    }
+
+    public String getItemIdentifier() {
+        return itemIdentifier;
+    }
+
+    public Date getDueDate() {
+        return dueDate;
+    }
+}
@@ -0,0 +1,482 @@
+package com.circulation.SIP.dao;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.circulation.SIP.server.SocketServer;
+
+/**
+ * Write-behind for check_out inserts. A checkout is appended to a local
+ * journal and fsync'ed before it is acknowledged, then a background thread
+ * inserts pending checkouts in JDBC batches of up to batchSize rows, or
+ * whatever has arrived within window milliseconds of the first.
+ * <p>
+ * The journal starts with a checkpoint, the offset of the first checkout not
+ * yet inserted, which is forced out after each batch; the inserted records
+ * before it are dropped when everything has been inserted, or once they take
+ * up more than a megabyte. Checkouts after the checkpoint at startup are
+ * queued again. Those, and the rows of a batch that failed, may already be in
+ * check_out, so each is looked up by its transaction id, which is journaled
+ * with it, and only inserted if it is not there.
+ */
+public class CheckoutWriteBehind {
+    private static Log logger = LogFactory.getLog(CheckoutWriteBehind.class);
+
+    private static final String SQL = "Insert into check_out (transaction_id, transaction_date, patron_identifier, item_identifier,due_date)values (?,?,?,?,?)";
+    private static final String EXISTS_SQL = "select transaction_id from check_out where transaction_id = ?";
+    private static final long RETRY_DELAY = 5000;
+    private static final int HEADER = 8;
+    private static final long COMPACT_SIZE = 1 << 20;
+
+    private final File journalFile;
+    private final int batchSize;
+    private final long window;
+    private FileChannel journal;
+    private final Object writeLock = new Object();
+    private final Object syncLock = new Object();
+    // offsets below are counted over everything ever journaled; the first
+    // record in the file, at HEADER, is at offset dropped
+    private long dropped = 0;
+    private long written = 0;
+    private long synced = 0;
+    private long checkpoint = 0;
+
+    private final LinkedBlockingQueue<Checkout> pending = new LinkedBlockingQueue<Checkout>();
+    private final Map<String, Integer> pendingItems = new HashMap<String, Integer>();
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    public CheckoutWriteBehind(File journalFile, int batchSize, long window) throws IOException {
+        this.journalFile = journalFile;
+        this.batchSize = Math.max(batchSize, 1);
+        this.window = window;
+        this.journal = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.recover();
+        this.flusher = new Thread("CheckoutWriteBehind-flusher") {
+            @Override
+            public void run() {
+                CheckoutWriteBehind.this.flushLoop();
+            }
+        };
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Journals a checkout for insertion; once this returns the checkout
+     * survives the process dying.
+     */
+    public void record(String transactionId, long transactionDate, String patronIdentifier, String itemIdentifier, long dueDate) throws IOException {
+        if (!running) {
+            throw new IOException("Write-behind for " + journalFile + " is closed");
+        }
+        Checkout checkout = new Checkout(transactionId, transactionDate, patronIdentifier, itemIdentifier, dueDate);
+        ByteBuffer record = checkout.toRecord();
+        synchronized (writeLock) {
+            long position = this.position(written);
+            while (record.hasRemaining()) {
+                journal.write(record, position + record.position());
+            }
+            written += record.limit();
+            checkout.end = written;
+            // queued in journal order, so each batch inserted is the start of what is left
+            this.queue(checkout);
+        }
+        this.sync(checkout.end);
+    }
+
+    private void queue(Checkout checkout) {
+        synchronized (pendingItems) {
+            Integer count = pendingItems.get(checkout.itemIdentifier);
+            pendingItems.put(checkout.itemIdentifier, count == null ? 1 : count + 1);
+        }
+        pending.add(checkout);
+    }
+
+    private long position(long offset) {
+        return HEADER + offset - dropped;
+    }
+
+    /**
+     * True if a checkout of the item has been journaled but not inserted yet.
+     */
+    public boolean isPending(String itemIdentifier) {
+        synchronized (pendingItems) {
+            return pendingItems.containsKey(itemIdentifier);
+        }
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Inserts whatever is pending, then stops the flusher.
+     */
+    public void close() {
+        running = false;
+        flusher.interrupt();
+        try {
+            flusher.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            journal.close();
+        } catch (IOException ex) {
+            logger.warn("Error closing journal " + journalFile, ex);
+        }
+    }
+
+    /**
+     * Forces the journal out at least as far as end; concurrent callers
+     * share one fsync.
+     */
+    private void sync(long end) throws IOException {
+        synchronized (syncLock) {
+            if (synced >= end) {
+                return;
+            }
+            long target;
+            synchronized (writeLock) {
+                target = written;
+            }
+            journal.force(false);
+            synced = target;
+        }
+    }
+
+    private void recover() throws IOException {
+        long size = journal.size();
+        if (size < HEADER) {
+            journal.truncate(0);
+            this.writeCheckpoint(journal, HEADER);
+            journal.force(false);
+            return;
+        }
+        ByteBuffer contents = ByteBuffer.allocate((int) size);
+        while (contents.hasRemaining() && journal.read(contents, contents.position()) >= 0) {
+        }
+        contents.flip();
+        long start = contents.getLong(0);
+        contents.position((int) Math.min(Math.max(start, HEADER), size));
+        int count = 0;
+        while (contents.remaining() >= 8) {
+            int length = contents.getInt(contents.position());
+            if (length <= 0 || length > contents.remaining() - 8) {
+                break;
+            }
+            contents.position(contents.position() + 4);
+            int crc = contents.getInt();
+            byte[] payload = new byte[length];
+            contents.get(payload);
+            CRC32 check = new CRC32();
+            check.update(payload);
+            if ((int) check.getValue() != crc) {
+                contents.position(contents.position() - length - 8);
+                break;
+            }
+            Checkout checkout = Checkout.fromPayload(payload);
+            checkout.end = contents.position() - HEADER;
+            checkout.replayed = true;
+            this.queue(checkout);
+            count++;
+        }
+        if (contents.position() < size) {
+            logger.warn("Discarding " + (size - contents.position()) + " bytes of incomplete record at the end of " + journalFile);
+            journal.truncate(contents.position());
+        }
+        written = synced = contents.position() - HEADER;
+        checkpoint = Math.min(Math.max(start, HEADER), contents.position()) - HEADER;
+        if (count > 0) {
+            logger.info("Replaying " + count + " journaled checkouts from " + journalFile);
+        }
+    }
+
+    private void flushLoop() {
+        List<Checkout> batch = new ArrayList<Checkout>(batchSize);
+        while (running || !pending.isEmpty() || !batch.isEmpty()) {
+            try {
+                if (batch.isEmpty()) {
+                    Checkout first = running ? pending.poll(window, TimeUnit.MILLISECONDS) : pending.poll();
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    long deadline = System.currentTimeMillis() + window;
+                    while (running && batch.size() < batchSize) {
+                        long wait = deadline - System.currentTimeMillis();
+                        Checkout next = (wait > 0) ? pending.poll(wait, TimeUnit.MILLISECONDS) : null;
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+                    pending.drainTo(batch, batchSize - batch.size());
+                }
+                this.insert(batch);
+                this.inserted(batch);
+                batch.clear();
+            } catch (InterruptedException ex) {
+                // closing; drain what is left
+            } catch (Exception ex) {
+                // some of the batch may have been inserted before it failed
+                for (Checkout checkout : batch) {
+                    checkout.replayed = true;
+                }
+                logger.warn("Unable to insert " + batch.size() + " checkouts, retrying", ex);
+                if (!running) {
+                    logger.error(batch.size() + pending.size() + " checkouts left in journal " + journalFile);
+                    return;
+                }
+                try {
+                    Thread.sleep(RETRY_DELAY);
+                } catch (InterruptedException e) {
+                    // closing; try once more
+                }
+            }
+        }
+    }
+
+    /**
+     * The database the checkouts are inserted into.
+     */
+    Connection connect() throws Exception {
+        return SocketServer.getConnection();
+    }
+
+    private void insert(List<Checkout> batch) throws Exception {
+        Connection connection = this.connect();
+        try {
+            List<Checkout> rows = this.notInserted(connection, batch);
+            if (rows.isEmpty()) {
+                return;
+            }
+            PreparedStatement preparedStatement = connection.prepareStatement(SQL);
+            try {
+                for (Checkout checkout : rows) {
+                    checkout.bind(preparedStatement);
+                    preparedStatement.addBatch();
+                }
+                try {
+                    preparedStatement.executeBatch();
+                } catch (BatchUpdateException ex) {
+                    preparedStatement.clearBatch();
+                    this.insertEach(preparedStatement, rows);
+                }
+            } finally {
+                preparedStatement.close();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * The checkouts in batch not already in check_out; only those replayed
+     * or retried are looked up.
+     */
+    private List<Checkout> notInserted(Connection connection, List<Checkout> batch) throws SQLException {
+        PreparedStatement exists = null;
+        List<Checkout> rows = new ArrayList<Checkout>(batch.size());
+        try {
+            for (Checkout checkout : batch) {
+                if (checkout.replayed) {
+                    if (exists == null) {
+                        exists = connection.prepareStatement(EXISTS_SQL);
+                    }
+                    exists.setString(1, checkout.transactionId);
+                    ResultSet resultSet = exists.executeQuery();
+                    try {
+                        if (resultSet.next()) {
+                            logger.info("Checkout " + checkout.transactionId + " was already inserted");
+                            continue;
+                        }
+                    } finally {
+                        resultSet.close();
+                    }
+                }
+                rows.add(checkout);
+            }
+        } finally {
+            if (exists != null) {
+                exists.close();
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Row by row after a failed batch, dropping rows the database rejects
+     * as duplicates (SQL state class 23) such as replayed checkouts.
+     */
+    private void insertEach(PreparedStatement preparedStatement, List<Checkout> batch) throws SQLException {
+        for (Checkout checkout : batch) {
+            checkout.bind(preparedStatement);
+            try {
+                preparedStatement.execute();
+            } catch (SQLException ex) {
+                String state = ex.getSQLState();
+                if (state == null || !state.startsWith("23")) {
+                    throw ex;
+                }
+                logger.warn("Dropping checkout " + checkout.transactionId + " rejected by the database", ex);
+            }
+        }
+    }
+
+    private void inserted(List<Checkout> batch) throws IOException {
+        synchronized (pendingItems) {
+            for (Checkout checkout : batch) {
+                Integer count = pendingItems.get(checkout.itemIdentifier);
+                if (count == null || count <= 1) {
+                    pendingItems.remove(checkout.itemIdentifier);
+                } else {
+                    pendingItems.put(checkout.itemIdentifier, count - 1);
+                }
+            }
+        }
+        checkpoint = batch.get(batch.size() - 1).end;
+        synchronized (syncLock) {
+            synchronized (writeLock) {
+                if (checkpoint == written) {
+                    // truncated first: a crash before the checkpoint is written finds nothing after it
+                    journal.truncate(HEADER);
+                    dropped = written;
+                    this.writeCheckpoint(journal, HEADER);
+                    journal.force(false);
+                    synced = written;
+                    return;
+                }
+                if (checkpoint - dropped >= COMPACT_SIZE) {
+                    this.compact();
+                    return;
+                }
+            }
+            this.writeCheckpoint(journal, this.position(checkpoint));
+            journal.force(false);
+        }
+    }
+
+    /**
+     * Replaces the journal with a copy holding only what is after the
+     * checkpoint. Called holding both locks.
+     */
+    private void compact() throws IOException {
+        File compacted = new File(journalFile.getPath() + ".tmp");
+        FileChannel copy = FileChannel.open(compacted.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            this.writeCheckpoint(copy, HEADER);
+            long from = this.position(checkpoint);
+            long length = written - checkpoint;
+            long copied = 0;
+            while (copied < length) {
+                copied += journal.transferTo(from + copied, length - copied, copy.position(HEADER + copied));
+            }
+            copy.force(false);
+            Files.move(compacted.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            copy.close();
+            throw ex;
+        }
+        journal.close();
+        journal = copy;
+        dropped = checkpoint;
+        synced = written;
+    }
+
+    private void writeCheckpoint(FileChannel channel, long position) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putLong(0, position);
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    private static class Checkout {
+        private final String transactionId;
+        private final long transactionDate;
+        private final String patronIdentifier;
+        private final String itemIdentifier;
+        private final long dueDate;
+        // offset of the end of its journal record
+        private long end;
+        // may already be in check_out
+        private boolean replayed = false;
+
+        Checkout(String transactionId, long transactionDate, String patronIdentifier, String itemIdentifier, long dueDate) {
+            this.transactionId = transactionId;
+            this.transactionDate = transactionDate;
+            this.patronIdentifier = patronIdentifier;
+            this.itemIdentifier = itemIdentifier;
+            this.dueDate = dueDate;
+        }
+
+        void bind(PreparedStatement preparedStatement) throws SQLException {
+            preparedStatement.setString(1, transactionId);
+            preparedStatement.setDate(2, new Date(transactionDate));
+            preparedStatement.setString(3, patronIdentifier);
+            preparedStatement.setString(4, itemIdentifier);
+            preparedStatement.setDate(5, new Date(dueDate));
+        }
+
+        /**
+         * Length, CRC32 of the payload, then the payload.
+         */
+        ByteBuffer toRecord() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(transactionId);
+            out.writeLong(transactionDate);
+            out.writeUTF(patronIdentifier);
+            out.writeUTF(itemIdentifier);
+            out.writeLong(dueDate);
+            out.flush();
+            byte[] payload = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            ByteBuffer record = ByteBuffer.allocate(payload.length + 8);
+            record.putInt(payload.length);
+            record.putInt((int) crc.getValue());
+            record.put(payload);
+            record.flip();
+            return record;
+        }
+
+        static Checkout fromPayload(byte[] payload) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            try {
+                return new Checkout(in.readUTF(), in.readLong(), in.readUTF(), in.readUTF(), in.readLong());
+            } catch (EOFException ex) {
+                throw new IOException("Corrupt checkout record", ex);
+            }
+        }
+    }
+}
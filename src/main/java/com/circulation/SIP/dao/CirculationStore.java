@@ -0,0 +1,30 @@
+package com.circulation.SIP.dao;
+
+import com.circulation.SIP.messages.Bib;
+import com.circulation.SIP.messages.CheckOut;
+import com.circulation.SIP.messages.ItemInformationResponse;
+import com.circulation.SIP.messages.PatronInformationResponse;
+
+/**
+ * The circulation operations the mock server's handler needs, backed by
+ * MySQL ({@link PulDao}) or held in memory ({@link InMemoryCirculationStore}).
+ * <p>
+ * Lookups that find nothing return an empty response or null rather than
+ * throwing, and writes report failure by returning false or null.
+ */
+public interface CirculationStore {
+
+    boolean validateLogin(String userName, String password);
+
+    PatronInformationResponse findPatronByPatronId(String patronIdentifier);
+
+    ItemInformationResponse findItemByItemId(String itemIdentifier);
+
+    boolean checkoutItem(CheckOut checkOut);
+
+    boolean checkInItem(String itemIdentifier);
+
+    Integer findBibByItemId(String itemIdentifier);
+
+    Integer createBib(Bib bib);
+}
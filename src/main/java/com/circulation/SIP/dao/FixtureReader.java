@@ -0,0 +1,295 @@
+package com.circulation.SIP.dao;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads fixture files for {@link InMemoryCirculationStore} as rows of
+ * column name to value, grouped by table; the table and column names are
+ * those of the MySQL schema.
+ * <p>
+ * A <code>.json</code> file is an object mapping each table name to an array
+ * of row objects. Anything else is read as CSV, split into tables by lines
+ * holding just <code>[table]</code>, each followed by a header line of
+ * column names and then the rows. Double quotes protect commas and are
+ * doubled to include one; blank lines and lines starting with # are skipped.
+ * Column names are returned in lower case, as MySQL does not mind their case.
+ */
+final class FixtureReader {
+
+    private FixtureReader() {
+    }
+
+    static Map<String, List<Map<String, String>>> read(File file) throws IOException {
+        Reader in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
+        try {
+            if (file.getName().toLowerCase().endsWith(".json")) {
+                return FixtureReader.readJson(in);
+            }
+            return FixtureReader.readCsv(new BufferedReader(in));
+        } finally {
+            in.close();
+        }
+    }
+
+    static Map<String, List<Map<String, String>>> readCsv(BufferedReader in) throws IOException {
+        Map<String, List<Map<String, String>>> tables = new LinkedHashMap<String, List<Map<String, String>>>();
+        List<Map<String, String>> rows = null;
+        List<String> columns = null;
+        String line;
+        int number = 0;
+        while ((line = in.readLine()) != null) {
+            number++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            if (trimmed.startsWith("[") && trimmed.endsWith("]")) {
+                String table = trimmed.substring(1, trimmed.length() - 1).trim();
+                rows = tables.get(table);
+                if (rows == null) {
+                    rows = new ArrayList<Map<String, String>>();
+                    tables.put(table, rows);
+                }
+                columns = null;
+                continue;
+            }
+            if (rows == null) {
+                throw new IOException("Line " + number + ": rows before any [table]");
+            }
+            List<String> fields = FixtureReader.splitCsv(line, number);
+            if (columns == null) {
+                columns = new ArrayList<String>();
+                for (String column : fields) {
+                    columns.add(column.toLowerCase());
+                }
+                continue;
+            }
+            if (fields.size() > columns.size()) {
+                throw new IOException("Line " + number + ": " + fields.size() + " fields for " + columns.size() + " columns");
+            }
+            Map<String, String> row = new LinkedHashMap<String, String>();
+            for (int i = 0; i < fields.size(); i++) {
+                row.put(columns.get(i), fields.get(i));
+            }
+            rows.add(row);
+        }
+        return tables;
+    }
+
+    private static List<String> splitCsv(String line, int number) throws IOException {
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IOException("Line " + number + ": unterminated quote");
+        }
+        fields.add(field.toString().trim());
+        return fields;
+    }
+
+    /**
+     * Just enough JSON for fixtures, whose rows are flat: numbers and
+     * booleans are returned as their text, null as null.
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, List<Map<String, String>>> readJson(Reader in) throws IOException {
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            text.append(buffer, 0, n);
+        }
+        JsonParser parser = new JsonParser(text);
+        Object document = parser.value();
+        parser.end();
+        if (!(document instanceof Map)) {
+            throw new IOException("Fixture must be a JSON object of tables");
+        }
+        Map<String, List<Map<String, String>>> tables = new LinkedHashMap<String, List<Map<String, String>>>();
+        for (Map.Entry<String, Object> table : ((Map<String, Object>) document).entrySet()) {
+            if (!(table.getValue() instanceof List)) {
+                throw new IOException("Table " + table.getKey() + " must be an array of rows");
+            }
+            List<Map<String, String>> rows = new ArrayList<Map<String, String>>();
+            for (Object row : (List<Object>) table.getValue()) {
+                if (!(row instanceof Map)) {
+                    throw new IOException("Rows of " + table.getKey() + " must be objects");
+                }
+                Map<String, String> values = new LinkedHashMap<String, String>();
+                for (Map.Entry<String, Object> column : ((Map<String, Object>) row).entrySet()) {
+                    values.put(column.getKey().toLowerCase(), column.getValue() == null ? null : column.getValue().toString());
+                }
+                rows.add(values);
+            }
+            tables.put(table.getKey(), rows);
+        }
+        return tables;
+    }
+
+    private static class JsonParser {
+        private final CharSequence text;
+        private int position = 0;
+
+        JsonParser(CharSequence text) {
+            this.text = text;
+        }
+
+        Object value() throws IOException {
+            this.skipWhitespace();
+            if (position >= text.length()) {
+                throw this.error("Unexpected end of JSON");
+            }
+            char c = text.charAt(position);
+            if (c == '{') {
+                position++;
+                Map<String, Object> object = new LinkedHashMap<String, Object>();
+                if (this.consume('}')) {
+                    return object;
+                }
+                do {
+                    this.skipWhitespace();
+                    String key = this.string();
+                    this.expect(':');
+                    object.put(key, this.value());
+                } while (this.consume(','));
+                this.expect('}');
+                return object;
+            } else if (c == '[') {
+                position++;
+                List<Object> array = new ArrayList<Object>();
+                if (this.consume(']')) {
+                    return array;
+                }
+                do {
+                    array.add(this.value());
+                } while (this.consume(','));
+                this.expect(']');
+                return array;
+            } else if (c == '"') {
+                return this.string();
+            }
+            int start = position;
+            while (position < text.length() && "{}[],: \t\r\n".indexOf(text.charAt(position)) < 0) {
+                position++;
+            }
+            String literal = text.subSequence(start, position).toString();
+            if (literal.isEmpty()) {
+                throw this.error("Unexpected " + c);
+            }
+            return literal.equals("null") ? null : literal;
+        }
+
+        void end() throws IOException {
+            this.skipWhitespace();
+            if (position < text.length()) {
+                throw this.error("Unexpected text after JSON");
+            }
+        }
+
+        private String string() throws IOException {
+            if (position >= text.length() || text.charAt(position) != '"') {
+                throw this.error("Expected a string");
+            }
+            position++;
+            StringBuilder value = new StringBuilder();
+            while (position < text.length()) {
+                char c = text.charAt(position++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (position >= text.length()) {
+                    break;
+                }
+                char escaped = text.charAt(position++);
+                switch (escaped) {
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'u':
+                    if (position + 4 > text.length()) {
+                        throw this.error("Bad unicode escape");
+                    }
+                    value.append((char) Integer.parseInt(text.subSequence(position, position + 4).toString(), 16));
+                    position += 4;
+                    break;
+                default:
+                    value.append(escaped);
+                }
+            }
+            throw this.error("Unterminated string");
+        }
+
+        private boolean consume(char c) {
+            this.skipWhitespace();
+            if (position < text.length() && text.charAt(position) == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) throws IOException {
+            if (!this.consume(c)) {
+                throw this.error("Expected " + c);
+            }
+        }
+
+        private void skipWhitespace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+
+        private IOException error(String message) {
+            return new IOException(message + " at offset " + position);
+        }
+    }
+}
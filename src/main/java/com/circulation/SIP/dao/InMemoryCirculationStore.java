@@ -0,0 +1,377 @@
+package com.circulation.SIP.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.circulation.SIP.messages.Bib;
+import com.circulation.SIP.messages.CheckOut;
+import com.circulation.SIP.messages.ItemInformationResponse;
+import com.circulation.SIP.messages.PatronInformationResponse;
+
+/**
+ * Circulation store held in concurrent maps, so the mock server can run
+ * without MySQL. It answers exactly as {@link PulDao} would over the same
+ * rows, and can be seeded from a fixture file using the MySQL table and
+ * column names (see {@link FixtureReader}): login, patron, item, check_out
+ * and bib.
+ * <p>
+ * With {@link StorePersistence} the store is instead restored from a memory
+ * mapped {@link StoreSnapshot}, which answers lookups for rows that have not
+ * been put since, and every row put is first appended to a {@link ChangeLog}.
+ */
+public class InMemoryCirculationStore implements CirculationStore {
+    private static Log logger = LogFactory.getLog(InMemoryCirculationStore.class);
+
+    private final Map<String, String> logins = new ConcurrentHashMap<String, String>();
+    private final Map<String, PatronRecord> patrons = new ConcurrentHashMap<String, PatronRecord>();
+    private final Map<String, ItemRecord> items = new ConcurrentHashMap<String, ItemRecord>();
+    private final Map<String, CheckoutRecord> checkouts = new ConcurrentHashMap<String, CheckoutRecord>();
+    private final ConcurrentHashMap<String, Set<String>> checkoutsByItem = new ConcurrentHashMap<String, Set<String>>();
+    private final Map<Integer, BibRecord> bibs = new ConcurrentHashMap<Integer, BibRecord>();
+    private final ConcurrentHashMap<String, Integer> bibsByItem = new ConcurrentHashMap<String, Integer>();
+    private final AtomicInteger lastBibId = new AtomicInteger();
+    private volatile StoreSnapshot base;
+    private volatile ChangeLog changeLog;
+
+    public InMemoryCirculationStore() {
+    }
+
+    /**
+     * Adds the rows in a CSV or JSON fixture file to the store.
+     */
+    public void load(File fixture) throws IOException {
+        Map<String, List<Map<String, String>>> tables = FixtureReader.read(fixture);
+        for (Map.Entry<String, List<Map<String, String>>> table : tables.entrySet()) {
+            String name = table.getKey().toLowerCase();
+            for (Map<String, String> row : table.getValue()) {
+                if (name.equals("login")) {
+                    this.putLogin(row.get("username"), row.get("password"));
+                } else if (name.equals("patron")) {
+                    this.putPatron(new PatronRecord(row.get("patron_identifier"),
+                            toInt(row.get("unavailable_holds_count")),
+                            toInt(row.get("charged_items_count")),
+                            toInt(row.get("hold_items_count")),
+                            toInt(row.get("fine_items_count")),
+                            toInt(row.get("recall_items_count")),
+                            toInt(row.get("overdue_items_count")),
+                            toDate(row.get("transaction_date")),
+                            row.get("person_name"),
+                            toBoolean(row.get("valid_patron")),
+                            toBoolean(row.get("valid_patron_password")),
+                            row.get("fee_amount"),
+                            row.get("email_address")));
+                } else if (name.equals("item")) {
+                    this.putItem(new ItemRecord(row.get("item_identifier"),
+                            toDate(row.get("transaction_date")),
+                            toInt(row.get("hold_queue_length")),
+                            row.get("due_date"),
+                            toDate(row.get("recal_date")),
+                            toDate(row.get("hold_pickup_date")),
+                            row.get("title_identifier"),
+                            row.get("permanent_location"),
+                            row.get("current_location")));
+                } else if (name.equals("check_out")) {
+                    this.putCheckout(new CheckoutRecord(row.get("transaction_id"),
+                            toDate(row.get("transaction_date")),
+                            row.get("patron_identifier"),
+                            row.get("item_identifier"),
+                            toDate(row.get("due_date"))));
+                } else if (name.equals("bib")) {
+                    String bibId = row.get("bib_id");
+                    this.putBib(new BibRecord(isEmpty(bibId) ? lastBibId.incrementAndGet() : Integer.parseInt(bibId),
+                            row.get("patron_identifier"),
+                            row.get("item_identifier"),
+                            row.get("title_identifier")));
+                } else {
+                    logger.warn("Ignoring unknown table " + table.getKey() + " in " + fixture);
+                    break;
+                }
+            }
+        }
+        logger.info("Loaded " + fixture + ": " + this);
+    }
+
+    public void putLogin(String userName, String password) throws IOException {
+        ChangeLog log = changeLog;
+        if (log == null) {
+            this.applyLogin(userName, password);
+            return;
+        }
+        synchronized (log) {
+            log.appendLogin(userName, password);
+            this.applyLogin(userName, password);
+        }
+    }
+
+    public void putPatron(PatronRecord patron) throws IOException {
+        ChangeLog log = changeLog;
+        if (log == null) {
+            this.applyPatron(patron);
+            return;
+        }
+        synchronized (log) {
+            log.appendPatron(patron);
+            this.applyPatron(patron);
+        }
+    }
+
+    public void putItem(ItemRecord item) throws IOException {
+        ChangeLog log = changeLog;
+        if (log == null) {
+            this.applyItem(item);
+            return;
+        }
+        synchronized (log) {
+            log.appendItem(item);
+            this.applyItem(item);
+        }
+    }
+
+    public void putCheckout(CheckoutRecord checkout) throws IOException {
+        ChangeLog log = changeLog;
+        if (log == null) {
+            this.applyCheckout(checkout);
+            return;
+        }
+        synchronized (log) {
+            log.appendCheckout(checkout);
+            this.applyCheckout(checkout);
+        }
+    }
+
+    /**
+     * Adds a bib; the first bib stored for an item is the one found for it.
+     */
+    public void putBib(BibRecord bib) throws IOException {
+        ChangeLog log = changeLog;
+        if (log == null) {
+            this.applyBib(bib);
+            return;
+        }
+        synchronized (log) {
+            log.appendBib(bib);
+            this.applyBib(bib);
+        }
+    }
+
+    void applyLogin(String userName, String password) {
+        logins.put(userName, password);
+    }
+
+    void applyPatron(PatronRecord patron) {
+        patrons.put(patron.getPatronIdentifier(), patron);
+    }
+
+    void applyItem(ItemRecord item) {
+        items.put(item.getItemIdentifier(), item);
+    }
+
+    void applyCheckout(CheckoutRecord checkout) {
+        checkouts.put(checkout.getTransactionId(), checkout);
+        Set<String> transactions = checkoutsByItem.get(checkout.getItemIdentifier());
+        if (transactions == null) {
+            Set<String> created = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            transactions = checkoutsByItem.putIfAbsent(checkout.getItemIdentifier(), created);
+            if (transactions == null) {
+                transactions = created;
+            }
+        }
+        transactions.add(checkout.getTransactionId());
+    }
+
+    void applyBib(BibRecord bib) {
+        bibs.put(bib.getBibId(), bib);
+        if (base == null || base.findBib(bib.getItemIdentifier()) == null) {
+            bibsByItem.putIfAbsent(bib.getItemIdentifier(), bib.getBibId());
+        }
+        int last;
+        while ((last = lastBibId.get()) < bib.getBibId() && !lastBibId.compareAndSet(last, bib.getBibId())) {
+        }
+    }
+
+    /**
+     * Serves the rows of a snapshot beneath whatever the store already
+     * holds; rows put afterwards replace them.
+     */
+    void setBase(StoreSnapshot base) {
+        this.base = base;
+        int last;
+        while ((last = lastBibId.get()) < base.getLastBibId() && !lastBibId.compareAndSet(last, base.getLastBibId())) {
+        }
+    }
+
+    /**
+     * Drops the rows put since the base was set, once a new base holds them.
+     */
+    void clearChanges() {
+        logins.clear();
+        patrons.clear();
+        items.clear();
+        checkouts.clear();
+        checkoutsByItem.clear();
+        bibs.clear();
+        bibsByItem.clear();
+    }
+
+    StoreSnapshot getBase() {
+        return base;
+    }
+
+    /**
+     * Logs rows put from now on to log before they are applied.
+     */
+    void setChangeLog(ChangeLog changeLog) {
+        this.changeLog = changeLog;
+    }
+
+    int getLastBibId() {
+        return lastBibId.get();
+    }
+
+    Map<String, String> logins() {
+        return logins;
+    }
+
+    Map<String, PatronRecord> patrons() {
+        return patrons;
+    }
+
+    Map<String, ItemRecord> items() {
+        return items;
+    }
+
+    Map<String, CheckoutRecord> checkouts() {
+        return checkouts;
+    }
+
+    Map<Integer, BibRecord> bibs() {
+        return bibs;
+    }
+
+    @Override
+    public boolean validateLogin(String userName, String password) {
+        if (userName == null || password == null) {
+            return false;
+        }
+        String stored = logins.get(userName);
+        if (stored == null && base != null) {
+            stored = base.findPassword(userName);
+        }
+        return password.equals(stored);
+    }
+
+    @Override
+    public PatronInformationResponse findPatronByPatronId(String patronIdentifier) {
+        PatronRecord patron = (patronIdentifier == null) ? null : patrons.get(patronIdentifier);
+        if (patron == null && patronIdentifier != null && base != null) {
+            patron = base.findPatron(patronIdentifier);
+        }
+        return (patron == null) ? new PatronInformationResponse() : patron.toResponse();
+    }
+
+    @Override
+    public ItemInformationResponse findItemByItemId(String itemIdentifier) {
+        ItemRecord item = (itemIdentifier == null) ? null : items.get(itemIdentifier);
+        if (item == null && itemIdentifier != null && base != null) {
+            item = base.findItem(itemIdentifier);
+        }
+        return (item == null) ? new ItemInformationResponse() : item.toResponse();
+    }
+
+    @Override
+    public boolean checkoutItem(CheckOut checkOut) {
+        if (checkOut.getNbDueDate() == null) {
+            return false;
+        }
+        try {
+            this.putCheckout(new CheckoutRecord("" + Math.random(), new Date(), "" + checkOut.getPatronIdentifier(),
+                    "" + checkOut.getItemIdentifier(), new Date(checkOut.getNbDueDate().getTime())));
+            return true;
+        } catch (IOException ex) {
+            logger.error("Unable to log checkout of " + checkOut.getItemIdentifier(), ex);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean checkInItem(String itemIdentifier) {
+        if (itemIdentifier == null) {
+            return false;
+        }
+        Set<String> transactions = checkoutsByItem.get(itemIdentifier);
+        if (transactions != null && !transactions.isEmpty()) {
+            return true;
+        }
+        return base != null && base.hasCheckout(itemIdentifier);
+    }
+
+    @Override
+    public Integer findBibByItemId(String itemIdentifier) {
+        if (itemIdentifier == null) {
+            return null;
+        }
+        Integer bibId = (base == null) ? null : base.findBib(itemIdentifier);
+        return (bibId != null) ? bibId : bibsByItem.get(itemIdentifier);
+    }
+
+    @Override
+    public Integer createBib(Bib bib) {
+        int bibId = lastBibId.incrementAndGet();
+        try {
+            this.putBib(new BibRecord(bibId, "" + bib.getPatronIdentifier(), "" + bib.getItemIdentifier(), "" + bib.getTitleIdentifier()));
+            return bibId;
+        } catch (IOException ex) {
+            logger.error("Unable to log bib " + bibId, ex);
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (base != null) {
+            return base.getLoginCount() + " logins, " + base.getPatronCount() + " patrons, " + base.getItemCount() + " items, "
+                    + base.getCheckoutCount() + " checkouts, " + base.getBibCount() + " bibs from " + base.getFile()
+                    + ", and " + logins.size() + " logins, " + patrons.size() + " patrons, " + items.size() + " items, "
+                    + checkouts.size() + " checkouts, " + bibs.size() + " bibs held in memory";
+        }
+        return logins.size() + " logins, " + patrons.size() + " patrons, " + items.size() + " items, "
+                + checkouts.size() + " checkouts, " + bibs.size() + " bibs";
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+
+    private static int toInt(String value) {
+        return isEmpty(value) ? 0 : Integer.parseInt(value);
+    }
+
+    /**
+     * As MySQL reads a BIT or TINYINT(1) column: true for 1, and for true or
+     * y in any case.
+     */
+    private static boolean toBoolean(String value) {
+        return !isEmpty(value) && (value.equals("1") || value.equalsIgnoreCase("true") || value.equalsIgnoreCase("y"));
+    }
+
+    /**
+     * The date part of yyyy-MM-dd or yyyy-MM-dd HH:mm:ss, as ResultSet.getDate
+     * returns it.
+     */
+    private static Date toDate(String value) {
+        if (isEmpty(value)) {
+            return null;
+        }
+        return java.sql.Date.valueOf(value.length() > 10 ? value.substring(0, 10) : value);
+    }
+}
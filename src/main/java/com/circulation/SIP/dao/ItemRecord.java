@@ -0,0 +1,96 @@
+package com.circulation.SIP.dao;
+
+import java.util.Date;
+
+import com.circulation.SIP.messages.ItemInformationResponse;
+import com.circulation.SIP.types.enumerations.CirculationStatus;
+import com.circulation.SIP.types.enumerations.FeeType;
+import com.circulation.SIP.types.enumerations.MediaType;
+import com.circulation.SIP.types.enumerations.SecurityMarker;
+
+/**
+ * A row of the item table, kept so lookups can be cached and each request
+ * still gets a response of its own.
+ */
+public class ItemRecord {
+    private final String itemIdentifier;
+    private final Date transactionDate;
+    private final int holdQueueLength;
+    private final String dueDate;
+    private final Date recallDate;
+    private final Date holdPickupDate;
+    private final String titleIdentifier;
+    private final String permanentLocation;
+    private final String currentLocation;
+
+    public ItemRecord(String itemIdentifier, Date transactionDate, int holdQueueLength, String dueDate, Date recallDate,
+            Date holdPickupDate, String titleIdentifier, String permanentLocation, String currentLocation) {
+        this.itemIdentifier = itemIdentifier;
+        this.transactionDate = transactionDate;
+        this.holdQueueLength = holdQueueLength;
+        this.dueDate = dueDate;
+        this.recallDate = recallDate;
+        this.holdPickupDate = holdPickupDate;
+        this.titleIdentifier = titleIdentifier;
+        this.permanentLocation = permanentLocation;
+        this.currentLocation = currentLocation;
+    }
+
+    public String getItemIdentifier() {
+        return itemIdentifier;
+    }
+
+    public Date getTransactionDate() {
+        return transactionDate;
+    }
+
+    public int getHoldQueueLength() {
+        return holdQueueLength;
+    }
+
+    public String getDueDate() {
+        return dueDate;
+    }
+
+    public Date getRecallDate() {
+        return recallDate;
+    }
+
+    public Date getHoldPickupDate() {
+        return holdPickupDate;
+    }
+
+    public String getTitleIdentifier() {
+        return titleIdentifier;
+    }
+
+    public String getPermanentLocation() {
+        return permanentLocation;
+    }
+
+    public String getCurrentLocation() {
+        return currentLocation;
+    }
+
+    public ItemInformationResponse toResponse() {
+        ItemInformationResponse itemInformationResponse = new ItemInformationResponse();
+        itemInformationResponse.setItemIdentifier(itemIdentifier);
+        itemInformationResponse.setCirculationStatus(CirculationStatus.AVAILABLE);
+        itemInformationResponse.setSecurityMarker(SecurityMarker.OTHER);
+        itemInformationResponse.setFeeType(FeeType.OTHER);
+        itemInformationResponse.setTransactionDate(copy(transactionDate));
+        itemInformationResponse.setHoldQueueLength(holdQueueLength);
+        itemInformationResponse.setDueDate(dueDate);
+        itemInformationResponse.setRecallDate(copy(recallDate));
+        itemInformationResponse.setHoldPickupDate(copy(holdPickupDate));
+        itemInformationResponse.setTitleIdentifier(titleIdentifier);
+        itemInformationResponse.setMediaType(MediaType.OTHER);
+        itemInformationResponse.setPermanentLocation(permanentLocation);
+        itemInformationResponse.setCurrentLocation(currentLocation);
+        return itemInformationResponse;
+    }
+
+    private static Date copy(Date date) {
+        return date == null ? null : new Date(date.getTime());
+    }
+}
@@ -0,0 +1,570 @@
+package com.circulation.SIP.dao;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Small JDBC connection pool for the DAOs.
+ * <p>
+ * Connections handed out are proxies: closing one returns the underlying
+ * connection to the pool, and the statements it prepares are cached per
+ * pooled connection, so closing them only clears their parameters.
+ * Connections which have sat idle are validated before they are handed out,
+ * connections above the minimum are closed once they have been idle for a
+ * minute, and with a leak detection threshold set any connection held longer
+ * than that is logged along with where it was borrowed.
+ */
+public class JdbcConnectionPool {
+    private static Log logger = LogFactory.getLog(JdbcConnectionPool.class);
+
+    public static final String PROP_MIN_SIZE = "spring.datasource.pool.min-size";
+    public static final String PROP_MAX_SIZE = "spring.datasource.pool.max-size";
+    public static final String PROP_CONNECTION_TIMEOUT = "spring.datasource.pool.connection-timeout";
+    public static final String PROP_VALIDATION_TIMEOUT = "spring.datasource.pool.validation-timeout";
+    public static final String PROP_LEAK_DETECTION_THRESHOLD = "spring.datasource.pool.leak-detection-threshold";
+    public static final String PROP_STATEMENT_CACHE_SIZE = "spring.datasource.pool.statement-cache-size";
+
+    private static final long VALIDATION_IDLE_TIME = 500;
+    private static final long IDLE_TIMEOUT = 60000;
+    private static final long HOUSEKEEPING_PERIOD = 30000;
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private int minSize = 1;
+    private int maxSize = 10;
+    private long connectionTimeout = 30000;
+    private int validationTimeout = 5;
+    private long leakDetectionThreshold = 0;
+    private int statementCacheSize = 32;
+
+    private final ArrayDeque<PooledConnection> idle = new ArrayDeque<PooledConnection>();
+    private final Set<Handle> borrowed = new HashSet<Handle>();
+    private int total = 0;
+    private boolean closed = false;
+    private ScheduledExecutorService housekeeper;
+
+    public JdbcConnectionPool(String url, String username, String password) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Pool for the spring.datasource settings in properties, sized and tuned
+     * by the spring.datasource.pool settings above; timeouts are in
+     * milliseconds except the validation timeout, which is in seconds.
+     */
+    public static JdbcConnectionPool fromProperties(Properties properties) {
+        String driver = properties.getProperty("spring.datasource.driver-class-name");
+        if (driver != null) {
+            try {
+                Class.forName(driver);
+            } catch (ClassNotFoundException ex) {
+                logger.warn("JDBC driver " + driver + " not found", ex);
+            }
+        }
+        JdbcConnectionPool pool = new JdbcConnectionPool(properties.getProperty("spring.datasource.url"),
+                properties.getProperty("spring.datasource.username"), properties.getProperty("spring.datasource.password"));
+        pool.setMinSize(Integer.parseInt(properties.getProperty(PROP_MIN_SIZE, "1")));
+        pool.setMaxSize(Integer.parseInt(properties.getProperty(PROP_MAX_SIZE, "10")));
+        pool.setConnectionTimeout(Long.parseLong(properties.getProperty(PROP_CONNECTION_TIMEOUT, "30000")));
+        pool.setValidationTimeout(Integer.parseInt(properties.getProperty(PROP_VALIDATION_TIMEOUT, "5")));
+        pool.setLeakDetectionThreshold(Long.parseLong(properties.getProperty(PROP_LEAK_DETECTION_THRESHOLD, "0")));
+        pool.setStatementCacheSize(Integer.parseInt(properties.getProperty(PROP_STATEMENT_CACHE_SIZE, "32")));
+        return pool;
+    }
+
+    public void setMinSize(int minSize) {
+        this.minSize = minSize;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Milliseconds to wait for a connection when all of them are in use.
+     */
+    public void setConnectionTimeout(long connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    public long getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    /**
+     * Seconds to wait for an idle connection to answer before discarding it.
+     */
+    public void setValidationTimeout(int validationTimeout) {
+        this.validationTimeout = validationTimeout;
+    }
+
+    public int getValidationTimeout() {
+        return validationTimeout;
+    }
+
+    /**
+     * Milliseconds a connection may be held before it is reported as a leak;
+     * 0 turns leak detection off.
+     */
+    public void setLeakDetectionThreshold(long leakDetectionThreshold) {
+        this.leakDetectionThreshold = leakDetectionThreshold;
+    }
+
+    public long getLeakDetectionThreshold() {
+        return leakDetectionThreshold;
+    }
+
+    /**
+     * Prepared statements kept per connection; 0 turns caching off.
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    public synchronized int getActiveCount() {
+        return borrowed.size();
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Borrows a connection, which must be closed to return it to the pool.
+     */
+    public Connection getConnection() throws SQLException {
+        this.startHousekeeping();
+        long deadline = System.currentTimeMillis() + connectionTimeout;
+        PooledConnection pooled = null;
+        while (pooled == null) {
+            boolean create = false;
+            synchronized (this) {
+                if (closed) {
+                    throw new SQLException("Connection pool is closed");
+                }
+                if (!idle.isEmpty()) {
+                    pooled = idle.pop();
+                } else if (total < maxSize) {
+                    total++;
+                    create = true;
+                } else {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        throw new SQLTransientConnectionException("Timed out waiting for a connection, all " + maxSize + " are in use");
+                    }
+                    try {
+                        this.wait(wait);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted waiting for a connection", ex);
+                    }
+                    continue;
+                }
+            }
+            if (create) {
+                pooled = this.open();
+            } else if (!this.validate(pooled)) {
+                this.discard(pooled);
+                pooled = null;
+            }
+        }
+        Handle handle = new Handle(pooled, leakDetectionThreshold > 0 ? new Throwable("Connection borrowed here") : null);
+        synchronized (this) {
+            borrowed.add(handle);
+        }
+        return handle.proxy;
+    }
+
+    /**
+     * Closes the idle connections now and the borrowed ones as they are
+     * returned.
+     */
+    public void close() {
+        List<PooledConnection> closing;
+        synchronized (this) {
+            closed = true;
+            closing = new ArrayList<PooledConnection>(idle);
+            idle.clear();
+            if (housekeeper != null) {
+                housekeeper.shutdown();
+            }
+            this.notifyAll();
+        }
+        for (PooledConnection pooled : closing) {
+            this.discard(pooled);
+        }
+    }
+
+    private synchronized void startHousekeeping() {
+        if (housekeeper != null || closed) {
+            return;
+        }
+        housekeeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "JdbcConnectionPool-housekeeper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long period = (leakDetectionThreshold > 0) ? Math.min(leakDetectionThreshold, HOUSEKEEPING_PERIOD) : HOUSEKEEPING_PERIOD;
+        housekeeper.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                JdbcConnectionPool.this.housekeeping();
+            }
+        }, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    private void housekeeping() {
+        long now = System.currentTimeMillis();
+        List<PooledConnection> expired = new ArrayList<PooledConnection>();
+        synchronized (this) {
+            if (leakDetectionThreshold > 0) {
+                for (Handle handle : borrowed) {
+                    if (!handle.reported && now - handle.borrowedAt > leakDetectionThreshold) {
+                        handle.reported = true;
+                        logger.warn("Possible connection leak, connection held for " + (now - handle.borrowedAt) + "ms", handle.borrowedBy);
+                    }
+                }
+            }
+            Iterator<PooledConnection> oldest = idle.descendingIterator();
+            while (oldest.hasNext() && total - expired.size() > minSize) {
+                PooledConnection pooled = oldest.next();
+                if (now - pooled.lastUsed > IDLE_TIMEOUT) {
+                    oldest.remove();
+                    expired.add(pooled);
+                }
+            }
+        }
+        for (PooledConnection pooled : expired) {
+            this.discard(pooled);
+        }
+        this.fillToMinimum();
+    }
+
+    private void fillToMinimum() {
+        while (true) {
+            synchronized (this) {
+                if (closed || total >= minSize) {
+                    return;
+                }
+                total++;
+            }
+            PooledConnection pooled;
+            try {
+                pooled = this.open();
+            } catch (SQLException ex) {
+                logger.warn("Unable to open connection", ex);
+                return;
+            }
+            this.release(pooled);
+        }
+    }
+
+    /**
+     * Opens a connection counted in total already.
+     */
+    private PooledConnection open() throws SQLException {
+        try {
+            return new PooledConnection(DriverManager.getConnection(url, username, password));
+        } catch (SQLException ex) {
+            synchronized (this) {
+                total--;
+                this.notifyAll();
+            }
+            throw ex;
+        }
+    }
+
+    private boolean validate(PooledConnection pooled) {
+        if (System.currentTimeMillis() - pooled.lastUsed < VALIDATION_IDLE_TIME) {
+            return true;
+        }
+        try {
+            return pooled.connection.isValid(validationTimeout);
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    private void release(PooledConnection pooled) {
+        if (pooled.broken) {
+            this.discard(pooled);
+            return;
+        }
+        pooled.lastUsed = System.currentTimeMillis();
+        synchronized (this) {
+            if (!closed) {
+                idle.push(pooled);
+                this.notifyAll();
+                return;
+            }
+        }
+        this.discard(pooled);
+    }
+
+    private void discard(PooledConnection pooled) {
+        synchronized (this) {
+            total--;
+            this.notifyAll();
+        }
+        try {
+            pooled.connection.close();
+        } catch (SQLException ex) {
+            logger.debug("Error closing connection", ex);
+        }
+    }
+
+    private void returned(Handle handle) {
+        synchronized (this) {
+            borrowed.remove(handle);
+        }
+        PooledConnection pooled = handle.pooled;
+        try {
+            if (!pooled.broken && !pooled.connection.getAutoCommit()) {
+                pooled.connection.rollback();
+                pooled.connection.setAutoCommit(true);
+            }
+        } catch (SQLException ex) {
+            pooled.broken = true;
+        }
+        this.release(pooled);
+    }
+
+    /**
+     * Connection exceptions (SQL state class 08) mean the connection should
+     * not go back into the pool.
+     */
+    private static Throwable check(PooledConnection pooled, InvocationTargetException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof SQLException) {
+            String state = ((SQLException) cause).getSQLState();
+            if (state != null && state.startsWith("08")) {
+                pooled.broken = true;
+            }
+        }
+        return cause;
+    }
+
+    private class PooledConnection {
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements;
+        private volatile long lastUsed = System.currentTimeMillis();
+        private volatile boolean broken = false;
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() <= statementCacheSize) {
+                        return false;
+                    }
+                    try {
+                        eldest.getValue().close();
+                    } catch (SQLException ex) {
+                        logger.debug("Error closing statement", ex);
+                    }
+                    return true;
+                }
+            };
+        }
+
+        /**
+         * Cached statement for prepareStatement(sql) and
+         * prepareStatement(sql, autoGeneratedKeys), null for anything else.
+         */
+        PreparedStatement prepare(Method method, Object[] args) throws SQLException {
+            if (statementCacheSize <= 0) {
+                return null;
+            }
+            Class<?>[] types = method.getParameterTypes();
+            String key;
+            if (types.length == 1) {
+                key = (String) args[0];
+            } else if (types.length == 2 && types[1] == int.class) {
+                key = args[1] + ":" + args[0];
+            } else {
+                return null;
+            }
+            PreparedStatement statement = statements.get(key);
+            if (statement == null || statement.isClosed()) {
+                statement = (types.length == 1) ? connection.prepareStatement((String) args[0])
+                        : connection.prepareStatement((String) args[0], ((Integer) args[1]).intValue());
+                statements.put(key, statement);
+            }
+            return statement;
+        }
+
+        /**
+         * Drops a statement that could not be reset from the cache.
+         */
+        void discard(PreparedStatement statement) {
+            Iterator<PreparedStatement> cached = statements.values().iterator();
+            while (cached.hasNext()) {
+                if (cached.next() == statement) {
+                    cached.remove();
+                }
+            }
+            try {
+                statement.close();
+            } catch (SQLException ex) {
+                logger.debug("Error closing statement", ex);
+            }
+        }
+    }
+
+    /**
+     * One borrowing of a pooled connection; the proxy stops working once it is
+     * closed, even if the caller keeps hold of it.
+     */
+    private class Handle implements InvocationHandler {
+        private final PooledConnection pooled;
+        private final Throwable borrowedBy;
+        private final long borrowedAt = System.currentTimeMillis();
+        private final Connection proxy;
+        private boolean reported = false;
+        private volatile boolean closed = false;
+
+        Handle(PooledConnection pooled, Throwable borrowedBy) {
+            this.pooled = pooled;
+            this.borrowedBy = borrowedBy;
+            this.proxy = (Connection) Proxy.newProxyInstance(JdbcConnectionPool.class.getClassLoader(), new Class<?>[] { Connection.class }, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                if (!closed) {
+                    closed = true;
+                    JdbcConnectionPool.this.returned(this);
+                }
+                return null;
+            } else if (name.equals("isClosed")) {
+                return closed || pooled.connection.isClosed();
+            } else if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("toString")) {
+                return "Pooled " + pooled.connection;
+            }
+            if (closed) {
+                throw new SQLException("Connection has been returned to the pool");
+            }
+            if (name.equals("prepareStatement")) {
+                PreparedStatement cached = pooled.prepare(method, args);
+                if (cached != null) {
+                    return Proxy.newProxyInstance(JdbcConnectionPool.class.getClassLoader(), new Class<?>[] { PreparedStatement.class },
+                            new CachedStatement(this, cached));
+                }
+            }
+            try {
+                return method.invoke(pooled.connection, args);
+            } catch (InvocationTargetException ex) {
+                throw JdbcConnectionPool.check(pooled, ex);
+            }
+        }
+    }
+
+    /**
+     * A cached statement as seen by one borrower; closing it leaves the
+     * statement open for the next.
+     */
+    private static class CachedStatement implements InvocationHandler {
+        private final Handle handle;
+        private final PreparedStatement statement;
+        private boolean closed = false;
+
+        CachedStatement(Handle handle, PreparedStatement statement) {
+            this.handle = handle;
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                if (!closed) {
+                    closed = true;
+                    if (!handle.closed) {
+                        try {
+                            ResultSet results = statement.getResultSet();
+                            if (results != null) {
+                                results.close();
+                            }
+                            // a batch left by a failed bind or execute would go out with the next one
+                            statement.clearParameters();
+                            statement.clearBatch();
+                            statement.clearWarnings();
+                        } catch (SQLException ex) {
+                            handle.pooled.discard(statement);
+                        }
+                    }
+                }
+                return null;
+            } else if (name.equals("isClosed")) {
+                return closed || statement.isClosed();
+            } else if (name.equals("getConnection")) {
+                return handle.proxy;
+            } else if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("toString")) {
+                return "Cached " + statement;
+            }
+            if (closed || handle.closed) {
+                throw new SQLException("Statement is closed");
+            }
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException ex) {
+                throw JdbcConnectionPool.check(handle.pooled, ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.circulation.SIP.dao;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.circulation.SIP.metrics.CacheMetricsMXBean;
+
+/**
+ * Read-through cache for DAO lookups, holding at most maxSize entries, least
+ * recently used first out, each for at most ttl milliseconds.
+ * <p>
+ * Lookups which find nothing are not cached. A load that overlaps an
+ * invalidation is returned but not cached, so a write is never hidden by a
+ * read that started before it.
+ */
+public class LookupCache<K, V> implements CacheMetricsMXBean {
+
+    public interface Loader<K, V> {
+        /**
+         * @return the value for key, or null if there is none
+         */
+        V load(K key) throws Exception;
+    }
+
+    private final long ttl;
+    private final int maxSize;
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+    private long invalidations = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param ttl milliseconds an entry is kept; 0 turns the cache off
+     * @param maxSize entries kept; 0 turns the cache off
+     */
+    public LookupCache(long ttl, int maxSize) {
+        this.ttl = ttl;
+        this.maxSize = maxSize;
+    }
+
+    public V get(K key, Loader<K, V> loader) throws Exception {
+        long now = System.currentTimeMillis();
+        long generation;
+        synchronized (this) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expires > now) {
+                    hits.incrementAndGet();
+                    return entry.value;
+                }
+                entries.remove(key);
+                evictions.incrementAndGet();
+            }
+            generation = invalidations;
+        }
+        misses.incrementAndGet();
+        V value = loader.load(key);
+        if (value != null && ttl > 0 && maxSize > 0) {
+            synchronized (this) {
+                if (generation == invalidations) {
+                    entries.put(key, new Entry<V>(value, now + ttl));
+                    this.trim();
+                }
+            }
+        }
+        return value;
+    }
+
+    public synchronized void invalidate(K key) {
+        invalidations++;
+        entries.remove(key);
+    }
+
+    public synchronized void invalidateAll() {
+        invalidations++;
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public int getSize() {
+        return this.size();
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Entries dropped for expiry or to make room; invalidations are not
+     * counted.
+     */
+    @Override
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + this.getHitCount() + " misses=" + this.getMissCount() + " evictions=" + this.getEvictionCount() + " size=" + this.size();
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<K, Entry<V>>> eldest = entries.entrySet().iterator();
+        while (entries.size() > maxSize && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expires;
+
+        Entry(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+}
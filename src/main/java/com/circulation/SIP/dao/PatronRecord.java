@@ -0,0 +1,115 @@
+package com.circulation.SIP.dao;
+
+import java.util.Date;
+
+import com.circulation.SIP.messages.PatronInformationResponse;
+import com.circulation.SIP.types.enumerations.CurrencyType;
+
+/**
+ * A row of the patron table, kept so lookups can be cached and each request
+ * still gets a response of its own.
+ */
+public class PatronRecord {
+    private final String patronIdentifier;
+    private final int unavailableHoldsCount;
+    private final int chargedItemsCount;
+    private final int holdItemsCount;
+    private final int fineItemsCount;
+    private final int recallItemsCount;
+    private final int overdueItemsCount;
+    private final Date transactionDate;
+    private final String personalName;
+    private final boolean validPatron;
+    private final boolean validPatronPassword;
+    private final String feeAmount;
+    private final String emailAddress;
+
+    public PatronRecord(String patronIdentifier, int unavailableHoldsCount, int chargedItemsCount, int holdItemsCount,
+            int fineItemsCount, int recallItemsCount, int overdueItemsCount, Date transactionDate, String personalName,
+            boolean validPatron, boolean validPatronPassword, String feeAmount, String emailAddress) {
+        this.patronIdentifier = patronIdentifier;
+        this.unavailableHoldsCount = unavailableHoldsCount;
+        this.chargedItemsCount = chargedItemsCount;
+        this.holdItemsCount = holdItemsCount;
+        this.fineItemsCount = fineItemsCount;
+        this.recallItemsCount = recallItemsCount;
+        this.overdueItemsCount = overdueItemsCount;
+        this.transactionDate = transactionDate;
+        this.personalName = personalName;
+        this.validPatron = validPatron;
+        this.validPatronPassword = validPatronPassword;
+        this.feeAmount = feeAmount;
+        this.emailAddress = emailAddress;
+    }
+
+    public String getPatronIdentifier() {
+        return patronIdentifier;
+    }
+
+    public int getUnavailableHoldsCount() {
+        return unavailableHoldsCount;
+    }
+
+    public int getChargedItemsCount() {
+        return chargedItemsCount;
+    }
+
+    public int getHoldItemsCount() {
+        return holdItemsCount;
+    }
+
+    public int getFineItemsCount() {
+        return fineItemsCount;
+    }
+
+    public int getRecallItemsCount() {
+        return recallItemsCount;
+    }
+
+    public int getOverdueItemsCount() {
+        return overdueItemsCount;
+    }
+
+    public Date getTransactionDate() {
+        return transactionDate;
+    }
+
+    public String getPersonalName() {
+        return personalName;
+    }
+
+    public boolean isValidPatron() {
+        return validPatron;
+    }
+
+    public boolean isValidPatronPassword() {
+        return validPatronPassword;
+    }
+
+    public String getFeeAmount() {
+        return feeAmount;
+    }
+
+    public String getEmailAddress() {
+        return emailAddress;
+    }
+
+    public PatronInformationResponse toResponse() {
+        PatronInformationResponse patronInformationResponse = new PatronInformationResponse();
+        patronInformationResponse.setUnavailableHoldsCount(unavailableHoldsCount);
+        patronInformationResponse.setChargedItemsCount(chargedItemsCount);
+        patronInformationResponse.setHoldItemsCount(holdItemsCount);
+        patronInformationResponse.setFineItemsCount(fineItemsCount);
+        patronInformationResponse.setRecallItemsCount(recallItemsCount);
+        patronInformationResponse.setOverdueItemsCount(overdueItemsCount);
+        patronInformationResponse.setTransactionDate(transactionDate == null ? null : new Date(transactionDate.getTime()));
+        patronInformationResponse.setPersonalName(personalName);
+        patronInformationResponse.setValidPatron(validPatron);
+        patronInformationResponse.setValidPatronPassword(validPatronPassword);
+        patronInformationResponse.setFeeAmount(feeAmount);
+        patronInformationResponse.setEmailAddress(emailAddress);
+        patronInformationResponse.setPatronIdentifier(patronIdentifier);
+        patronInformationResponse.setCurrencyType(CurrencyType.US_DOLLARS);
+        return patronInformationResponse;
+    }
+}
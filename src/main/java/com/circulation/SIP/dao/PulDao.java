@@ -9,115 +9,260 @@ import com.circulation.SIP.server.SocketServer;
 /**
  * Created by giris on 3/3/20.
  */
-public class PulDao {
-
-    public static Connection connection = null;
+public class PulDao implements CirculationStore {
 
     private static Log logger = LogFactory.getLog(PulDao.class);
 
+    public static final long DEFAULT_CACHE_TTL = 30000;
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    private final LookupCache<String, PatronRecord> patronCache;
+    private final LookupCache<String, ItemRecord> itemCache;
+    private CheckoutWriteBehind checkoutWriteBehind = null;
+
+    public PulDao() {
+        this(DEFAULT_CACHE_TTL, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param cacheTtl milliseconds patron and item rows are cached for; 0 to
+     *        look them up every time
+     * @param cacheSize patron and item rows cached, each
+     */
+    public PulDao(long cacheTtl, int cacheSize) {
+        this.patronCache = new LookupCache<String, PatronRecord>(cacheTtl, cacheSize);
+        this.itemCache = new LookupCache<String, ItemRecord>(cacheTtl, cacheSize);
+    }
+
+    public LookupCache<String, PatronRecord> getPatronCache() {
+        return patronCache;
+    }
+
+    public LookupCache<String, ItemRecord> getItemCache() {
+        return itemCache;
+    }
+
+    /**
+     * Journals checkouts and inserts them in batches in the background
+     * rather than inserting each on the request thread; null to insert
+     * directly.
+     */
+    public void setCheckoutWriteBehind(CheckoutWriteBehind checkoutWriteBehind) {
+        this.checkoutWriteBehind = checkoutWriteBehind;
+    }
+
+    public CheckoutWriteBehind getCheckoutWriteBehind() {
+        return checkoutWriteBehind;
+    }
+
+    @Override
     public boolean validateLogin(String userName, String password) {
         try {
-            PreparedStatement preparedStatement = SocketServer.getConnection().prepareStatement("select username from login where username = ? and password = ?");
-            preparedStatement.setString(1, userName);
-            preparedStatement.setString(2, password);
-            logger.error("username = "+userName);
-            logger.error("password ="+password);
-            return preparedStatement.executeQuery().next();
+            Connection connection = SocketServer.getConnection();
+            try {
+                PreparedStatement preparedStatement = connection.prepareStatement("select username from login where username = ? and password = ?");
+                try {
+                    preparedStatement.setString(1, userName);
+                    preparedStatement.setString(2, password);
+                    logger.error("username = "+userName);
+                    logger.error("password ="+password);
+                    return exists(preparedStatement);
+                } finally {
+                    preparedStatement.close();
+                }
+            } finally {
+                connection.close();
+            }
         } catch (Exception e) {
             return false;
         }
     }
 
+    @Override
     public PatronInformationResponse findPatronByPatronId(String patronIdentifier) {
-        PatronInformationResponse patronInformationResponse = new PatronInformationResponse();
         try {
-            PreparedStatement preparedStatement = SocketServer.getConnection().prepareStatement("select * from patron where patron_identifier = ?");
-            preparedStatement.setString(1, patronIdentifier);
-            ResultSet resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
-                patronInformationResponse.setUnavailableHoldsCount(resultSet.getInt("unavailable_holds_count"));
-                patronInformationResponse.setChargedItemsCount(resultSet.getInt("charged_Items_count"));
-                patronInformationResponse.setHoldItemsCount(resultSet.getInt("hold_Items_count"));
-                patronInformationResponse.setFineItemsCount(resultSet.getInt("fine_Items_count"));
-                patronInformationResponse.setRecallItemsCount(resultSet.getInt("recall_Items_count"));
-                patronInformationResponse.setOverdueItemsCount(resultSet.getInt("overdue_Items_count"));
-                patronInformationResponse.setTransactionDate(resultSet.getDate("transaction_date"));
-                patronInformationResponse.setPersonalName(resultSet.getString("person_name"));
-                patronInformationResponse.setValidPatron(resultSet.getBoolean("valid_patron"));
-                patronInformationResponse.setValidPatronPassword(resultSet.getBoolean("valid_Patron_password"));
-                patronInformationResponse.setFeeAmount(resultSet.getString("fee_amount"));
-                patronInformationResponse.setEmailAddress(resultSet.getString("email_address"));
-                patronInformationResponse.setPatronIdentifier(patronIdentifier);
-                patronInformationResponse.setCurrencyType(CurrencyType.US_DOLLARS);
+            PatronRecord patron = patronCache.get(patronIdentifier, new LookupCache.Loader<String, PatronRecord>() {
+                @Override
+                public PatronRecord load(String key) throws Exception {
+                    return loadPatron(key);
+                }
+            });
+            if (patron != null) {
+                return patron.toResponse();
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
-        return patronInformationResponse;
+        return new PatronInformationResponse();
     }
 
-    public ItemInformationResponse findItemByItemId(String itemIdentifier) {
-        ItemInformationResponse itemInformationResponse = new ItemInformationResponse();
+    private PatronRecord loadPatron(String patronIdentifier) throws Exception {
+        PatronRecord patron = null;
+        Connection connection = SocketServer.getConnection();
         try {
-            PreparedStatement preparedStatement = SocketServer.getConnection().prepareStatement("select * from item where item_identifier = ?");
-            preparedStatement.setString(1, itemIdentifier);
-            ResultSet resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
-                itemInformationResponse.setItemIdentifier(itemIdentifier);
-                itemInformationResponse.setCirculationStatus(CirculationStatus.AVAILABLE);
-                itemInformationResponse.setSecurityMarker(SecurityMarker.OTHER);
-                itemInformationResponse.setFeeType(FeeType.OTHER);
-                itemInformationResponse.setTransactionDate(resultSet.getDate("transaction_date"));
-                itemInformationResponse.setHoldQueueLength(resultSet.getInt("hold_queue_length"));
-                itemInformationResponse.setDueDate(resultSet.getString("due_date"));
-                itemInformationResponse.setRecallDate(resultSet.getDate("recal_date"));
-                itemInformationResponse.setHoldPickupDate(resultSet.getDate("hold_pickup_date"));
-                itemInformationResponse.setTitleIdentifier(resultSet.getString("title_identifier"));
-                itemInformationResponse.setMediaType(MediaType.OTHER);
-                itemInformationResponse.setPermanentLocation(resultSet.getString("permanent_location"));
-                itemInformationResponse.setCurrentLocation(resultSet.getString("current_location"));
+            PreparedStatement preparedStatement = connection.prepareStatement("select * from patron where patron_identifier = ?");
+            try {
+                preparedStatement.setString(1, patronIdentifier);
+                ResultSet resultSet = preparedStatement.executeQuery();
+                try {
+                    while (resultSet.next()) {
+                        patron = new PatronRecord(patronIdentifier,
+                                resultSet.getInt("unavailable_holds_count"),
+                                resultSet.getInt("charged_Items_count"),
+                                resultSet.getInt("hold_Items_count"),
+                                resultSet.getInt("fine_Items_count"),
+                                resultSet.getInt("recall_Items_count"),
+                                resultSet.getInt("overdue_Items_count"),
+                                resultSet.getDate("transaction_date"),
+                                resultSet.getString("person_name"),
+                                resultSet.getBoolean("valid_patron"),
+                                resultSet.getBoolean("valid_Patron_password"),
+                                resultSet.getString("fee_amount"),
+                                resultSet.getString("email_address"));
+                    }
+                } finally {
+                    resultSet.close();
+                }
+            } finally {
+                preparedStatement.close();
             }
+        } finally {
+            connection.close();
+        }
+        return patron;
+    }
 
+    @Override
+    public ItemInformationResponse findItemByItemId(String itemIdentifier) {
+        try {
+            ItemRecord item = itemCache.get(itemIdentifier, new LookupCache.Loader<String, ItemRecord>() {
+                @Override
+                public ItemRecord load(String key) throws Exception {
+                    return loadItem(key);
+                }
+            });
+            if (item != null) {
+                return item.toResponse();
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
-        return itemInformationResponse;
+        return new ItemInformationResponse();
+    }
+
+    private ItemRecord loadItem(String itemIdentifier) throws Exception {
+        ItemRecord item = null;
+        Connection connection = SocketServer.getConnection();
+        try {
+            PreparedStatement preparedStatement = connection.prepareStatement("select * from item where item_identifier = ?");
+            try {
+                preparedStatement.setString(1, itemIdentifier);
+                ResultSet resultSet = preparedStatement.executeQuery();
+                try {
+                    while (resultSet.next()) {
+                        item = new ItemRecord(itemIdentifier,
+                                resultSet.getDate("transaction_date"),
+                                resultSet.getInt("hold_queue_length"),
+                                resultSet.getString("due_date"),
+                                resultSet.getDate("recal_date"),
+                                resultSet.getDate("hold_pickup_date"),
+                                resultSet.getString("title_identifier"),
+                                resultSet.getString("permanent_location"),
+                                resultSet.getString("current_location"));
+                    }
+                } finally {
+                    resultSet.close();
+                }
+            } finally {
+                preparedStatement.close();
+            }
+        } finally {
+            connection.close();
+        }
+        return item;
     }
 
+    @Override
     public boolean checkoutItem(CheckOut checkOut){
         try{
+            if (checkoutWriteBehind != null) {
+                checkoutWriteBehind.record(""+Math.random(), new java.util.Date().getTime(), ""+checkOut.getPatronIdentifier(),
+                        ""+checkOut.getItemIdentifier(), checkOut.getNbDueDate().getTime());
+                return true;
+            }
             String sql = "Insert into check_out (transaction_id, transaction_date, patron_identifier, item_identifier,due_date)values (?,?,?,?,?)";
-            PreparedStatement preparedStatement = SocketServer.getConnection().prepareStatement(sql);
-            preparedStatement.setString(1, ""+Math.random());
-            preparedStatement.setDate(2, new Date(new java.util.Date().getTime()));
-            preparedStatement.setString(3, ""+checkOut.getPatronIdentifier());
-            preparedStatement.setString(4, ""+checkOut.getItemIdentifier());
-            preparedStatement.setDate(5, new Date(checkOut.getNbDueDate().getTime()));
-            preparedStatement.execute();
+            Connection connection = SocketServer.getConnection();
+            try {
+                PreparedStatement preparedStatement = connection.prepareStatement(sql);
+                try {
+                    preparedStatement.setString(1, ""+Math.random());
+                    preparedStatement.setDate(2, new Date(new java.util.Date().getTime()));
+                    preparedStatement.setString(3, ""+checkOut.getPatronIdentifier());
+                    preparedStatement.setString(4, ""+checkOut.getItemIdentifier());
+                    preparedStatement.setDate(5, new Date(checkOut.getNbDueDate().getTime()));
+                    preparedStatement.execute();
+                } finally {
+                    preparedStatement.close();
+                }
+            } finally {
+                connection.close();
+            }
             return true;
         }catch (Exception e){
             e.printStackTrace();
+        } finally {
+            patronCache.invalidate(checkOut.getPatronIdentifier());
+            itemCache.invalidate(checkOut.getItemIdentifier());
         }
         return false;
     }
 
+    @Override
     public boolean checkInItem(String itemIdentifier){
         try {
-            PreparedStatement preparedStatement = SocketServer.getConnection().prepareStatement("select transaction_id from check_out where item_identifier = ?");
-            preparedStatement.setString(1, itemIdentifier);
-            return preparedStatement.executeQuery().next();
+            if (checkoutWriteBehind != null && checkoutWriteBehind.isPending(itemIdentifier)) {
+                return true;
+            }
+            Connection connection = SocketServer.getConnection();
+            try {
+                PreparedStatement preparedStatement = connection.prepareStatement("select transaction_id from check_out where item_identifier = ?");
+                try {
+                    preparedStatement.setString(1, itemIdentifier);
+                    return exists(preparedStatement);
+                } finally {
+                    preparedStatement.close();
+                }
+            } finally {
+                connection.close();
+            }
         } catch (Exception e) {
             return false;
+        } finally {
+            itemCache.invalidate(itemIdentifier);
         }
     }
 
+    @Override
     public Integer findBibByItemId(String itemIdentifier){
         try {
-            PreparedStatement preparedStatement = SocketServer.getConnection().prepareStatement("select bib_id from bib where item_identifier = ?");
-            preparedStatement.setString(1, itemIdentifier);
-            ResultSet resultSet = preparedStatement.executeQuery();
-            if(resultSet.next()){
-                return resultSet.getInt("bib_id");
+            Connection connection = SocketServer.getConnection();
+            try {
+                PreparedStatement preparedStatement = connection.prepareStatement("select bib_id from bib where item_identifier = ?");
+                try {
+                    preparedStatement.setString(1, itemIdentifier);
+                    ResultSet resultSet = preparedStatement.executeQuery();
+                    try {
+                        if(resultSet.next()){
+                            return resultSet.getInt("bib_id");
+                        }
+                    } finally {
+                        resultSet.close();
+                    }
+                } finally {
+                    preparedStatement.close();
+                }
+            } finally {
+                connection.close();
             }
         } catch (Exception e) {
 
@@ -125,22 +270,48 @@ public class PulDao {
         return null;
     }
 
+    @Override
     public Integer createBib(Bib bib){
         try{
             String sql = "Insert into bib(patron_identifier, item_identifier, title_identifier)values (?,?,?)";
-            PreparedStatement preparedStatement = SocketServer.getConnection().prepareStatement(sql);
-            preparedStatement.setString(1, ""+bib.getPatronIdentifier());
-            preparedStatement.setString(2, ""+bib.getItemIdentifier());
-            preparedStatement.setString(3, ""+bib.getTitleIdentifier());
-            preparedStatement.execute();
-            ResultSet resultSet =  preparedStatement.getGeneratedKeys();
-            if(resultSet.next()){
-                return resultSet.getInt(1);
+            Connection connection = SocketServer.getConnection();
+            try {
+                PreparedStatement preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+                try {
+                    preparedStatement.setString(1, ""+bib.getPatronIdentifier());
+                    preparedStatement.setString(2, ""+bib.getItemIdentifier());
+                    preparedStatement.setString(3, ""+bib.getTitleIdentifier());
+                    preparedStatement.execute();
+                    ResultSet resultSet =  preparedStatement.getGeneratedKeys();
+                    try {
+                        if(resultSet.next()){
+                            return resultSet.getInt(1);
+                        }
+                    } finally {
+                        resultSet.close();
+                    }
+                } finally {
+                    preparedStatement.close();
+                }
+            } finally {
+                connection.close();
             }
         }catch (Exception e){
             e.printStackTrace();
+        } finally {
+            patronCache.invalidate(bib.getPatronIdentifier());
+            itemCache.invalidate(bib.getItemIdentifier());
         }
         return null;
     }
+
+    private static boolean exists(PreparedStatement preparedStatement) throws SQLException {
+        ResultSet resultSet = preparedStatement.executeQuery();
+        try {
+            return resultSet.next();
+        } finally {
+            resultSet.close();
+        }
+    }
 }
 
@@ -0,0 +1,167 @@
+package com.circulation.SIP.dao;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * Binary form of the store's rows, shared by {@link StoreSnapshot} and
+ * {@link ChangeLog}. Strings are a length (-1 for null) and UTF-8 bytes,
+ * dates are milliseconds (Long.MIN_VALUE for null).
+ * <p>
+ * Each row starts with the string it is looked up by: the user name, patron
+ * or item identifier, and for checkouts and bibs the item identifier.
+ */
+final class RecordCodec {
+    static final byte LOGIN = 1;
+    static final byte PATRON = 2;
+    static final byte ITEM = 3;
+    static final byte CHECKOUT = 4;
+    static final byte BIB = 5;
+
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private RecordCodec() {
+    }
+
+    static void writeLogin(DataOutput out, String userName, String password) throws IOException {
+        writeString(out, userName);
+        writeString(out, password);
+    }
+
+    static String[] readLogin(ByteBuffer in) {
+        return new String[] { readString(in), readString(in) };
+    }
+
+    static void writePatron(DataOutput out, PatronRecord patron) throws IOException {
+        writeString(out, patron.getPatronIdentifier());
+        out.writeInt(patron.getUnavailableHoldsCount());
+        out.writeInt(patron.getChargedItemsCount());
+        out.writeInt(patron.getHoldItemsCount());
+        out.writeInt(patron.getFineItemsCount());
+        out.writeInt(patron.getRecallItemsCount());
+        out.writeInt(patron.getOverdueItemsCount());
+        writeDate(out, patron.getTransactionDate());
+        writeString(out, patron.getPersonalName());
+        out.writeBoolean(patron.isValidPatron());
+        out.writeBoolean(patron.isValidPatronPassword());
+        writeString(out, patron.getFeeAmount());
+        writeString(out, patron.getEmailAddress());
+    }
+
+    static PatronRecord readPatron(ByteBuffer in) {
+        return new PatronRecord(readString(in), in.getInt(), in.getInt(), in.getInt(), in.getInt(), in.getInt(), in.getInt(),
+                readDate(in), readString(in), in.get() != 0, in.get() != 0, readString(in), readString(in));
+    }
+
+    static void writeItem(DataOutput out, ItemRecord item) throws IOException {
+        writeString(out, item.getItemIdentifier());
+        writeDate(out, item.getTransactionDate());
+        out.writeInt(item.getHoldQueueLength());
+        writeString(out, item.getDueDate());
+        writeDate(out, item.getRecallDate());
+        writeDate(out, item.getHoldPickupDate());
+        writeString(out, item.getTitleIdentifier());
+        writeString(out, item.getPermanentLocation());
+        writeString(out, item.getCurrentLocation());
+    }
+
+    static ItemRecord readItem(ByteBuffer in) {
+        return new ItemRecord(readString(in), readDate(in), in.getInt(), readString(in), readDate(in), readDate(in),
+                readString(in), readString(in), readString(in));
+    }
+
+    static void writeCheckout(DataOutput out, CheckoutRecord checkout) throws IOException {
+        writeString(out, checkout.getItemIdentifier());
+        writeString(out, checkout.getTransactionId());
+        writeDate(out, checkout.getTransactionDate());
+        writeString(out, checkout.getPatronIdentifier());
+        writeDate(out, checkout.getDueDate());
+    }
+
+    static CheckoutRecord readCheckout(ByteBuffer in) {
+        String itemIdentifier = readString(in);
+        String transactionId = readString(in);
+        Date transactionDate = readDate(in);
+        String patronIdentifier = readString(in);
+        return new CheckoutRecord(transactionId, transactionDate, patronIdentifier, itemIdentifier, readDate(in));
+    }
+
+    static void writeBib(DataOutput out, BibRecord bib) throws IOException {
+        writeString(out, bib.getItemIdentifier());
+        out.writeInt(bib.getBibId());
+        writeString(out, bib.getPatronIdentifier());
+        writeString(out, bib.getTitleIdentifier());
+    }
+
+    static BibRecord readBib(ByteBuffer in) {
+        String itemIdentifier = readString(in);
+        int bibId = in.getInt();
+        return new BibRecord(bibId, readString(in), itemIdentifier, readString(in));
+    }
+
+    static byte[] toBytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compares the leading string of the row at offset with key, byte by
+     * unsigned byte; a null leading string sorts first.
+     */
+    static int compareKey(ByteBuffer in, int offset, byte[] key) {
+        int length = in.getInt(offset);
+        if (length < 0) {
+            return -1;
+        }
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (in.get(offset + 4 + i) & 0xff) - (key[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length - key.length;
+    }
+
+    static int compareBytes(byte[] a, byte[] b) {
+        int common = Math.min(a.length, b.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (a[i] & 0xff) - (b[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = toBytes(value);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeDate(DataOutput out, Date value) throws IOException {
+        out.writeLong(value == null ? NO_DATE : value.getTime());
+    }
+
+    private static Date readDate(ByteBuffer in) {
+        long value = in.getLong();
+        return value == NO_DATE ? null : new java.sql.Date(value);
+    }
+}
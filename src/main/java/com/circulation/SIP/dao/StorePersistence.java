@@ -0,0 +1,165 @@
+package com.circulation.SIP.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Keeps an {@link InMemoryCirculationStore} in a data directory across
+ * restarts: a {@link StoreSnapshot} taken every so often, and a
+ * {@link ChangeLog} of the rows put since.
+ * <p>
+ * On startup {@link #recover()} maps the snapshot, which costs the same
+ * whatever its size as rows are only read as they are looked up, and
+ * replays the change log over it. Once {@link #start(long)} has been
+ * called, each snapshot starts a new log segment, writes the store to a new
+ * file beside the old one, then deletes the segments it has absorbed and
+ * drops the rows held in memory.
+ */
+public class StorePersistence {
+    private static Log logger = LogFactory.getLog(StorePersistence.class);
+
+    private static final String SNAPSHOT = "store.snapshot";
+    private static final long SYNC_INTERVAL = 1000;
+
+    private final InMemoryCirculationStore store;
+    private final File directory;
+    private final File snapshotFile;
+    private long nextSequence = 0;
+    private ChangeLog changeLog;
+    private ScheduledExecutorService scheduler;
+
+    public StorePersistence(InMemoryCirculationStore store, File directory) {
+        this.store = store;
+        this.directory = directory;
+        this.snapshotFile = new File(directory, SNAPSHOT);
+    }
+
+    /**
+     * Loads the snapshot and change log into the (empty) store; false if the
+     * data directory holds neither, and the store needs seeding. Empty log
+     * segments do not count: {@link #start(long)} opens one before the first
+     * snapshot is written, so a directory left by a process that died before
+     * then holds nothing of the seeded rows.
+     */
+    public boolean recover() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        boolean restored = false;
+        long start = System.currentTimeMillis();
+        if (snapshotFile.exists()) {
+            StoreSnapshot snapshot = StoreSnapshot.open(snapshotFile);
+            store.setBase(snapshot);
+            nextSequence = snapshot.getLogSequence();
+            restored = true;
+        }
+        int replayed = 0;
+        for (Long sequence : ChangeLog.sequences(directory)) {
+            if (sequence < nextSequence) {
+                continue;
+            }
+            int count = ChangeLog.replay(ChangeLog.segment(directory, sequence), store);
+            replayed += count;
+            nextSequence = sequence;
+            if (count > 0) {
+                restored = true;
+            }
+        }
+        if (restored) {
+            logger.info("Restored " + store + " from " + directory + ", replaying " + replayed + " changes, in "
+                    + (System.currentTimeMillis() - start) + "ms");
+        }
+        return restored;
+    }
+
+    /**
+     * Logs changes to the store from now on, and snapshots it every interval
+     * milliseconds, or never if interval is 0. A store without a snapshot,
+     * such as one just seeded from a fixture, is snapshotted straight away.
+     */
+    public synchronized void start(long interval) throws IOException {
+        changeLog = new ChangeLog(directory, nextSequence);
+        store.setChangeLog(changeLog);
+        if (!snapshotFile.exists()) {
+            this.snapshot();
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "StorePersistence-" + directory.getName());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    changeLog.sync();
+                } catch (IOException ex) {
+                    logger.warn("Unable to sync the change log in " + directory, ex);
+                }
+            }
+        }, SYNC_INTERVAL, SYNC_INTERVAL, TimeUnit.MILLISECONDS);
+        if (interval > 0) {
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        StorePersistence.this.snapshot();
+                    } catch (Exception ex) {
+                        logger.error("Unable to snapshot the store to " + snapshotFile, ex);
+                    }
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the store, serves it in place of the old one and
+     * of the rows held in memory, and drops the change log segments it
+     * makes redundant. Rows being put wait until it is written; lookups do
+     * not.
+     */
+    public synchronized void snapshot() throws IOException {
+        long start = System.currentTimeMillis();
+        long sequence;
+        synchronized (changeLog) {
+            sequence = changeLog.rotate();
+            StoreSnapshot.write(store, snapshotFile, sequence);
+            store.setBase(StoreSnapshot.open(snapshotFile));
+            store.clearChanges();
+        }
+        for (Long old : ChangeLog.sequences(directory)) {
+            if (old < sequence && !ChangeLog.segment(directory, old).delete()) {
+                logger.warn("Unable to delete " + ChangeLog.segment(directory, old));
+            }
+        }
+        logger.info("Snapshot of " + store + " written to " + snapshotFile + " in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Stops snapshotting and closes the change log; the store can still be
+     * read but no longer logs what is put.
+     */
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (changeLog != null) {
+            store.setChangeLog(null);
+            try {
+                changeLog.close();
+            } catch (IOException ex) {
+                logger.warn("Error closing the change log in " + directory, ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package com.circulation.SIP.dao;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only snapshot of an {@link InMemoryCirculationStore}, memory mapped
+ * so that opening it costs nothing and rows are paged in as they are looked
+ * up.
+ * <p>
+ * The file is a header followed by one section per table: the rows in
+ * {@link RecordCodec} form, then the offsets of the rows sorted by their
+ * leading key, which lookups binary search. The header records the lowest
+ * {@link ChangeLog} segment the snapshot does not already include.
+ */
+public class StoreSnapshot {
+    private static final int MAGIC = 0x53495053;
+    private static final int VERSION = 1;
+    private static final int TABLES = 5;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + TABLES * 8;
+
+    private static final int LOGINS = 0;
+    private static final int PATRONS = 1;
+    private static final int ITEMS = 2;
+    private static final int CHECKOUTS = 3;
+    private static final int BIBS = 4;
+
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final long logSequence;
+    private final int lastBibId;
+    private final int[] counts = new int[TABLES];
+    private final int[] indexes = new int[TABLES];
+
+    private StoreSnapshot(File file, MappedByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException(file + " is not a store snapshot");
+        }
+        this.logSequence = buffer.getLong(8);
+        this.lastBibId = buffer.getInt(16);
+        for (int table = 0; table < TABLES; table++) {
+            counts[table] = buffer.getInt(20 + table * 8);
+            indexes[table] = buffer.getInt(24 + table * 8);
+            if (indexes[table] < HEADER_SIZE || (long) indexes[table] + 4L * counts[table] > buffer.capacity()) {
+                throw new IOException(file + " is truncated");
+            }
+        }
+    }
+
+    /**
+     * Maps a snapshot file; nothing is read beyond the header until rows are
+     * looked up.
+     */
+    public static StoreSnapshot open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is larger than 2GB");
+            }
+            return new StoreSnapshot(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            // the mapping stays valid after the channel is closed
+            channel.close();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Change log segments from this one on hold changes made after the
+     * snapshot was taken.
+     */
+    public long getLogSequence() {
+        return logSequence;
+    }
+
+    public int getLastBibId() {
+        return lastBibId;
+    }
+
+    public int getLoginCount() {
+        return counts[LOGINS];
+    }
+
+    public int getPatronCount() {
+        return counts[PATRONS];
+    }
+
+    public int getItemCount() {
+        return counts[ITEMS];
+    }
+
+    public int getCheckoutCount() {
+        return counts[CHECKOUTS];
+    }
+
+    public int getBibCount() {
+        return counts[BIBS];
+    }
+
+    String findPassword(String userName) {
+        int offset = this.find(LOGINS, userName);
+        return offset < 0 ? null : RecordCodec.readLogin(this.at(offset))[1];
+    }
+
+    PatronRecord findPatron(String patronIdentifier) {
+        int offset = this.find(PATRONS, patronIdentifier);
+        return offset < 0 ? null : RecordCodec.readPatron(this.at(offset));
+    }
+
+    ItemRecord findItem(String itemIdentifier) {
+        int offset = this.find(ITEMS, itemIdentifier);
+        return offset < 0 ? null : RecordCodec.readItem(this.at(offset));
+    }
+
+    boolean hasCheckout(String itemIdentifier) {
+        return this.find(CHECKOUTS, itemIdentifier) >= 0;
+    }
+
+    /**
+     * The bib found for an item; the snapshot sorts it ahead of any others
+     * for the same item.
+     */
+    Integer findBib(String itemIdentifier) {
+        int offset = this.find(BIBS, itemIdentifier);
+        return offset < 0 ? null : RecordCodec.readBib(this.at(offset)).getBibId();
+    }
+
+    String[] loginAt(int index) {
+        return RecordCodec.readLogin(this.at(this.offset(LOGINS, index)));
+    }
+
+    PatronRecord patronAt(int index) {
+        return RecordCodec.readPatron(this.at(this.offset(PATRONS, index)));
+    }
+
+    ItemRecord itemAt(int index) {
+        return RecordCodec.readItem(this.at(this.offset(ITEMS, index)));
+    }
+
+    CheckoutRecord checkoutAt(int index) {
+        return RecordCodec.readCheckout(this.at(this.offset(CHECKOUTS, index)));
+    }
+
+    BibRecord bibAt(int index) {
+        return RecordCodec.readBib(this.at(this.offset(BIBS, index)));
+    }
+
+    private int offset(int table, int index) {
+        return buffer.getInt(indexes[table] + 4 * index);
+    }
+
+    /**
+     * A private view positioned at a row, so lookups can run concurrently.
+     */
+    private ByteBuffer at(int offset) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        return view;
+    }
+
+    /**
+     * Offset of the first row whose key is key, or -1.
+     */
+    private int find(int table, String key) {
+        if (key == null) {
+            return -1;
+        }
+        byte[] bytes = RecordCodec.toBytes(key);
+        int low = 0;
+        int high = counts[table];
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (RecordCodec.compareKey(buffer, this.offset(table, middle), bytes) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        if (low < counts[table]) {
+            int offset = this.offset(table, low);
+            if (RecordCodec.compareKey(buffer, offset, bytes) == 0) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Writes the whole of store to file, replacing it only once the new
+     * snapshot is complete and on disk.
+     */
+    static void write(InMemoryCirculationStore store, File file, long logSequence) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        int[] counts = new int[TABLES];
+        int[] indexes = new int[TABLES];
+        FileOutputStream stream = new FileOutputStream(temporary);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+            out.write(new byte[HEADER_SIZE]);
+            List<Key> keys = new ArrayList<Key>();
+
+            StoreSnapshot base = store.getBase();
+
+            if (base != null) {
+                for (int i = 0; i < base.getLoginCount(); i++) {
+                    String[] login = base.loginAt(i);
+                    if (!store.logins().containsKey(login[0])) {
+                        keys.add(new Key(login[0], out.size(), 0));
+                        RecordCodec.writeLogin(out, login[0], login[1]);
+                    }
+                }
+            }
+            for (Map.Entry<String, String> login : store.logins().entrySet()) {
+                keys.add(new Key(login.getKey(), out.size(), 0));
+                RecordCodec.writeLogin(out, login.getKey(), login.getValue());
+            }
+            indexes[LOGINS] = writeIndex(out, keys);
+            counts[LOGINS] = keys.size();
+            keys.clear();
+
+            if (base != null) {
+                for (int i = 0; i < base.getPatronCount(); i++) {
+                    PatronRecord patron = base.patronAt(i);
+                    if (!store.patrons().containsKey(patron.getPatronIdentifier())) {
+                        keys.add(new Key(patron.getPatronIdentifier(), out.size(), 0));
+                        RecordCodec.writePatron(out, patron);
+                    }
+                }
+            }
+            for (PatronRecord patron : store.patrons().values()) {
+                keys.add(new Key(patron.getPatronIdentifier(), out.size(), 0));
+                RecordCodec.writePatron(out, patron);
+            }
+            indexes[PATRONS] = writeIndex(out, keys);
+            counts[PATRONS] = keys.size();
+            keys.clear();
+
+            if (base != null) {
+                for (int i = 0; i < base.getItemCount(); i++) {
+                    ItemRecord item = base.itemAt(i);
+                    if (!store.items().containsKey(item.getItemIdentifier())) {
+                        keys.add(new Key(item.getItemIdentifier(), out.size(), 0));
+                        RecordCodec.writeItem(out, item);
+                    }
+                }
+            }
+            for (ItemRecord item : store.items().values()) {
+                keys.add(new Key(item.getItemIdentifier(), out.size(), 0));
+                RecordCodec.writeItem(out, item);
+            }
+            indexes[ITEMS] = writeIndex(out, keys);
+            counts[ITEMS] = keys.size();
+            keys.clear();
+
+            if (base != null) {
+                for (int i = 0; i < base.getCheckoutCount(); i++) {
+                    CheckoutRecord checkout = base.checkoutAt(i);
+                    if (!store.checkouts().containsKey(checkout.getTransactionId())) {
+                        keys.add(new Key(checkout.getItemIdentifier(), out.size(), 0));
+                        RecordCodec.writeCheckout(out, checkout);
+                    }
+                }
+            }
+            for (CheckoutRecord checkout : store.checkouts().values()) {
+                keys.add(new Key(checkout.getItemIdentifier(), out.size(), 0));
+                RecordCodec.writeCheckout(out, checkout);
+            }
+            indexes[CHECKOUTS] = writeIndex(out, keys);
+            counts[CHECKOUTS] = keys.size();
+            keys.clear();
+
+            if (base != null) {
+                for (int i = 0; i < base.getBibCount(); i++) {
+                    BibRecord bib = base.bibAt(i);
+                    if (!store.bibs().containsKey(bib.getBibId())) {
+                        keys.add(new Key(bib.getItemIdentifier(), out.size(), bibRank(store, bib)));
+                        RecordCodec.writeBib(out, bib);
+                    }
+                }
+            }
+            for (BibRecord bib : store.bibs().values()) {
+                keys.add(new Key(bib.getItemIdentifier(), out.size(), bibRank(store, bib)));
+                RecordCodec.writeBib(out, bib);
+            }
+            indexes[BIBS] = writeIndex(out, keys);
+            counts[BIBS] = keys.size();
+            keys.clear();
+
+            out.flush();
+        } finally {
+            stream.close();
+        }
+
+        RandomAccessFile header = new RandomAccessFile(temporary, "rw");
+        try {
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeLong(logSequence);
+            header.writeInt(store.getLastBibId());
+            for (int table = 0; table < TABLES; table++) {
+                header.writeInt(counts[table]);
+                header.writeInt(indexes[table]);
+            }
+            header.getChannel().force(true);
+        } finally {
+            header.close();
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Sorts the bib the store finds for an item ahead of the item's others.
+     */
+    private static int bibRank(InMemoryCirculationStore store, BibRecord bib) {
+        Integer found = store.findBibByItemId(bib.getItemIdentifier());
+        return (found != null && found.intValue() == bib.getBibId()) ? 0 : 1;
+    }
+
+    private static int writeIndex(DataOutputStream out, List<Key> keys) throws IOException {
+        Collections.sort(keys, new Comparator<Key>() {
+            @Override
+            public int compare(Key a, Key b) {
+                int order = RecordCodec.compareBytes(a.key, b.key);
+                return (order != 0) ? order : a.rank - b.rank;
+            }
+        });
+        int start = out.size();
+        if ((long) start + 4L * keys.size() >= Integer.MAX_VALUE) {
+            // DataOutputStream stops counting at Integer.MAX_VALUE
+            throw new IOException("Snapshot would be larger than 2GB");
+        }
+        for (Key key : keys) {
+            out.writeInt(key.offset);
+        }
+        return start;
+    }
+
+    private static class Key {
+        private final byte[] key;
+        private final int offset;
+        private final int rank;
+
+        Key(String key, int offset, int rank) {
+            this.key = (key == null) ? new byte[0] : RecordCodec.toBytes(key);
+            this.offset = offset;
+            this.rank = rank;
+        }
+    }
+}
@@ -34,4 +34,10 @@ public class ACSResend extends Message {
         }
     }
 
+    @Override
+    protected void appendChecksum(MessageSink message, Character sequence) {
+        message.append("AZ");
+        message.append(message.getChecksum());
+    }
+
 }
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.messages;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.circulation.SIP.exceptions.InvalidFieldLength;
+import com.circulation.SIP.exceptions.MandatoryFieldOmitted;
+import com.circulation.SIP.fields.FieldPolicy;
+import com.circulation.SIP.fields.PositionedFieldDefinition;
+import com.circulation.SIP.fields.TaggedFieldDefinition;
+
+/**
+ * The SIP rules for formatting and parsing field values, one static method
+ * per field type, so that the generated {@link MessageCodec}s call the one
+ * they need directly and the reflective path in {@link Message} applies the
+ * same rules. Encoders return null for a field that is left out.
+ */
+final class FieldCodec {
+    private static final Log log = LogFactory.getLog(FieldCodec.class);
+
+    private static final String[] EMPTY = new String[] { "" };
+
+    private FieldCodec() {
+    }
+
+    static String encodeBoolean(MessagePlan.Slot slot, Boolean value, boolean autoPop) throws MandatoryFieldOmitted {
+        if (value != null) {
+            if (slot.ok) {
+                return value.booleanValue() ? "1" : "0";
+            }
+            return value.booleanValue() ? "Y" : "N";
+        }
+        if (slot.field.policy != FieldPolicy.REQUIRED) {
+            return null;
+        }
+        if (slot.magneticMedia) {
+            return "U";
+        }
+        if (!autoPop) {
+            throw new MandatoryFieldOmitted(slot.name);
+        }
+        return slot.ok ? "0" : "N";
+    }
+
+    static String encodeDate(MessagePlan.Slot slot, Date value, boolean autoPop) throws MandatoryFieldOmitted {
+        if (value != null) {
+            return SIPDateFormat.format(value);
+        }
+        if (slot.field.policy != FieldPolicy.REQUIRED) {
+            return null;
+        }
+        if (!autoPop) {
+            throw new MandatoryFieldOmitted(slot.name);
+        }
+        return SIPDateFormat.format(System.currentTimeMillis());
+    }
+
+    static String encodeInteger(MessagePlan.Slot slot, Integer value, boolean autoPop) throws MandatoryFieldOmitted {
+        if (value == null) {
+            if (slot.field.policy != FieldPolicy.REQUIRED) {
+                return null;
+            }
+            if (!autoPop) {
+                throw new MandatoryFieldOmitted(slot.name);
+            }
+            value = Integer.valueOf(0);
+        }
+        return (slot.integerFormat != null) ? String.format(slot.integerFormat, value) : value.toString();
+    }
+
+    /**
+     * Strings, enumerations, flag fields and anything else rendered by its
+     * toString.
+     */
+    static String encodeObject(MessagePlan.Slot slot, Object value, boolean autoPop) throws MandatoryFieldOmitted {
+        if (value != null) {
+            return value.toString();
+        }
+        if (slot.field.policy != FieldPolicy.REQUIRED) {
+            return null;
+        }
+        if (!autoPop) {
+            throw new MandatoryFieldOmitted(slot.name);
+        }
+        if ((slot.enumeration != null) && (slot.enumeration.length > 0)) {
+            return slot.enumeration[0].toString();
+        }
+        return null;
+    }
+
+    /**
+     * Appends a positioned field, padded to its width.
+     */
+    static void positioned(MessageSink out, MessagePlan.Slot slot, String value) throws InvalidFieldLength {
+        PositionedFieldDefinition field = slot.positioned();
+        int width = field.end - field.start + 1;
+        String text = (value != null) ? value : "";
+        if (text.length() > width) {
+            throw new InvalidFieldLength(slot.name, width);
+        }
+        if (slot.fixedWidth && !text.isEmpty() && (text.length() != width)) {
+            throw new java.lang.AssertionError("FixedFieldDescriptor for " + slot.name + " in " + slot.owner.getSimpleName() + ", start/end ("
+                    + field.start + "," + field.end + ") invalid for type " + slot.type.getName());
+        }
+        if (out.length() != field.start) {
+            throw new java.lang.AssertionError("Positioning error inserting field at " + field.start + " for class " + slot.owner.getName());
+        }
+        out.append(text);
+        for (int n = text.length(); n < width; n++) {
+            out.append(' ');
+        }
+    }
+
+    /**
+     * The values to send for a tagged field, or null to leave it out.
+     */
+    static String[] tagged(MessagePlan.Slot slot, String value) throws InvalidFieldLength {
+        if ((value == null) || value.isEmpty()) {
+            return (slot.field.policy == FieldPolicy.REQUIRED) ? EMPTY : null;
+        }
+        FieldCodec.checkLength(slot, value);
+        return new String[] { value };
+    }
+
+    static String[] tagged(MessagePlan.Slot slot, String[] values) throws InvalidFieldLength {
+        if ((values == null) || (values.length == 0) || (values[0] == null) || values[0].isEmpty()) {
+            return (slot.field.policy == FieldPolicy.REQUIRED) ? EMPTY : null;
+        }
+        FieldCodec.checkLength(slot, values[0]);
+        return values;
+    }
+
+    private static void checkLength(MessagePlan.Slot slot, String value) throws InvalidFieldLength {
+        int length = slot.field.length;
+        if (length != 0) {
+            if ((slot.type == String.class) ? (value.length() > length) : (value.length() != length)) {
+                throw new InvalidFieldLength(slot.name, length);
+            }
+        }
+    }
+
+    /**
+     * Appends the tagged fields, indexed as the plan's, in the configured
+     * order.
+     */
+    static void appendTagged(MessageSink out, MessagePlan plan, String[][] values) {
+        String order = System.getProperty(Message.PROP_VARIABLE_FIELD_ORDERING, Message.PROP_VARIABLE_FIELD_ORDERING_DEFAULT);
+        MessagePlan.Slot[] tagged = order.equalsIgnoreCase(Message.PROP_VARIABLE_FIELD_ORDERING_SPECIFICATION) ? plan.tagged : plan.taggedAlphabetical;
+        for (MessagePlan.Slot slot : tagged) {
+            String[] field = values[slot.index];
+            if (field != null) {
+                for (String value : field) {
+                    out.append(slot.field.tag);
+                    out.append(value);
+                    out.append(TaggedFieldDefinition.TERMINATOR);
+                }
+            }
+        }
+    }
+
+    /**
+     * The text of a positioned field; empty if the frame is too short and
+     * empty fields may be filled in.
+     */
+    static String positioned(CharSequence frame, MessagePlan.Slot slot, boolean autoPop) throws MandatoryFieldOmitted {
+        PositionedFieldDefinition field = slot.positioned();
+        if (frame.length() > field.end) {
+            return frame.subSequence(field.start, field.end + 1).toString();
+        }
+        if (!autoPop) {
+            throw new MandatoryFieldOmitted(slot.name);
+        }
+        return "";
+    }
+
+    /**
+     * Index of the terminator of the tagged field starting at from, or -1 if
+     * the frame ends first.
+     */
+    static int fieldEnd(CharSequence frame, int from) {
+        int length = frame.length();
+        for (int end = from + 2; end < length; end++) {
+            if (frame.charAt(end) == TaggedFieldDefinition.TERMINATOR) {
+                return end;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Whether a decoded message lacks a required field.
+     */
+    static boolean omitted(MessagePlan.Slot slot, Object value) {
+        return (value == null) && (slot.field.policy == FieldPolicy.REQUIRED) && !slot.magneticMedia;
+    }
+
+    static Boolean decodeBoolean(String value) {
+        if (value.equalsIgnoreCase("U")) {
+            return null;
+        }
+        return Boolean.valueOf(value.equalsIgnoreCase("Y") || value.equalsIgnoreCase("1"));
+    }
+
+    static Date decodeDate(String value) {
+        return SIPDateFormat.parse(value);
+    }
+
+    /**
+     * Null for a blank field, which leaves the value as it was.
+     */
+    static Integer decodeInteger(MessagePlan.Slot slot, String value) {
+        String trimmed = value.trim();
+        if (trimmed.isEmpty()) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(trimmed);
+        } catch (NumberFormatException ex) {
+            FieldCodec.log.error("Unexpected error setting " + slot.name + " to " + value, ex);
+            return null;
+        }
+    }
+
+    static Object decodeEnumeration(MessagePlan.Slot slot, String value) {
+        if ((slot.enumeration == null) || (slot.enumeration.length == 0)) {
+            return null;
+        }
+        try {
+            return slot.enumeration[0].getKey(value);
+        } catch (RuntimeException ex) {
+            FieldCodec.log.error("Unexpected error setting " + slot.name + " to " + value, ex);
+            return null;
+        }
+    }
+
+    /**
+     * A repeated field's values with one more added.
+     */
+    static String[] add(String[] current, String value) {
+        if (current == null) {
+            return new String[] { value };
+        }
+        String[] values = Arrays.copyOf(current, current.length + 1);
+        values[current.length] = value;
+        return values;
+    }
+}
@@ -25,6 +25,9 @@ public class LoginResponse extends Message {
     @PositionedField(start = 2, end = 2)
     private Boolean ok;
 
+    public LoginResponse() {
+    }
+
     public LoginResponse(Boolean ok) {
         this.ok = ok;
     }
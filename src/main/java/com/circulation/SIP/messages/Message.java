@@ -17,24 +17,13 @@
 package com.circulation.SIP.messages;
 
 import com.circulation.SIP.annotations.Command;
-import com.circulation.SIP.annotations.PositionedField;
-import com.circulation.SIP.annotations.TaggedField;
 import com.circulation.SIP.exceptions.*;
-import com.circulation.SIP.fields.*;
-import com.circulation.SIP.types.enumerations.AbstractEnumeration;
-import com.circulation.SIP.types.flagfields.AbstractFlagField;
-import org.apache.commons.beanutils.PropertyUtils;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import java.beans.PropertyDescriptor;
 import java.beans.XMLDecoder;
 import java.beans.XMLEncoder;
 import java.io.*;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
-import java.text.SimpleDateFormat;
 import java.util.*;
 
 public abstract class Message implements Serializable {
@@ -84,147 +73,30 @@ public abstract class Message implements Serializable {
         oos.defaultWriteObject();
     }
 
-    private String mangleDate(Date date) {
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd    HHmmss");
-        return sdf.format(date);
-    }
-
-    private Date demangleDate(String date) {
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd    HHmmss");
+    private String[] getProp(MessagePlan.Slot slot, boolean autoPop) throws MandatoryFieldOmitted {
+        String ret = null;
         try {
-            return sdf.parse(date);
-        } catch (Exception ex) {
-            return null;
-        }
-    }
-
-    private String[] getProp(PropertyDescriptor desc, FieldDefinition SIPField, boolean autoPop) throws MandatoryFieldOmitted {
-        String[] ret = null;
-        try {
-            Method read = desc.getReadMethod();
-            Object value = null;
-            if (read != null) {
-                value = read.invoke(this, new Object[0]);
-            } else {
-            if (desc.getPropertyType() == Boolean.class) {
-                    read = this.getClass().getMethod("is" + desc.getName().substring(0, 1).toUpperCase() + desc.getName().substring(1), new Class[]{});
-                    if (read != null) {
-                        value = read.invoke(this, new Object[0]);                        
-                    }
-                }                
-            }
-            if (desc.getPropertyType() == Boolean.class) {
-                if (value == null) {
-                    if (SIPField != null) {
-                        if (SIPField.policy != null) {
-                            if (SIPField.policy == FieldPolicy.REQUIRED) {
-                                if (desc.getName().equalsIgnoreCase("magneticMedia")) {
-                                    ret = new String[] { "U" };
-                                } else {
-                                    if (!autoPop) {
-                                        throw new MandatoryFieldOmitted(desc.getDisplayName());
-                                    }
-                                    if (desc.getName().equalsIgnoreCase("ok")) {
-                                        ret = new String[] { "0" };
-                                    } else {
-                                        ret = new String[] { "N" };
-                                    }
-                                }
-                            }
-                        }
-                    }
-                } else if (desc.getName().equalsIgnoreCase("ok")) {
-                    ret = new String[] { ((Boolean) value).booleanValue() ? "1" : "0" };
-                } else {
-                    ret = new String[] { ((Boolean) value).booleanValue() ? "Y" : "N" };
-                }
-            } else if (desc.getPropertyType() == Date.class) {
+            Object value = slot.get(this);
+            if (slot.type == String[].class) {
                 if (value != null) {
-                    ret = new String[] { this.mangleDate((Date) value) };
-                } else {
-                    if (SIPField != null) {
-                        if (SIPField.policy != null) {
-                            if (SIPField.policy == FieldPolicy.REQUIRED) {
-                                if (!autoPop) {
-                                    throw new MandatoryFieldOmitted(desc.getDisplayName());
-                                }
-                                ret = new String[] { this.mangleDate(new Date()) };
-                            }
-                        }
-                    }
-                }
-            } else if (desc.getPropertyType() == String[].class) {
-                if (value != null) {
-                    ret = (String[]) value;
-                }
-            } else if (desc.getPropertyType() == Integer.class) {
-                if (value != null) {
-                    if (SIPField.length != 0) {
-                        ret = new String[] { String.format("%0" + SIPField.length + "d", value) };
-                    } else {
-                        ret = new String[] { value.toString() };
-                    }
-                } else {
-                    if (SIPField != null) {
-                        if (SIPField.policy != null) {
-                            if (SIPField.policy == FieldPolicy.REQUIRED) {
-                                if (!autoPop) {
-                                    throw new MandatoryFieldOmitted(desc.getDisplayName());
-                                }
-                                if (SIPField.length != 0) {
-                                    ret = new String[] { String.format("%0" + SIPField.length + "d", 0) };
-                                } else {
-                                    ret = new String[] { "0" };
-                                }
-                            }
-                        }
-                    }
+                    return (String[]) value;
                 }
+            } else if (slot.type == Boolean.class) {
+                ret = FieldCodec.encodeBoolean(slot, (Boolean) value, autoPop);
+            } else if (slot.type == Date.class) {
+                ret = FieldCodec.encodeDate(slot, (Date) value, autoPop);
+            } else if (slot.type == Integer.class) {
+                ret = FieldCodec.encodeInteger(slot, (Integer) value, autoPop);
             } else {
-                if (value != null) {
-                    ret = new String[] { value.toString() };
-                } else {
-                    if (SIPField != null) {
-                        if (SIPField.policy != null) {
-                            if (SIPField.policy == FieldPolicy.REQUIRED) {
-                                if (!autoPop) {
-                                    throw new MandatoryFieldOmitted(desc.getDisplayName());
-                                }
-                                Class<?>[] interfaces = desc.getPropertyType().getInterfaces();
-                                for (Class<?> interfce : interfaces) {
-                                    if (interfce == AbstractEnumeration.class) {
-                                        Method mthd = desc.getPropertyType().getDeclaredMethod("values",
-                                                new Class[] {});
-                                        Object[] values = (Object[]) mthd.invoke(null, new Object[] {});
-                                        if (values.length > 0) {
-                                            ret = new String[] { values[0].toString() };
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
+                ret = FieldCodec.encodeObject(slot, value, autoPop);
             }
         } catch (MandatoryFieldOmitted mfo) {
             throw mfo;
         } catch (Exception ex) {
-            Message.log.error("Unexpected error getting " + desc.getDisplayName(), ex);
-        }
-
-        return (ret != null) ? ret : new String[] { "" };
-    }
-
-    private String pad(String input, PositionedFieldDefinition field) {
-        StringBuffer ret = new StringBuffer();
-
-        ret.append(input);
-
-        while (ret.length() <= (field.end - field.start)) {
-            ret.append(" ");
+            Message.log.error("Unexpected error getting " + slot.name, ex);
         }
 
-        return ret.toString();
+        return new String[] { (ret != null) ? ret : "" };
     }
 
     public String encode() throws MandatoryFieldOmitted, InvalidFieldLength, MessageNotUnderstood {
@@ -245,182 +117,92 @@ public abstract class Message implements Serializable {
     }
 
     private String encode(Character sequence, boolean autoPop) throws MandatoryFieldOmitted, InvalidFieldLength, MessageNotUnderstood {
-        Map<Integer, String> fixed = new TreeMap<Integer, String>();
-        String order = System.getProperty(Message.PROP_VARIABLE_FIELD_ORDERING, PROP_VARIABLE_FIELD_ORDERING_DEFAULT);
-        Map<String, String[]> variable;
-        if (order.equalsIgnoreCase(Message.PROP_VARIABLE_FIELD_ORDERING_SPECIFICATION)) {
-          variable = new LinkedHashMap<String, String[]>();
-        } else {
-          variable = new TreeMap<String, String[]>();         
-        }
-        StringBuffer message = new StringBuffer();
+        StringSink message = new StringSink();
+        this.encodeFields(message, autoPop);
+        return this.addChecksum(message.toString(), sequence);
+    }
 
-        Field[] fields = this.getClass().getDeclaredFields(); 
+    /**
+     * Encodes the message, with its own sequence character, straight into
+     * <code>out</code> rather than returning it as a String.
+     */
+    public void encodeInto(MessageSink out) throws MandatoryFieldOmitted, InvalidFieldLength, MessageNotUnderstood {
+        this.encodeInto(out, this.getSequenceCharacter());
+    }
 
-        for (Field fld : fields) {
-          if (fld.isAnnotationPresent(PositionedField.class)) {
-            PositionedField annotation = (PositionedField)fld.getAnnotation(PositionedField.class);               
-            PositionedFieldDefinition field = Fields.getPositionedFieldDefinition(this.getClass().getName(), fld.getName(), annotation);
-            PropertyDescriptor desc;
-            try {
-              desc = PropertyUtils.getPropertyDescriptor(this, fld.getName());
-            } catch (Exception ex) {
-              throw new java.lang.AssertionError("Introspection problem during encoding for " + fld.getName() + " in " + this.getClass().getName());
-            }
-            if (desc == null) {
-              throw new java.lang.AssertionError("Introspection problem during encoding for " + fld.getName() + " in " + this.getClass().getName());                    
-            }
-            String[] value = this.getProp(desc, field, autoPop);
-//                    if (StringUtils.isEmpty(value[0])) {
-//                      if (field.policy == FieldPolicy.REQUIRED) {
-//                            throw new MandatoryFieldOmitted(desc.getDisplayName());
-//                        }
-//                    }
-            if (value[0].length() > (field.end - field.start + 1)) {
-              throw new InvalidFieldLength(desc.getDisplayName(), (field.end - field.start + 1));
-            }
-            if ((desc.getPropertyType() == Date.class) || (desc.getPropertyType() == Boolean.class) || (desc.getPropertyType() == Integer.class)) {
-              if (!(StringUtils.isEmpty(value[0]) || (value[0].length() == (field.end - field.start + 1)))) {
-                throw new java.lang.AssertionError("FixedFieldDescriptor for " + desc.getDisplayName() + " in " + this.getClass().getSimpleName()
-                    + ", start/end (" + field.start + "," + field.end + ") invalid for type " +
-                    desc.getPropertyType().getName());
-              }
-            }
-            if (fixed.containsKey(Integer.valueOf(field.start))) {
-              throw new java.lang.AssertionError("Positioning error inserting field at " + field.start + " for class " + this.getClass().getName());                    
-            }
-            fixed.put(new Integer(field.start), this.pad(value[0], field));
-          }
-          if (fld.isAnnotationPresent(TaggedField.class)) {
-            TaggedField annotation = (TaggedField)fld.getAnnotation(TaggedField.class);               
-            TaggedFieldDefinition field = Fields.getTaggedFieldDefinition(this.getClass().getName(), fld.getName(), annotation);
-            PropertyDescriptor desc;
-            try {
-              desc = PropertyUtils.getPropertyDescriptor(this, fld.getName());
-            } catch (Exception ex) {
-              throw new java.lang.AssertionError("Introspection problem during encoding for " + fld.getName() + " in " + this.getClass().getName());
-            }
-            if (desc == null) {
-              throw new java.lang.AssertionError("Introspection problem during encoding for " + fld.getName() + " in " + this.getClass().getName());                    
-            }
-            String[] value = this.getProp(desc, field, autoPop);
-            if (value.length > 0 && StringUtils.isNotEmpty(value[0])) {
-              if (field.length != 0) {
-                if (desc.getPropertyType() == String.class) {
-                  if (value[0].length() > field.length) {
-                    throw new InvalidFieldLength(desc.getDisplayName(), field.length);
-                  }
-                } else {
-                  if (value[0].length() != field.length) {
-                    throw new InvalidFieldLength(desc.getDisplayName(), field.length);
-                  }
-                }
-              }
-              variable.put(field.tag, value);
-            } else if (field.policy == FieldPolicy.REQUIRED) {
-              variable.put(field.tag, new String[]{""});
-            }
-          }
+    /**
+     * As {@link #encodeInto(MessageSink)}, with the given sequence character,
+     * or none if it is null, in place of the message's own.
+     */
+    public void encodeInto(MessageSink out, Character sequence) throws MandatoryFieldOmitted, InvalidFieldLength, MessageNotUnderstood {
+        String pop = System.getProperty(Message.PROP_AUTOPOPULATE, PROP_AUTOPOPULATE_BIDIRECTIONAL);
+        boolean autoPop = false;
+        if (pop.equalsIgnoreCase(PROP_AUTOPOPULATE_ENCODE) || pop.equalsIgnoreCase(PROP_AUTOPOPULATE_DEFAULT)) {
+            autoPop = true;
         }
+        this.encodeFields(out, autoPop);
+        this.appendChecksum(out, sequence);
+    }
 
-        if (this.getClass().isAnnotationPresent(Command.class)) {
-            message.append(((Command)(this.getClass().getAnnotation(Command.class))).value());
-        } else {
+    private void encodeFields(MessageSink message, boolean autoPop) throws MandatoryFieldOmitted, InvalidFieldLength, MessageNotUnderstood {
+        MessagePlan plan = MessagePlan.get(this.getClass());
+
+        if (plan.command == null) {
             throw new java.lang.AssertionError("No command annotation present for class " + this.getClass().getName());
         }
-
-        Iterator<Integer> fixedIterate = fixed.keySet().iterator();
-        while (fixedIterate.hasNext()) {
-            Integer key = fixedIterate.next();
-            if (message.length() != key.intValue()) {
-                throw new java.lang.AssertionError("Positioning error inserting field at " + key + " for class " + this.getClass().getName());
-            }            
-            message.append(fixed.get(key));
+        if (plan.codec != null) {
+            plan.codec.encode(this, message, plan, autoPop);
+            return;
         }
+        message.append(plan.command);
 
-        Iterator<String> varIterate = variable.keySet().iterator();
-        while (varIterate.hasNext()) {
-            String key = varIterate.next();
-            String[] values = variable.get(key);
-            for (String value : values) {
-                message.append(key);
-                message.append(value);
-                message.append(TaggedFieldDefinition.TERMINATOR);
-            }
+        for (MessagePlan.Slot slot : plan.positioned) {
+            FieldCodec.positioned(message, slot, this.getProp(slot, autoPop)[0]);
         }
 
-        return this.addChecksum(message.toString(), sequence);
+        String[][] variable = new String[plan.tagged.length][];
+        for (MessagePlan.Slot slot : plan.tagged) {
+            variable[slot.index] = FieldCodec.tagged(slot, this.getProp(slot, autoPop));
+        }
+        FieldCodec.appendTagged(message, plan, variable);
     }
 
-    private void setProp(PropertyDescriptor desc, String value) {
+    private void setProp(MessagePlan.Slot slot, String value) {
         try {
-            if (desc.getPropertyType() == Boolean.class) {
-                desc.getWriteMethod().invoke(this,
-                                     new Object[] { value.equalsIgnoreCase("U") ? null :
-                                             new Boolean(value.
-                                                     equalsIgnoreCase("Y") ||
-                                                     value.equalsIgnoreCase("1")) });
+            if (slot.type == Boolean.class) {
+                slot.set(this, FieldCodec.decodeBoolean(value));
                 return;
             }
-            if (desc.getPropertyType() == Date.class) {
-                desc.getWriteMethod().invoke(this,
-                                     new Object[] { this.demangleDate(value) });
+            if (slot.type == Date.class) {
+                slot.set(this, FieldCodec.decodeDate(value));
                 return;
             }
-            if (desc.getPropertyType() == Integer.class) {
-                    if (!value.trim().isEmpty()) {
-                desc.getWriteMethod().invoke(this,
-                                     new Object[] {Integer.valueOf(value.trim()) });
-                    }
+            if (slot.type == Integer.class) {
+                Integer number = FieldCodec.decodeInteger(slot, value);
+                if (number != null) {
+                    slot.set(this, number);
+                }
                 return;
             }
-            if (desc.getPropertyType() == String.class) {
-                desc.getWriteMethod().invoke(this,
-                                     new Object[] { new String(value) });
+            if (slot.type == String.class) {
+                slot.set(this, value);
                 return;
             }
-            if (desc.getPropertyType().getSuperclass() == AbstractFlagField.class) {
-                Object data = desc.getPropertyType().getConstructor(new Class[] { String.class }).newInstance(new Object[] { new String(value) });
-                    if (data != null) {
-                desc.getWriteMethod().invoke(this,
-                        new Object[] { data });
-                    }
+            if (slot.flagConstructor != null) {
+                Object data = slot.flagConstructor.newInstance(new Object[] { value });
+                slot.set(this, data);
                 return;
             }
-            Class<?>[] interfaces = desc.getPropertyType().getInterfaces();
-            for (Class<?> interfce : interfaces) {
-                if (interfce == AbstractEnumeration.class) {
-                    Method mthd = interfce.getDeclaredMethod("getKey",
-                            new Class[] { String.class });
-                    Method mthdInst = desc.getPropertyType().getDeclaredMethod("values",
-                            new Class[] {});
-                    Object[] values = (Object[]) mthdInst.invoke(null, new Object[] {});
-                    if (values.length > 0) {
-                        Object data = mthd.invoke(values[0],
-                                new Object[] { new String(value) });
-                        desc.getWriteMethod().invoke(this,
-                                new Object[] { data });
-                        return;
-                    }
-                }
+            if ((slot.enumeration != null) && (slot.enumeration.length > 0)) {
+                slot.set(this, FieldCodec.decodeEnumeration(slot, value));
+                return;
             }
-            if (desc.getPropertyType() == String[].class) {
-                String[] current = (String[]) desc.getReadMethod().invoke(this, new Object[0]);
-                if (current == null) {
-                    desc.getWriteMethod().invoke(this,
-                            new Object[] { new String[] { new String(value) } });
-                    return;
-                } else {
-                    List<String> l = new ArrayList<String>(current.length + 1);
-                    l.addAll(Arrays.asList(current));
-                    l.add(new String(value));
-                    desc.getWriteMethod().invoke(this,
-                            new Object[] { l.toArray(new String[l.size()]) });
-                    return;
-                }
+            if (slot.type == String[].class) {
+                slot.set(this, FieldCodec.add((String[]) slot.get(this), value));
+                return;
             }
         } catch (Exception ex) {
-            Message.log.error("Unexpected error setting " + desc.getDisplayName() + " to " + value, ex);
+            Message.log.error("Unexpected error setting " + slot.name + " to " + value, ex);
         }
     }
 
@@ -431,16 +213,32 @@ public abstract class Message implements Serializable {
         if (pop.equalsIgnoreCase(PROP_AUTOPOPULATE_DECODE) || pop.equalsIgnoreCase(PROP_AUTOPOPULATE_DEFAULT)) {
             autoPop = true;
         }
-      return decode(message, sequence, checksumCheck, autoPop);
+      if (checksumCheck) {
+          if (!Message.CheckChecksum(message)) {
+              throw new ChecksumError();
+          }
+      }
+      return parse(message, sequence, autoPop);
     }
-    
-    private static Message decode(String message, Character sequence, boolean checksumCheck, boolean autoPop) throws MandatoryFieldOmitted, ChecksumError, SequenceError,
-            MessageNotUnderstood {
-        if (checksumCheck) {
-            if (!Message.CheckChecksum(message)) {
-                throw new ChecksumError();
-            }
+
+    /**
+     * Decodes a message from a character sequence that is not necessarily a
+     * String, such as a view over a network buffer. Only the values of fields
+     * declared by the message class are copied out of the sequence. The
+     * checksum is not verified; the caller is expected to have done so.
+     */
+    public static Message decode(CharSequence message, Character sequence) throws MandatoryFieldOmitted, SequenceError,
+        MessageNotUnderstood {
+        String pop = System.getProperty(Message.PROP_AUTOPOPULATE, PROP_AUTOPOPULATE_BIDIRECTIONAL);
+        boolean autoPop = false;
+        if (pop.equalsIgnoreCase(PROP_AUTOPOPULATE_DECODE) || pop.equalsIgnoreCase(PROP_AUTOPOPULATE_DEFAULT)) {
+            autoPop = true;
         }
+        return parse(message, sequence, autoPop);
+    }
+
+    private static Message parse(CharSequence message, Character sequence, boolean autoPop) throws MandatoryFieldOmitted, SequenceError,
+            MessageNotUnderstood {
         Character sequenceCharacter = Message.GetSequenceCharacter(message);
 
         if (sequence != null) {
@@ -457,75 +255,36 @@ public abstract class Message implements Serializable {
         if (message.length() < 2) {
             throw new MessageNotUnderstood();
         }
-        String command = message.substring(0, 2);
+        String command = message.subSequence(0, 2).toString();
         Class<? extends Message> msgClass = Message.messages.get(command);
         if (msgClass == null) {
             throw new MessageNotUnderstood();                
         }
-        Message msg;
-    try {
-            msg = msgClass.newInstance();
-        } catch (Exception ex) {
-            throw new java.lang.AssertionError("Instantiation problem creating new " + msgClass.getName());
+        MessagePlan plan = MessagePlan.get(msgClass);
+        if (plan.codec != null) {
+            Message msg = plan.codec.decode(message, plan, autoPop);
+            msg.SequenceCharacter = sequenceCharacter;
+            return msg;
         }
-        Field[] fields = msg.getClass().getDeclaredFields();
-
-        int fixedFieldEnd = 2;
-
-        for (Field fld : fields) {
-            if (fld.isAnnotationPresent(PositionedField.class)) {
-                PositionedField annotation = fld.getAnnotation(PositionedField.class);
-                PositionedFieldDefinition field = Fields.getPositionedFieldDefinition(msg.getClass().getName(), fld.getName(), annotation);
-                PropertyDescriptor desc;
-                try {
-                    desc = PropertyUtils.getPropertyDescriptor(msg, fld.getName());
-                } catch (Exception ex) {
-                    throw new java.lang.AssertionError("Introspection problem during decoding for " + fld.getName() + " in " + msg.getClass().getName());
-                }
-                if (desc == null) {
-                    throw new java.lang.AssertionError("Introspection problem during decoding for " + fld.getName() + " in " + msg.getClass().getName());                    
-                }
-                String value = "";
-                if (message.length() > field.end) {
-                  value = message.substring(field.start, field.end + 1);
-                } else {
-                  if (!autoPop) {
-                    throw new MandatoryFieldOmitted(desc.getDisplayName());                   
-                  }
-                }
-                msg.setProp(desc, value);
-                if (fixedFieldEnd < field.end) {
-                    fixedFieldEnd = field.end;
-                }
-            }
+        Message msg = plan.newInstance();
+
+        for (MessagePlan.Slot slot : plan.positioned) {
+            msg.setProp(slot, FieldCodec.positioned(message, slot, autoPop));
         }
 
-        msg.parseVarFields(fixedFieldEnd + 1, message);
+        msg.parseVarFields(plan, plan.fixedFieldEnd + 1, message);
         
         msg.SequenceCharacter = sequenceCharacter;
 
-        for (Field fld : fields) {
-            if (fld.isAnnotationPresent(TaggedField.class)) {
-              TaggedField annotation = fld.getAnnotation(TaggedField.class);
-              TaggedFieldDefinition field = Fields.getTaggedFieldDefinition(msg.getClass().getName(), fld.getName(), annotation);
-                PropertyDescriptor desc;
-                try {
-                    desc = PropertyUtils.getPropertyDescriptor(msg, fld.getName());
-                } catch (Exception ex) {
-                    throw new java.lang.AssertionError("Introspection problem during decoding for " + fld.getName() + " in " + msg.getClass().getName());
-                }
-                if (desc == null) {
-                    throw new java.lang.AssertionError("Introspection problem during decoding for " + fld.getName() + " in " + msg.getClass().getName());                    
-                }
-                try {
-                  msg.getProp(desc, field, false);
-                } catch (MandatoryFieldOmitted ex) {
+        for (MessagePlan.Slot slot : plan.tagged) {
+            try {
+              msg.getProp(slot, false);
+            } catch (MandatoryFieldOmitted ex) {
               if (autoPop) {
-                msg.setProp(desc, "");
+                msg.setProp(slot, "");
               } else {
                 throw ex;
               }
-                }
             }
         }
 
@@ -548,17 +307,15 @@ public abstract class Message implements Serializable {
         return true;
     }
 
-    private static Character GetSequenceCharacter(String message) {
-        try {
-            String tail = message.substring(message.length() - 9);
-            if (!tail.startsWith("AY")) {
-                return null;
-            }
-            return tail.charAt(2);
-        } catch (Exception ex) {
+    private static Character GetSequenceCharacter(CharSequence message) {
+        if (message == null || message.length() < 9) {
+            return null;
         }
-
-        return null;
+        int tail = message.length() - 9;
+        if (message.charAt(tail) != 'A' || message.charAt(tail + 1) != 'Y') {
+            return null;
+        }
+        return message.charAt(tail + 2);
     }
 
     protected static String calculateChecksum(String data) throws UnsupportedEncodingException {
@@ -591,54 +348,66 @@ public abstract class Message implements Serializable {
         }
     }
 
-    private void parseVarFields(int offset, String data) {
-        int status = 1;
-        StringBuffer fieldtag = new StringBuffer();
-        StringBuffer fielddata = new StringBuffer();
-
-        for (int n = offset; n < data.length(); n++) {
-            if (status == 1) {
-                fieldtag = new StringBuffer();
-                fieldtag.append(data.charAt(n));
-                status = 2;
-            } else if (status == 2) {
-                fielddata = new StringBuffer();
-                fieldtag.append(data.charAt(n));
-                status = 3;
-            } else if (status == 3) {
-                if (data.charAt(n) == TaggedFieldDefinition.TERMINATOR) {
-                    this.setFieldProp(fieldtag.toString(), fielddata.toString());
-                    status = 1;
-                } else {
-                    fielddata.append(data.charAt(n));
-                }
+    /**
+     * Sink counterpart of {@link #addChecksum(String, Character)}.
+     */
+    protected void appendChecksum(MessageSink message, Character sequence) {
+        if (sequence != null) {
+            message.append("AY");
+            message.append(sequence.charValue());
+            message.append("AZ");
+            message.append(message.getChecksum());
+        }
+    }
+
+    private static final class StringSink extends MessageSink {
+        private final StringBuilder buffer = new StringBuilder();
+
+        @Override
+        public void append(char c) {
+            this.buffer.append(c);
+        }
+
+        @Override
+        public void append(CharSequence text) {
+            this.buffer.append(text);
+        }
+
+        @Override
+        public int length() {
+            return this.buffer.length();
+        }
+
+        @Override
+        public String getChecksum() {
+            int sum = 0;
+            for (byte b : this.buffer.toString().getBytes(java.nio.charset.Charset.forName(Message.getCharsetEncoding()))) {
+                sum += b & 0xff;
             }
+            return MessageSink.formatChecksum(sum);
+        }
+
+        @Override
+        public String toString() {
+            return this.buffer.toString();
         }
-        return;
     }
 
-    private void setFieldProp(String tag, String data) {
-        Field[] fields = this.getClass().getDeclaredFields();
-
-        for (Field fld : fields) {
-                if (fld.isAnnotationPresent(TaggedField.class)) {
-                    TaggedField annotation = fld.getAnnotation(TaggedField.class);
-                    TaggedFieldDefinition field = Fields.getTaggedFieldDefinition(this.getClass().getName(), fld.getName(), annotation);
-                    PropertyDescriptor desc;
-                    try {
-                        desc = PropertyUtils.getPropertyDescriptor(this, fld.getName());
-                    } catch (Exception ex) {
-                        throw new java.lang.AssertionError("Introspection problem during decoding for " + fld.getName() + " in " + this.getClass().getName());                                            
-                    }
-                    if (desc == null) {
-                        throw new java.lang.AssertionError("Introspection problem during decoding for " + fld.getName() + " in " + this.getClass().getName());                    
-                    }
-                    if (field.tag.equals(tag)) {
-                        this.setProp(desc, data);
-                    }
-                }
+    void parseVarFields(MessagePlan plan, int offset, CharSequence data) {
+        int n = offset;
+        int length = data.length();
+        while (n + 2 <= length) {
+            int end = FieldCodec.fieldEnd(data, n);
+            if (end < 0) {
+                return;
+            }
+            MessagePlan.Slot slot = plan.getTagged(data.charAt(n), data.charAt(n + 1));
+            if (slot != null) {
+                this.setProp(slot, data.subSequence(n + 2, end).toString());
             }
+            n = end + 1;
         }
+    }
 
     public void xmlEncode(OutputStream strm) {
         XMLEncoder out = new XMLEncoder(strm);
@@ -669,6 +438,12 @@ public abstract class Message implements Serializable {
                             throw new java.lang.AssertionError(m.name() + " duplicates command string.");                                                                    
                         }
                         Message.messages.put(cmd, (Class<? extends Message>)message);
+                        try {
+                            MessagePlan.get(message);
+                        } catch (AssertionError ae) {
+                            // left to fail again, with the same error, on first encode/decode
+                            Message.log.error(m.name() + " has invalid field definitions.", ae);
+                        }
                     }
                 }
             } catch (Exception ex) {
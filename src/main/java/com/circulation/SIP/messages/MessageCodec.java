@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.messages;
+
+import com.circulation.SIP.exceptions.InvalidFieldLength;
+import com.circulation.SIP.exceptions.MandatoryFieldOmitted;
+
+/**
+ * Encoder and decoder for one message class, generated at compile time as
+ * <code>&lt;message&gt;Codec</code> by
+ * {@link com.circulation.SIP.annotations.processing.MessageCodecProcessor}.
+ * Each field is formatted or parsed by a direct call to its getter or setter
+ * and to the {@link FieldCodec} method for its type, in field order, so that
+ * nothing is looked up or boxed per field. The plan's codec slots are indexed
+ * as {@link #getFields()}. Message classes without a generated codec are
+ * encoded and decoded reflectively instead.
+ */
+abstract class MessageCodec<T extends Message> {
+
+    abstract String[] getFields();
+
+    abstract T newInstance();
+
+    /**
+     * Appends the command and every field, but not the sequence and checksum.
+     */
+    abstract void encode(T message, MessageSink out, MessagePlan plan, boolean autoPop) throws MandatoryFieldOmitted, InvalidFieldLength;
+
+    abstract T decode(CharSequence frame, MessagePlan plan, boolean autoPop) throws MandatoryFieldOmitted;
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.messages;
+
+import com.circulation.SIP.annotations.Command;
+import com.circulation.SIP.annotations.PositionedField;
+import com.circulation.SIP.annotations.TaggedField;
+import com.circulation.SIP.fields.FieldDefinition;
+import com.circulation.SIP.fields.Fields;
+import com.circulation.SIP.fields.PositionedFieldDefinition;
+import com.circulation.SIP.fields.TaggedFieldDefinition;
+import com.circulation.SIP.types.enumerations.AbstractEnumeration;
+import com.circulation.SIP.types.flagfields.AbstractFlagField;
+import org.apache.commons.beanutils.PropertyUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Encoding/decoding layout of a message class, resolved once from its
+ * annotations so that encode and decode never touch reflection metadata.
+ * Messages are encoded and decoded by the generated {@link MessageCodec} for
+ * the class when there is one, and through the bean accessors of each
+ * {@link Slot} otherwise.
+ */
+final class MessagePlan {
+    private static final Log log = LogFactory.getLog(MessagePlan.class);
+    private static final Map<Class<?>, MessagePlan> plans = new ConcurrentHashMap<Class<?>, MessagePlan>();
+
+    static final class Slot {
+        final int index;
+        final String name;
+        final Class<?> type;
+        final FieldDefinition field;
+        final Method read;
+        final Method write;
+        final String integerFormat;
+        final AbstractEnumeration[] enumeration;
+        final Constructor<?> flagConstructor;
+        final Class<?> owner;
+        final boolean ok;
+        final boolean magneticMedia;
+        final boolean fixedWidth;
+        final int codecIndex;
+
+        private Slot(int index, String name, FieldDefinition field, PropertyDescriptor desc, Class<?> messageClass, int codecIndex) throws NoSuchMethodException {
+            this.index = index;
+            this.codecIndex = codecIndex;
+            this.name = name;
+            this.type = desc.getPropertyType();
+            this.field = field;
+            this.owner = messageClass;
+            this.ok = (this.type == Boolean.class) && name.equalsIgnoreCase("ok");
+            this.magneticMedia = (this.type == Boolean.class) && name.equalsIgnoreCase("magneticMedia");
+            this.fixedWidth = (this.type == Date.class) || (this.type == Boolean.class) || (this.type == Integer.class);
+            this.write = desc.getWriteMethod();
+            Method reader = desc.getReadMethod();
+            if ((reader == null) && (this.type == Boolean.class)) {
+                try {
+                    reader = messageClass.getMethod("is" + name.substring(0, 1).toUpperCase() + name.substring(1), new Class[]{});
+                } catch (NoSuchMethodException ex) {
+                    reader = null;
+                }
+            }
+            this.read = reader;
+            this.integerFormat = (field.length != 0) ? "%0" + field.length + "d" : null;
+            AbstractEnumeration[] values = null;
+            for (Class<?> interfce : this.type.getInterfaces()) {
+                if (interfce == AbstractEnumeration.class) {
+                    values = (AbstractEnumeration[]) this.type.getEnumConstants();
+                }
+            }
+            this.enumeration = values;
+            this.flagConstructor = (this.type.getSuperclass() == AbstractFlagField.class) ? this.type.getConstructor(new Class[] { String.class }) : null;
+        }
+
+        PositionedFieldDefinition positioned() {
+            return (PositionedFieldDefinition) this.field;
+        }
+
+        Object get(Message message) throws Exception {
+            return (this.read != null) ? this.read.invoke(message, new Object[0]) : null;
+        }
+
+        void set(Message message, Object value) throws Exception {
+            this.write.invoke(message, new Object[] { value });
+        }
+    }
+
+    final Class<? extends Message> messageClass;
+    final String command;
+    final Slot[] positioned;
+    final Slot[] tagged;
+    final Slot[] taggedAlphabetical;
+    final int fixedFieldEnd;
+    final MessageCodec<Message> codec;
+    /**
+     * Slots in the order of the codec's fields; empty without a codec.
+     */
+    final Slot[] codecSlots;
+    /**
+     * Tagged slots by tag, indexed (first - 'A') * 26 + (second - 'A'); tags
+     * outside A-Z are kept in otherTags.
+     */
+    private final Slot[] byTag = new Slot[26 * 26];
+    private final Map<String, Slot> otherTags = new HashMap<String, Slot>();
+    private final Constructor<? extends Message> constructor;
+    private final Map<String, Integer> accessors;
+
+    private MessagePlan(Class<? extends Message> messageClass) {
+        this.messageClass = messageClass;
+        Command cmd = messageClass.getAnnotation(Command.class);
+        this.command = (cmd != null) ? cmd.value() : null;
+        this.accessors = new HashMap<String, Integer>();
+        this.codec = this.loadCodec();
+
+        List<Slot> fixed = new ArrayList<Slot>();
+        List<Slot> variable = new ArrayList<Slot>();
+        int end = 2;
+        for (Field fld : messageClass.getDeclaredFields()) {
+            if (fld.isAnnotationPresent(PositionedField.class)) {
+                PositionedFieldDefinition field = Fields.getPositionedFieldDefinition(messageClass.getName(), fld.getName(), fld.getAnnotation(PositionedField.class));
+                for (Slot slot : fixed) {
+                    if (slot.positioned().start == field.start) {
+                        throw new java.lang.AssertionError("Positioning error inserting field at " + field.start + " for class " + messageClass.getName());
+                    }
+                }
+                fixed.add(this.newSlot(fixed.size(), fld.getName(), field));
+                if (end < field.end) {
+                    end = field.end;
+                }
+            }
+            if (fld.isAnnotationPresent(TaggedField.class)) {
+                TaggedFieldDefinition field = Fields.getTaggedFieldDefinition(messageClass.getName(), fld.getName(), fld.getAnnotation(TaggedField.class));
+                variable.add(this.newSlot(variable.size(), fld.getName(), field));
+            }
+        }
+        this.fixedFieldEnd = end;
+
+        this.codecSlots = new Slot[(this.codec != null) ? this.accessors.size() : 0];
+        for (Slot slot : fixed) {
+            if (slot.codecIndex >= 0) {
+                this.codecSlots[slot.codecIndex] = slot;
+            }
+        }
+        for (Slot slot : variable) {
+            if (slot.codecIndex >= 0) {
+                this.codecSlots[slot.codecIndex] = slot;
+            }
+        }
+
+        this.positioned = fixed.toArray(new Slot[fixed.size()]);
+        Arrays.sort(this.positioned, new Comparator<Slot>() {
+            @Override
+            public int compare(Slot a, Slot b) {
+                return Integer.compare(a.positioned().start, b.positioned().start);
+            }
+        });
+        this.tagged = variable.toArray(new Slot[variable.size()]);
+        for (Slot slot : this.tagged) {
+            int key = MessagePlan.tagIndex(slot.field.tag.charAt(0), slot.field.tag.charAt(1));
+            if (key < 0) {
+                this.otherTags.putIfAbsent(slot.field.tag, slot);
+            } else if (this.byTag[key] == null) {
+                this.byTag[key] = slot;
+            }
+        }
+        this.taggedAlphabetical = this.tagged.clone();
+        Arrays.sort(this.taggedAlphabetical, new Comparator<Slot>() {
+            @Override
+            public int compare(Slot a, Slot b) {
+                return a.field.tag.compareTo(b.field.tag);
+            }
+        });
+
+        Constructor<? extends Message> ctor;
+        try {
+            ctor = messageClass.getConstructor(new Class[] {});
+        } catch (NoSuchMethodException ex) {
+            ctor = null;
+        }
+        this.constructor = ctor;
+    }
+
+    @SuppressWarnings("unchecked")
+    private MessageCodec<Message> loadCodec() {
+        MessageCodec<Message> generated;
+        try {
+            Class<?> codecClass = Class.forName(this.messageClass.getName() + "Codec", true, this.messageClass.getClassLoader());
+            if (!MessageCodec.class.isAssignableFrom(codecClass)) {
+                return null;
+            }
+            generated = (MessageCodec<Message>) codecClass.getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException ex) {
+            return null;
+        } catch (Exception ex) {
+            MessagePlan.log.warn("Unable to load codec for " + this.messageClass.getName(), ex);
+            return null;
+        }
+        String[] fields = generated.getFields();
+        for (int i = 0; i < fields.length; i++) {
+            this.accessors.put(fields[i], Integer.valueOf(i));
+        }
+        int annotated = 0;
+        for (Field fld : this.messageClass.getDeclaredFields()) {
+            if (fld.isAnnotationPresent(PositionedField.class) || fld.isAnnotationPresent(TaggedField.class)) {
+                annotated++;
+                if (!this.accessors.containsKey(fld.getName())) {
+                    annotated = -1;
+                    break;
+                }
+            }
+        }
+        if (annotated != fields.length) {
+            MessagePlan.log.warn("Codec for " + this.messageClass.getName() + " is out of date, using reflection");
+            this.accessors.clear();
+            return null;
+        }
+        return generated;
+    }
+
+    private Slot newSlot(int index, String name, FieldDefinition field) {
+        PropertyDescriptor desc = null;
+        try {
+            for (PropertyDescriptor candidate : PropertyUtils.getPropertyDescriptors(this.messageClass)) {
+                if (candidate.getName().equals(name)) {
+                    desc = candidate;
+                }
+            }
+            if (desc != null) {
+                Integer accessor = this.accessors.get(name);
+                return new Slot(index, name, field, desc, this.messageClass, (accessor != null) ? accessor.intValue() : -1);
+            }
+        } catch (Exception ex) {
+        }
+        throw new java.lang.AssertionError("Introspection problem for " + name + " in " + this.messageClass.getName());
+    }
+
+    static MessagePlan get(Class<? extends Message> messageClass) {
+        return MessagePlan.plans.computeIfAbsent(messageClass, new Function<Class<?>, MessagePlan>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public MessagePlan apply(Class<?> key) {
+                return new MessagePlan((Class<? extends Message>) key);
+            }
+        });
+    }
+
+    private static int tagIndex(char first, char second) {
+        if (first < 'A' || first > 'Z' || second < 'A' || second > 'Z') {
+            return -1;
+        }
+        return (first - 'A') * 26 + (second - 'A');
+    }
+
+    Slot getTagged(char first, char second) {
+        int key = MessagePlan.tagIndex(first, second);
+        if (key >= 0) {
+            return this.byTag[key];
+        }
+        if (this.otherTags.isEmpty()) {
+            return null;
+        }
+        return this.otherTags.get(new String(new char[] { first, second }));
+    }
+
+    Message newInstance() {
+        try {
+            if (this.codec != null) {
+                return this.codec.newInstance();
+            }
+            return this.constructor.newInstance(new Object[] {});
+        } catch (Exception ex) {
+            throw new java.lang.AssertionError("Instantiation problem creating new " + this.messageClass.getName());
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.messages;
+
+/**
+ * Destination that {@link Message#encodeInto(MessageSink)} writes a message into,
+ * one field at a time. Implementations keep the SIP checksum of everything
+ * appended so far, so the trailer can be added without re-reading the
+ * message.
+ */
+public abstract class MessageSink {
+
+    public abstract void append(char c);
+
+    public abstract void append(CharSequence text);
+
+    /**
+     * Number of characters appended so far.
+     */
+    public abstract int length();
+
+    /**
+     * Four hex digit SIP checksum of everything appended so far.
+     */
+    public abstract String getChecksum();
+
+    protected static String formatChecksum(int sum) {
+        return String.format("%1$04X", -sum & 0xffff);
+    }
+}
@@ -33,4 +33,10 @@ public class SCResend extends Message {
             return command;
         }
     }
+
+    @Override
+    protected void appendChecksum(MessageSink message, Character sequence) {
+        message.append("AZ");
+        message.append(message.getChecksum());
+    }
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.messages;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * The 18 character SIP timestamp, yyyyMMdd    HHmmss in local time, written
+ * and read digit by digit rather than through a SimpleDateFormat per field.
+ * It is safe to share between threads. The text for the current second is
+ * cached, as most dates encoded are "now".
+ * <p>
+ * Parsing is as lenient as SimpleDateFormat's, so out of range fields roll
+ * over into the next, but the four characters between date and time are
+ * not checked, as SIP puts a time zone there. Dates outside the years 1583
+ * to 9999, where SimpleDateFormat switches to the Julian calendar or more
+ * digits, are left to SimpleDateFormat.
+ */
+final class SIPDateFormat {
+    static final String PATTERN = "yyyyMMdd    HHmmss";
+    static final int LENGTH = 18;
+
+    private static final long MILLIS_PER_DAY = 86400000L;
+    private static final int MIN_YEAR = 1583;
+    private static final int MAX_YEAR = 9999;
+
+    /**
+     * The default time zone, read once: TimeZone.getDefault() returns a
+     * fresh copy on every call.
+     */
+    private static final TimeZone zone = TimeZone.getDefault();
+
+    private static volatile Rendered current = new Rendered(Long.MIN_VALUE, null);
+
+    private SIPDateFormat() {
+    }
+
+    static String format(Date date) {
+        return SIPDateFormat.format(date.getTime());
+    }
+
+    static String format(long millis) {
+        long second = Math.floorDiv(millis, 1000L);
+        Rendered cached = SIPDateFormat.current;
+        if (cached.second == second) {
+            return cached.text;
+        }
+        char[] text = new char[LENGTH];
+        if (!SIPDateFormat.render(millis, text)) {
+            SimpleDateFormat sdf = new SimpleDateFormat(PATTERN);
+            sdf.setTimeZone(zone);
+            return sdf.format(new Date(millis));
+        }
+        String result = new String(text);
+        if (second > cached.second) {
+            SIPDateFormat.current = new Rendered(second, result);
+        }
+        return result;
+    }
+
+    /**
+     * The date in text, or null if it does not start with a timestamp.
+     */
+    static Date parse(String text) {
+        if ((text == null) || (text.length() < LENGTH)) {
+            return null;
+        }
+        int year = SIPDateFormat.digits(text, 0, 4);
+        int month = SIPDateFormat.digits(text, 4, 2);
+        int day = SIPDateFormat.digits(text, 6, 2);
+        int hour = SIPDateFormat.digits(text, 12, 2);
+        int minute = SIPDateFormat.digits(text, 14, 2);
+        int second = SIPDateFormat.digits(text, 16, 2);
+        if ((year | month | day | hour | minute | second) < 0) {
+            return null;
+        }
+        year += Math.floorDiv(month - 1, 12);
+        month = Math.floorMod(month - 1, 12) + 1;
+        if ((year < MIN_YEAR) || (year > MAX_YEAR)) {
+            SimpleDateFormat sdf = new SimpleDateFormat(PATTERN);
+            sdf.setTimeZone(zone);
+            try {
+                return sdf.parse(text);
+            } catch (Exception ex) {
+                return null;
+            }
+        }
+        long local = (SIPDateFormat.daysFromCivil(year, month, 1) + day - 1) * MILLIS_PER_DAY
+                + ((hour * 60L + minute) * 60L + second) * 1000L;
+        int offset = zone.getOffset(local - zone.getRawOffset());
+        long utc = local - offset;
+        int actual = zone.getOffset(utc);
+        if (actual != offset) {
+            utc = local - actual;
+        }
+        return new Date(utc);
+    }
+
+    private static boolean render(long millis, char[] text) {
+        long local = millis + zone.getOffset(millis);
+        long days = Math.floorDiv(local, MILLIS_PER_DAY);
+        int seconds = (int) (Math.floorMod(local, MILLIS_PER_DAY) / 1000L);
+
+        // civil from days, after Howard Hinnant
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        if ((year < MIN_YEAR) || (year > MAX_YEAR)) {
+            return false;
+        }
+
+        SIPDateFormat.put(text, 0, (int) year, 4);
+        SIPDateFormat.put(text, 4, month, 2);
+        SIPDateFormat.put(text, 6, day, 2);
+        text[8] = text[9] = text[10] = text[11] = ' ';
+        SIPDateFormat.put(text, 12, seconds / 3600, 2);
+        SIPDateFormat.put(text, 14, seconds / 60 % 60, 2);
+        SIPDateFormat.put(text, 16, seconds % 60, 2);
+        return true;
+    }
+
+    private static long daysFromCivil(long year, int month, int day) {
+        year -= (month <= 2) ? 1 : 0;
+        long era = Math.floorDiv(year, 400);
+        long yoe = year - era * 400;
+        long doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    private static void put(char[] text, int offset, int value, int width) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            text[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    /**
+     * The number in text at offset, or -1 if any character is not a digit.
+     */
+    private static int digits(String text, int offset, int width) {
+        int value = 0;
+        for (int i = offset; i < offset + width; i++) {
+            char c = text.charAt(i);
+            if ((c < '0') || (c > '9')) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static final class Rendered {
+        private final long second;
+        private final String text;
+
+        Rendered(long second, String text) {
+            this.second = second;
+            this.text = text;
+        }
+    }
+}
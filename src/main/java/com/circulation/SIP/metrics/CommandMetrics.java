@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.circulation.SIP.exceptions.ChecksumError;
+import com.circulation.SIP.exceptions.MessageNotUnderstood;
+
+/**
+ * Counts and timings for one SIP command on one server: how long requests
+ * took to decode, in the driver, and to encode the response.
+ */
+public final class CommandMetrics implements CommandMetricsMXBean {
+    private final String command;
+    private final String message;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder checksumErrors = new LongAdder();
+    private final LongAdder notUnderstood = new LongAdder();
+    private final LongAdder resends = new LongAdder();
+    private final LatencyHistogram decode = new LatencyHistogram();
+    private final LatencyHistogram driver = new LatencyHistogram();
+    private final LatencyHistogram encode = new LatencyHistogram();
+
+    CommandMetrics(String command, String message) {
+        this.command = command;
+        this.message = message;
+    }
+
+    /**
+     * A request was decoded, in the given time.
+     */
+    public void decoded(long nanos) {
+        this.requests.increment();
+        this.decode.record(nanos);
+    }
+
+    public void driverCompleted(long nanos) {
+        this.driver.record(nanos);
+    }
+
+    public void encoded(long nanos) {
+        this.encode.record(nanos);
+    }
+
+    /**
+     * Counts a checksum error or a message not understood; other failures
+     * only show up as the resend sent for them.
+     */
+    public void error(Throwable cause) {
+        if (cause instanceof ChecksumError) {
+            this.checksumErrors.increment();
+        } else if (cause instanceof MessageNotUnderstood) {
+            this.notUnderstood.increment();
+        }
+    }
+
+    /**
+     * An SC Resend was sent in reply.
+     */
+    public void resend() {
+        this.resends.increment();
+    }
+
+    @Override
+    public String getCommand() {
+        return this.command;
+    }
+
+    @Override
+    public String getMessage() {
+        return this.message;
+    }
+
+    @Override
+    public long getRequests() {
+        return this.requests.sum();
+    }
+
+    @Override
+    public long getChecksumErrors() {
+        return this.checksumErrors.sum();
+    }
+
+    @Override
+    public long getNotUnderstood() {
+        return this.notUnderstood.sum();
+    }
+
+    @Override
+    public long getResends() {
+        return this.resends.sum();
+    }
+
+    @Override
+    public LatencySummary getDecode() {
+        return this.decode.summary();
+    }
+
+    @Override
+    public LatencySummary getDriver() {
+        return this.driver.summary();
+    }
+
+    @Override
+    public LatencySummary getEncode() {
+        return this.encode.summary();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of durations in nanoseconds. Each power of two is
+ * split into four buckets, so a percentile is accurate to within a quarter
+ * of its value, up to about 18 minutes. Buckets are striped counters, so
+ * threads recording at once do not contend on a single cache line.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final long HIGHEST_VALUE = (1L << MAX_EXPONENT) - 1;
+    private static final int BUCKETS = (MAX_EXPONENT - 1) * SUB_BUCKETS;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.counts[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), HIGHEST_VALUE);
+        this.counts[LatencyHistogram.index(value)].increment();
+        this.total.add(value);
+        long current = this.max.get();
+        while (value > current && !this.max.compareAndSet(current, value)) {
+            current = this.max.get();
+        }
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Highest value that lands in the bucket.
+     */
+    static long highest(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + sub) * width) + width - 1;
+    }
+
+    /**
+     * Count, mean and percentiles as they stand. Recording carries on while
+     * this is taken, so the figures can be a request or two apart.
+     */
+    public LatencySummary summary() {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = this.counts[i].sum();
+            count += snapshot[i];
+        }
+        long max = this.max.get();
+        double mean = (count == 0) ? 0 : this.total.sum() / (double) count;
+        return new LatencySummary(count, mean, LatencyHistogram.percentile(snapshot, count, 50, max),
+                LatencyHistogram.percentile(snapshot, count, 99, max), LatencyHistogram.percentile(snapshot, count, 99.9, max), max,
+                this.total.sum());
+    }
+
+    private static long percentile(long[] snapshot, long count, double percentile, long max) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(LatencyHistogram.highest(i), max);
+            }
+        }
+        return max;
+    }
+}
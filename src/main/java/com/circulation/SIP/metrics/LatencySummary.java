@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.metrics;
+
+/**
+ * A {@link LatencyHistogram} at one point in time. The getters give
+ * microseconds, which is how JMX consoles show it.
+ */
+public class LatencySummary {
+    private final long count;
+    private final double mean;
+    private final long p50;
+    private final long p99;
+    private final long p999;
+    private final long max;
+    private final long total;
+
+    LatencySummary(long count, double mean, long p50, long p99, long p999, long max, long total) {
+        this.count = count;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.max = max;
+        this.total = total;
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+
+    public double getMeanMicros() {
+        return this.mean / 1000.0;
+    }
+
+    public double getP50Micros() {
+        return this.p50 / 1000.0;
+    }
+
+    public double getP99Micros() {
+        return this.p99 / 1000.0;
+    }
+
+    public double getP999Micros() {
+        return this.p999 / 1000.0;
+    }
+
+    public double getMaxMicros() {
+        return this.max / 1000.0;
+    }
+
+    long getP50() {
+        return this.p50;
+    }
+
+    long getP99() {
+        return this.p99;
+    }
+
+    long getP999() {
+        return this.p999;
+    }
+
+    long getTotal() {
+        return this.total;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves {@link ServerMetrics} as plain text, in the Prometheus format, at
+ * <code>/metrics</code>.
+ * <p>
+ * {@link #fromSystemProperties()} gives the endpoint the servers in this JVM
+ * share, on the port in <code>com.circulation.SIP.metrics.Port</code> and
+ * the address in <code>com.circulation.SIP.metrics.Host</code>, all
+ * addresses by default. It is stopped when the last server is removed.
+ */
+public class MetricsEndpoint {
+    private static final Log log = LogFactory.getLog(MetricsEndpoint.class);
+
+    public static final String PROP_PORT = "com.circulation.SIP.metrics.Port";
+    public static final String PROP_HOST = "com.circulation.SIP.metrics.Host";
+
+    public static final String PATH = "/metrics";
+
+    private static MetricsEndpoint shared;
+
+    private final String host;
+    private final int port;
+    private final List<ServerMetrics> servers = new CopyOnWriteArrayList<ServerMetrics>();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param host address to listen on, or null for all of them
+     */
+    public MetricsEndpoint(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * The shared endpoint, started, or null if no port is configured.
+     */
+    public static synchronized MetricsEndpoint fromSystemProperties() throws IOException {
+        Integer port = Integer.getInteger(PROP_PORT);
+        if (port == null) {
+            return null;
+        }
+        if (MetricsEndpoint.shared == null) {
+            MetricsEndpoint endpoint = new MetricsEndpoint(System.getProperty(PROP_HOST), port.intValue());
+            endpoint.start();
+            MetricsEndpoint.shared = endpoint;
+        }
+        return MetricsEndpoint.shared;
+    }
+
+    public void add(ServerMetrics metrics) {
+        this.servers.add(metrics);
+    }
+
+    public void remove(ServerMetrics metrics) {
+        this.servers.remove(metrics);
+        synchronized (MetricsEndpoint.class) {
+            if (this == MetricsEndpoint.shared && this.servers.isEmpty()) {
+                MetricsEndpoint.shared = null;
+                this.stop();
+            }
+        }
+    }
+
+    public synchronized void start() throws IOException {
+        InetSocketAddress address = (this.host == null) ? new InetSocketAddress(this.port) : new InetSocketAddress(this.host, this.port);
+        this.server = HttpServer.create(address, 0);
+        this.server.createContext(PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                MetricsEndpoint.this.scrape(exchange);
+            }
+        });
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "SIP-metrics");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.server.setExecutor(this.executor);
+        this.server.start();
+        log.info("Metrics on " + this.server.getAddress() + PATH);
+    }
+
+    public synchronized void stop() {
+        if (this.server != null) {
+            this.server.stop(0);
+            this.executor.shutdown();
+            this.server = null;
+        }
+    }
+
+    public int getPort() {
+        HttpServer server = this.server;
+        return (server == null) ? this.port : server.getAddress().getPort();
+    }
+
+    private void scrape(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            StringBuilder text = new StringBuilder(4096);
+            ServerMetrics.writeText(this.servers, text);
+            byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.circulation.SIP.annotations.Command;
+import com.circulation.SIP.messages.Message;
+import com.circulation.SIP.messages.Messages;
+
+/**
+ * Metrics for one server: connections, and a {@link CommandMetrics} for
+ * every command. Commands are found without locking: the tables are filled
+ * in when the metrics are created and only read after that. Frames whose
+ * command is not known, or which never got as far as a request, are
+ * counted against the command <code>??</code>. Caches in front of the
+ * store are added by name before the metrics are published.
+ * <p>
+ * {@link #register()} publishes the metrics as MXBeans under
+ * <code>com.circulation.SIP</code>, which the servers do unless
+ * <code>com.circulation.SIP.metrics.Jmx</code> is false, and {@link #writeText(Collection, StringBuilder)}
+ * renders them in the Prometheus text format for {@link MetricsEndpoint}.
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+    private static final Log log = LogFactory.getLog(ServerMetrics.class);
+
+    public static final String PROP_JMX = "com.circulation.SIP.metrics.Jmx";
+
+    public static final String DOMAIN = "com.circulation.SIP";
+    public static final String UNKNOWN = "??";
+
+    private static final Map<Class<?>, String> COMMANDS = new HashMap<Class<?>, String>();
+
+    static {
+        for (Messages m : Messages.values()) {
+            try {
+                Class<?> message = Class.forName(Messages.class.getPackage().getName() + "." + m.name());
+                Command command = message.getAnnotation(Command.class);
+                if (command != null) {
+                    ServerMetrics.COMMANDS.put(message, command.value());
+                }
+            } catch (ClassNotFoundException ex) {
+                // not implemented, so never decoded either
+            }
+        }
+    }
+
+    private final String server;
+    private final Map<Class<?>, CommandMetrics> byClass = new HashMap<Class<?>, CommandMetrics>();
+    private final CommandMetrics[] byCode = new CommandMetrics[100];
+    private final List<CommandMetrics> commands = new ArrayList<CommandMetrics>();
+    private final CommandMetrics unknown = new CommandMetrics(UNKNOWN, "Unknown");
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+    private final Map<String, CacheMetricsMXBean> caches = new LinkedHashMap<String, CacheMetricsMXBean>();
+    private final List<ObjectName> registered = new ArrayList<ObjectName>();
+
+    public ServerMetrics(String server) {
+        this.server = server;
+        for (Map.Entry<Class<?>, String> entry : ServerMetrics.COMMANDS.entrySet()) {
+            String code = entry.getValue();
+            CommandMetrics command = new CommandMetrics(code, entry.getKey().getSimpleName());
+            this.byClass.put(entry.getKey(), command);
+            int index = ServerMetrics.index(code.charAt(0), code.charAt(1));
+            if (index >= 0) {
+                this.byCode[index] = command;
+            }
+        }
+        for (CommandMetrics command : this.byCode) {
+            if (command != null) {
+                this.commands.add(command);
+            }
+        }
+        this.commands.add(this.unknown);
+    }
+
+    private static int index(int first, int second) {
+        if (first < '0' || first > '9' || second < '0' || second > '9') {
+            return -1;
+        }
+        return (first - '0') * 10 + (second - '0');
+    }
+
+    public CommandMetrics command(Message message) {
+        CommandMetrics command = (message == null) ? null : this.byClass.get(message.getClass());
+        return (command == null) ? this.unknown : command;
+    }
+
+    /**
+     * The command from the first two characters of a frame.
+     */
+    public CommandMetrics command(int first, int second) {
+        int index = ServerMetrics.index(first, second);
+        CommandMetrics command = (index < 0) ? null : this.byCode[index];
+        return (command == null) ? this.unknown : command;
+    }
+
+    public CommandMetrics command(CharSequence frame) {
+        if (frame == null || frame.length() < 2) {
+            return this.unknown;
+        }
+        return this.command(frame.charAt(0), frame.charAt(1));
+    }
+
+    /**
+     * Every command, in code order, the unknown one last.
+     */
+    public List<CommandMetrics> getCommands() {
+        return Collections.unmodifiableList(this.commands);
+    }
+
+    /**
+     * Publishes a cache's counters with the server's; called before
+     * {@link #register()} and before the metrics are served.
+     */
+    public synchronized void addCache(String name, CacheMetricsMXBean cache) {
+        this.caches.put(name, cache);
+    }
+
+    public void connectionOpened() {
+        this.opened.increment();
+    }
+
+    public void connectionClosed() {
+        this.closed.increment();
+    }
+
+    @Override
+    public String getServer() {
+        return this.server;
+    }
+
+    @Override
+    public long getActiveConnections() {
+        return this.opened.sum() - this.closed.sum();
+    }
+
+    @Override
+    public long getAcceptedConnections() {
+        return this.opened.sum();
+    }
+
+    @Override
+    public long getRequests() {
+        long requests = 0;
+        for (CommandMetrics command : this.commands) {
+            requests += command.getRequests();
+        }
+        return requests;
+    }
+
+    /**
+     * Registers the server, each command and each cache with the platform
+     * MBean server.
+     */
+    public synchronized void register() {
+        if (!this.registered.isEmpty()) {
+            return;
+        }
+        MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+        String server = ObjectName.quote(this.server);
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":type=Server,name=" + server);
+            mbeans.registerMBean(this, name);
+            this.registered.add(name);
+            for (CommandMetrics command : this.commands) {
+                name = new ObjectName(DOMAIN + ":type=Command,server=" + server + ",command=" + ObjectName.quote(command.getCommand())
+                        + ",message=" + command.getMessage());
+                mbeans.registerMBean(command, name);
+                this.registered.add(name);
+            }
+            for (Map.Entry<String, CacheMetricsMXBean> cache : this.caches.entrySet()) {
+                name = new ObjectName(DOMAIN + ":type=Cache,server=" + server + ",name=" + ObjectName.quote(cache.getKey()));
+                mbeans.registerMBean(cache.getValue(), name);
+                this.registered.add(name);
+            }
+        } catch (JMException ex) {
+            log.warn("Unable to register metrics for " + this.server, ex);
+        }
+    }
+
+    public synchronized void unregister() {
+        MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : this.registered) {
+            try {
+                mbeans.unregisterMBean(name);
+            } catch (JMException ex) {
+                log.debug("Unable to unregister " + name, ex);
+            }
+        }
+        this.registered.clear();
+    }
+
+    /**
+     * Writes the servers' metrics in the Prometheus text format. Commands
+     * nothing has been seen for are left out; latencies are in seconds.
+     */
+    public static void writeText(Collection<ServerMetrics> servers, StringBuilder out) {
+        out.append("# TYPE sip_connections_active gauge\n");
+        for (ServerMetrics metrics : servers) {
+            ServerMetrics.sample(out, "sip_connections_active", metrics.labels(null), metrics.getActiveConnections());
+        }
+        out.append("# TYPE sip_connections_total counter\n");
+        for (ServerMetrics metrics : servers) {
+            ServerMetrics.sample(out, "sip_connections_total", metrics.labels(null), metrics.getAcceptedConnections());
+        }
+        out.append("# TYPE sip_requests_total counter\n");
+        for (ServerMetrics metrics : servers) {
+            for (CommandMetrics command : metrics.commands) {
+                if (ServerMetrics.seen(command)) {
+                    ServerMetrics.sample(out, "sip_requests_total", metrics.labels(command), command.getRequests());
+                }
+            }
+        }
+        out.append("# TYPE sip_errors_total counter\n");
+        for (ServerMetrics metrics : servers) {
+            for (CommandMetrics command : metrics.commands) {
+                if (ServerMetrics.seen(command)) {
+                    String labels = metrics.labels(command);
+                    ServerMetrics.sample(out, "sip_errors_total", labels + ",error=\"checksum\"", command.getChecksumErrors());
+                    ServerMetrics.sample(out, "sip_errors_total", labels + ",error=\"not_understood\"", command.getNotUnderstood());
+                    ServerMetrics.sample(out, "sip_errors_total", labels + ",error=\"resend\"", command.getResends());
+                }
+            }
+        }
+        out.append("# TYPE sip_latency_seconds summary\n");
+        for (ServerMetrics metrics : servers) {
+            for (CommandMetrics command : metrics.commands) {
+                if (command.getRequests() > 0) {
+                    String labels = metrics.labels(command);
+                    ServerMetrics.latency(out, labels + ",phase=\"decode\"", command.getDecode());
+                    ServerMetrics.latency(out, labels + ",phase=\"driver\"", command.getDriver());
+                    ServerMetrics.latency(out, labels + ",phase=\"encode\"", command.getEncode());
+                }
+            }
+        }
+        out.append("# TYPE sip_cache_hits_total counter\n");
+        for (ServerMetrics metrics : servers) {
+            for (Map.Entry<String, CacheMetricsMXBean> cache : metrics.caches.entrySet()) {
+                ServerMetrics.sample(out, "sip_cache_hits_total", metrics.cacheLabels(cache.getKey()), cache.getValue().getHitCount());
+            }
+        }
+        out.append("# TYPE sip_cache_misses_total counter\n");
+        for (ServerMetrics metrics : servers) {
+            for (Map.Entry<String, CacheMetricsMXBean> cache : metrics.caches.entrySet()) {
+                ServerMetrics.sample(out, "sip_cache_misses_total", metrics.cacheLabels(cache.getKey()), cache.getValue().getMissCount());
+            }
+        }
+        out.append("# TYPE sip_cache_evictions_total counter\n");
+        for (ServerMetrics metrics : servers) {
+            for (Map.Entry<String, CacheMetricsMXBean> cache : metrics.caches.entrySet()) {
+                ServerMetrics.sample(out, "sip_cache_evictions_total", metrics.cacheLabels(cache.getKey()), cache.getValue().getEvictionCount());
+            }
+        }
+        out.append("# TYPE sip_cache_size gauge\n");
+        for (ServerMetrics metrics : servers) {
+            for (Map.Entry<String, CacheMetricsMXBean> cache : metrics.caches.entrySet()) {
+                ServerMetrics.sample(out, "sip_cache_size", metrics.cacheLabels(cache.getKey()), cache.getValue().getSize());
+            }
+        }
+    }
+
+    private static boolean seen(CommandMetrics command) {
+        return command.getRequests() > 0 || command.getResends() > 0 || command.getChecksumErrors() > 0 || command.getNotUnderstood() > 0;
+    }
+
+    private String labels(CommandMetrics command) {
+        StringBuilder labels = new StringBuilder("server=\"").append(ServerMetrics.escape(this.server)).append('"');
+        if (command != null) {
+            labels.append(",command=\"").append(ServerMetrics.escape(command.getCommand())).append('"');
+            labels.append(",message=\"").append(command.getMessage()).append('"');
+        }
+        return labels.toString();
+    }
+
+    private String cacheLabels(String cache) {
+        return this.labels(null) + ",cache=\"" + ServerMetrics.escape(cache) + "\"";
+    }
+
+    private static void latency(StringBuilder out, String labels, LatencySummary summary) {
+        ServerMetrics.sample(out, "sip_latency_seconds", labels + ",quantile=\"0.5\"", ServerMetrics.seconds(summary.getP50()));
+        ServerMetrics.sample(out, "sip_latency_seconds", labels + ",quantile=\"0.99\"", ServerMetrics.seconds(summary.getP99()));
+        ServerMetrics.sample(out, "sip_latency_seconds", labels + ",quantile=\"0.999\"", ServerMetrics.seconds(summary.getP999()));
+        ServerMetrics.sample(out, "sip_latency_seconds_sum", labels, ServerMetrics.seconds(summary.getTotal()));
+        ServerMetrics.sample(out, "sip_latency_seconds_count", labels, summary.getCount());
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, Object value) {
+        out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,579 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.netty.client;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.circulation.SIP.exceptions.ConnectionFailure;
+import com.circulation.SIP.exceptions.MessageNotUnderstood;
+import com.circulation.SIP.exceptions.RetriesExceeded;
+import com.circulation.SIP.exceptions.SequenceError;
+import com.circulation.SIP.messages.Message;
+import com.circulation.SIP.messages.SCResend;
+import com.circulation.SIP.netty.codec.SIPByteBufDecoder;
+import com.circulation.SIP.netty.codec.SIPMessageEncoder;
+import com.circulation.SIP.netty.codec.SequencedMessage;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.EncoderException;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.ssl.SslContext;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.ScheduledFuture;
+
+/**
+ * Non-blocking client for one ACS connection. {@link #send(Message)} returns
+ * straight away with a future for the response, so a thread is not tied up
+ * per outstanding request: clients share an NIO event loop group, by default
+ * one for the whole JVM, and thousands of requests to many ACSs can be in
+ * flight from a single thread.
+ * <p>
+ * Requests to one client are sent one at a time in the order they were
+ * made, and otherwise behave as {@link com.circulation.SIP.transport.Connection#send(Message)}
+ * does: each attempt gets the next AY sequence character, an SC Resend or a
+ * response that is not understood is retried after the retry wait, a
+ * checksum or sequence mismatch fails the request, as does a request that
+ * cannot be encoded, without anything being sent, and a request which gets
+ * no response within the idle timeout closes the connection and is retried
+ * on a new one. Once the retries are used up the future fails with
+ * {@link RetriesExceeded}, or {@link MessageNotUnderstood} if the ACS kept
+ * asking for a resend. The client connects on the first request if
+ * {@link #connect()} has not been called, and reconnects as needed.
+ * <p>
+ * The request itself is not changed: each attempt's sequence character goes
+ * to the encoder alongside it, so one request may be sent by several clients
+ * at once. All of the client's state lives on one event loop, so the client
+ * itself needs no locking.
+ */
+public class AsyncSIPClient implements AutoCloseable {
+    private static final Log log = LogFactory.getLog(AsyncSIPClient.class);
+
+    private static final int MAX_FRAME_LENGTH = 65536;
+    private static final SIPMessageEncoder ENCODER = new SIPMessageEncoder();
+    private static EventLoopGroup shared;
+
+    private final String host;
+    private final int port;
+    private final EventLoop loop;
+
+    private int connectionTimeout = 30000;
+    private int idleTimeout = 30000;
+    private int retryAttempts = 3;
+    private int retryWait = 500;
+    private boolean addSequenceAndChecksum = true;
+    private boolean strictSequenceChecking = false;
+    private boolean strictChecksumChecking = false;
+    private SslContext sslContext;
+
+    // only touched on the event loop
+    private final ArrayDeque<Pending> queue = new ArrayDeque<Pending>();
+    private Pending inFlight;
+    private Channel channel;
+    private boolean connecting = false;
+    private int connectAttempts = 0;
+    private CompletableFuture<Void> connected;
+    private char sequence = '9';
+    private volatile boolean closed = false;
+
+    public AsyncSIPClient(String host, int port) {
+        this(host, port, AsyncSIPClient.sharedEventLoopGroup());
+    }
+
+    /**
+     * @param group an NIO event loop group; the client uses one of its loops
+     */
+    public AsyncSIPClient(String host, int port, EventLoopGroup group) {
+        this.host = host;
+        this.port = port;
+        this.loop = group.next();
+    }
+
+    /**
+     * The group clients use unless given one: a thread per core, daemon
+     * threads, created on first use.
+     */
+    public static synchronized EventLoopGroup sharedEventLoopGroup() {
+        if (AsyncSIPClient.shared == null) {
+            AsyncSIPClient.shared = new NioEventLoopGroup(0, new DefaultThreadFactory("sip-client", true));
+        }
+        return AsyncSIPClient.shared;
+    }
+
+    public String getHost() {
+        return this.host;
+    }
+
+    public int getPort() {
+        return this.port;
+    }
+
+    public void setConnectionTimeout(int connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    public int getConnectionTimeout() {
+        return this.connectionTimeout;
+    }
+
+    /**
+     * Milliseconds to wait for each response; 0 to wait for ever.
+     */
+    public void setIdleTimeout(int idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public int getIdleTimeout() {
+        return this.idleTimeout;
+    }
+
+    public void setRetryAttempts(int retryAttempts) {
+        this.retryAttempts = retryAttempts;
+    }
+
+    public int getRetryAttempts() {
+        return this.retryAttempts;
+    }
+
+    public void setRetryWait(int retryWait) {
+        this.retryWait = retryWait;
+    }
+
+    public int getRetryWait() {
+        return this.retryWait;
+    }
+
+    public void setAddSequenceAndChecksum(boolean flag) {
+        this.addSequenceAndChecksum = flag;
+    }
+
+    public boolean getAddSequenceAndChecksum() {
+        return this.addSequenceAndChecksum;
+    }
+
+    public void setStrictSequenceChecking(boolean flag) {
+        this.strictSequenceChecking = flag;
+    }
+
+    public boolean getStrictSequenceChecking() {
+        return this.strictSequenceChecking;
+    }
+
+    public void setStrictChecksumChecking(boolean flag) {
+        this.strictChecksumChecking = flag;
+    }
+
+    public boolean getStrictChecksumChecking() {
+        return this.strictChecksumChecking;
+    }
+
+    /**
+     * Client TLS context, or null, the default, for plain TCP.
+     */
+    public void setSslContext(SslContext sslContext) {
+        this.sslContext = sslContext;
+    }
+
+    public SslContext getSslContext() {
+        return this.sslContext;
+    }
+
+    /**
+     * Connects, if not connected already, trying as many times as the retry
+     * attempts allow.
+     */
+    public CompletableFuture<Void> connect() {
+        final CompletableFuture<Void> result = new CompletableFuture<Void>();
+        this.loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (AsyncSIPClient.this.closed) {
+                    result.completeExceptionally(new ConnectionFailure(new IOException("Client is closed")));
+                } else if (AsyncSIPClient.this.channel != null) {
+                    result.complete(null);
+                } else {
+                    AsyncSIPClient.this.connected().whenComplete(new BiConsumer<Void, Throwable>() {
+                        @Override
+                        public void accept(Void value, Throwable error) {
+                            if (error != null) {
+                                result.completeExceptionally(error);
+                            } else {
+                                result.complete(null);
+                            }
+                        }
+                    });
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Queues a request; the future completes with its response.
+     */
+    public CompletableFuture<Message> send(Message request) {
+        final Pending pending = new Pending(request);
+        if (request == null) {
+            pending.future.completeExceptionally(new MessageNotUnderstood());
+            return pending.future;
+        }
+        this.loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (AsyncSIPClient.this.closed) {
+                    pending.future.completeExceptionally(new RetriesExceeded(new IOException("Client is closed")));
+                    return;
+                }
+                AsyncSIPClient.this.queue.add(pending);
+                AsyncSIPClient.this.drain();
+            }
+        });
+        return pending.future;
+    }
+
+    /**
+     * Closes the connection, failing any requests not yet answered.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        this.loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                AsyncSIPClient.this.failAll(new RetriesExceeded(new IOException("Client is closed")));
+                if (AsyncSIPClient.this.channel != null) {
+                    AsyncSIPClient.this.channel.close();
+                    AsyncSIPClient.this.channel = null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Sends the next request if nothing is in flight, connecting first if
+     * need be.
+     */
+    private void drain() {
+        if (this.channel == null) {
+            if (this.inFlight != null || !this.queue.isEmpty()) {
+                this.connected();
+            }
+            return;
+        }
+        if (this.inFlight == null) {
+            this.inFlight = this.queue.poll();
+            if (this.inFlight == null) {
+                return;
+            }
+        }
+        if (!this.inFlight.sent) {
+            this.write(this.inFlight);
+        }
+    }
+
+    private void write(final Pending pending) {
+        pending.sent = true;
+        pending.sequence = this.addSequenceAndChecksum ? Character.valueOf(this.nextSequence()) : null;
+        if (this.idleTimeout > 0) {
+            final Channel sentOn = this.channel;
+            pending.timeout = this.loop.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (AsyncSIPClient.this.inFlight == pending && AsyncSIPClient.this.channel == sentOn) {
+                        log.error("No response from " + AsyncSIPClient.this.host + ":" + AsyncSIPClient.this.port + ", closing connection");
+                        AsyncSIPClient.this.connectionLost(sentOn, new TimeoutException("No response within " + AsyncSIPClient.this.idleTimeout + "ms"));
+                    }
+                }
+            }, this.idleTimeout, TimeUnit.MILLISECONDS);
+        }
+        final Channel sentOn = this.channel;
+        sentOn.writeAndFlush(new SequencedMessage(pending.request, pending.sequence)).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) {
+                if (future.isSuccess()) {
+                    return;
+                }
+                Throwable cause = future.cause();
+                if (cause instanceof EncoderException && cause.getCause() != null) {
+                    // nothing was written, so the connection is still good
+                    AsyncSIPClient.this.encodeFailed(pending, cause.getCause());
+                } else {
+                    AsyncSIPClient.this.connectionLost(sentOn, cause);
+                }
+            }
+        });
+    }
+
+    private char nextSequence() {
+        this.sequence++;
+        if (this.sequence > '9') {
+            this.sequence = '0';
+        }
+        return this.sequence;
+    }
+
+    private void received(Channel from, Message response) {
+        if (from != this.channel) {
+            return;
+        }
+        Pending pending = this.inFlight;
+        if (pending == null || !pending.sent) {
+            log.warn("Unexpected response from " + this.host + ":" + this.port + " discarded");
+            return;
+        }
+        pending.cancelTimeout();
+        if (response instanceof SCResend) {
+            this.attemptFailed(pending, new MessageNotUnderstood());
+        } else if (this.strictSequenceChecking && response.getSequenceCharacter() != null && pending.sequence != null
+                && !response.getSequenceCharacter().equals(pending.sequence)) {
+            this.finish(pending, null, new SequenceError());
+        } else {
+            this.finish(pending, response, null);
+        }
+    }
+
+    /**
+     * Fails a request that could not be encoded, as Connection.send does,
+     * with MandatoryFieldOmitted or InvalidFieldLength and no retries.
+     */
+    private void encodeFailed(Pending pending, Throwable cause) {
+        if (this.inFlight != pending || !pending.sent) {
+            return;
+        }
+        pending.cancelTimeout();
+        this.finish(pending, null, cause);
+    }
+
+    private void decodeFailed(Channel from, Throwable cause) {
+        if (from != this.channel) {
+            return;
+        }
+        Pending pending = this.inFlight;
+        if (pending == null || !pending.sent) {
+            log.warn("Unreadable data from " + this.host + ":" + this.port + " discarded", cause);
+            return;
+        }
+        pending.cancelTimeout();
+        if (cause instanceof MessageNotUnderstood) {
+            this.attemptFailed(pending, cause);
+        } else {
+            // checksum and sequence errors, and missing fields, are not retried
+            this.finish(pending, null, cause);
+        }
+    }
+
+    /**
+     * Counts a failed attempt, and either fails the request or tries it
+     * again after the retry wait.
+     */
+    private void attemptFailed(Pending pending, Throwable cause) {
+        pending.attempts++;
+        if (pending.attempts > this.retryAttempts) {
+            this.finish(pending, null, (cause instanceof MessageNotUnderstood) ? cause : new RetriesExceeded(cause));
+            return;
+        }
+        pending.sent = false;
+        this.loop.schedule(new Runnable() {
+            @Override
+            public void run() {
+                AsyncSIPClient.this.drain();
+            }
+        }, this.retryWait, TimeUnit.MILLISECONDS);
+    }
+
+    private void finish(Pending pending, Message response, Throwable error) {
+        if (this.inFlight == pending) {
+            this.inFlight = null;
+        }
+        if (error != null) {
+            pending.future.completeExceptionally(error);
+        } else {
+            pending.future.complete(response);
+        }
+        this.drain();
+    }
+
+    private void connectionLost(Channel lost, Throwable cause) {
+        if (lost != this.channel) {
+            return;
+        }
+        this.channel = null;
+        lost.close();
+        Pending pending = this.inFlight;
+        if (pending != null && pending.sent) {
+            pending.cancelTimeout();
+            this.attemptFailed(pending, new ConnectionFailure(cause));
+        } else {
+            this.drain();
+        }
+    }
+
+    /**
+     * Future for the connection being made, starting to make it if need be.
+     */
+    private CompletableFuture<Void> connected() {
+        if (!this.connecting) {
+            this.connecting = true;
+            this.connectAttempts = 0;
+            this.connected = new CompletableFuture<Void>();
+            this.open();
+        }
+        return this.connected;
+    }
+
+    private void open() {
+        final AsyncSIPClient client = this;
+        Bootstrap bootstrap = new Bootstrap()
+                .group(this.loop)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, Integer.valueOf(this.connectionTimeout))
+                .option(ChannelOption.TCP_NODELAY, Boolean.TRUE)
+                .option(ChannelOption.SO_KEEPALIVE, Boolean.TRUE)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        ChannelPipeline pipeline = ch.pipeline();
+                        if (client.sslContext != null) {
+                            pipeline.addLast(client.sslContext.newHandler(ch.alloc(), client.host, client.port));
+                        }
+                        pipeline.addLast(new SIPByteBufDecoder(client.strictChecksumChecking, MAX_FRAME_LENGTH));
+                        pipeline.addLast(ENCODER);
+                        pipeline.addLast(new ResponseHandler(client));
+                    }
+                });
+        bootstrap.connect(this.host, this.port).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) {
+                client.opened(future);
+            }
+        });
+    }
+
+    private void opened(ChannelFuture future) {
+        if (this.closed) {
+            future.channel().close();
+            this.connecting = false;
+            this.connected.completeExceptionally(new ConnectionFailure(new IOException("Client is closed")));
+            return;
+        }
+        if (future.isSuccess()) {
+            this.channel = future.channel();
+            this.connecting = false;
+            this.connected.complete(null);
+            this.drain();
+            return;
+        }
+        this.connectAttempts++;
+        if (this.connectAttempts <= this.retryAttempts) {
+            this.loop.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    AsyncSIPClient.this.open();
+                }
+            }, this.retryWait, TimeUnit.MILLISECONDS);
+            return;
+        }
+        this.connecting = false;
+        RetriesExceeded error = new RetriesExceeded(future.cause());
+        this.connected.completeExceptionally(error);
+        this.failAll(error);
+    }
+
+    private void failAll(Throwable error) {
+        if (this.inFlight != null) {
+            this.inFlight.cancelTimeout();
+            this.inFlight.future.completeExceptionally(error);
+            this.inFlight = null;
+        }
+        Pending pending;
+        while ((pending = this.queue.poll()) != null) {
+            pending.future.completeExceptionally(error);
+        }
+    }
+
+    private static final class Pending {
+        final Message request;
+        final CompletableFuture<Message> future = new CompletableFuture<Message>();
+        Character sequence;
+        int attempts = 0;
+        boolean sent = false;
+        ScheduledFuture<?> timeout;
+
+        Pending(Message request) {
+            this.request = request;
+        }
+
+        void cancelTimeout() {
+            if (this.timeout != null) {
+                this.timeout.cancel(false);
+                this.timeout = null;
+            }
+        }
+    }
+
+    /**
+     * Passes a channel's responses and failures back to its client; a new
+     * one for each connection.
+     */
+    private static final class ResponseHandler extends SimpleChannelInboundHandler<Message> {
+        private final AsyncSIPClient client;
+
+        ResponseHandler(AsyncSIPClient client) {
+            this.client = client;
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, Message response) {
+            this.client.received(ctx.channel(), response);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            this.client.connectionLost(ctx.channel(), new IOException("Connection closed by " + this.client.host + ":" + this.client.port));
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            if (cause instanceof DecoderException && !(cause instanceof TooLongFrameException) && cause.getCause() != null) {
+                // a frame that did not decode; the connection is still good
+                this.client.decodeFailed(ctx.channel(), cause.getCause());
+            } else {
+                this.client.connectionLost(ctx.channel(), cause);
+            }
+        }
+    }
+}
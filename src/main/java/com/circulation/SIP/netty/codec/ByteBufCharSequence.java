@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.netty.codec;
+
+import java.nio.charset.Charset;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Read-only view of a region of a buffer holding text in a single-byte
+ * charset. {@link #charAt(int)} returns the raw byte, which is only the right
+ * character for the ASCII range SIP uses for commands, tags and delimiters;
+ * field values are decoded with the real charset by {@link #toString()}.
+ */
+final class ByteBufCharSequence implements CharSequence {
+	private final ByteBuf buffer;
+	private final int offset;
+	private final int length;
+	private final Charset charset;
+
+	ByteBufCharSequence(ByteBuf buffer, int offset, int length, Charset charset) {
+		this.buffer = buffer;
+		this.offset = offset;
+		this.length = length;
+		this.charset = charset;
+	}
+
+	@Override
+	public int length() {
+		return this.length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= this.length) {
+			throw new IndexOutOfBoundsException("index: " + index + ", length: " + this.length);
+		}
+		return (char) (this.buffer.getByte(this.offset + index) & 0xff);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || end > this.length || start > end) {
+			throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + this.length);
+		}
+		return new ByteBufCharSequence(this.buffer, this.offset + start, end - start, this.charset);
+	}
+
+	@Override
+	public String toString() {
+		return this.buffer.toString(this.offset, this.length, this.charset);
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.netty.codec;
+
+import java.nio.charset.Charset;
+
+import com.circulation.SIP.messages.MessageSink;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Writes an encoded message into a buffer, summing the bytes for the checksum
+ * as they are written. ASCII is written byte for byte when the charset allows
+ * it; anything else goes through the charset.
+ */
+final class ByteBufMessageSink extends MessageSink {
+	private final ByteBuf buffer;
+	private final Charset charset;
+	private final boolean asciiCompatible;
+	private int length = 0;
+	private int sum = 0;
+
+	ByteBufMessageSink(ByteBuf buffer, Charset charset, boolean asciiCompatible) {
+		this.buffer = buffer;
+		this.charset = charset;
+		this.asciiCompatible = asciiCompatible;
+	}
+
+	@Override
+	public void append(char c) {
+		if (this.asciiCompatible && c < 0x80) {
+			this.buffer.writeByte(c);
+			this.sum += c;
+			this.length++;
+		} else {
+			this.append(String.valueOf(c));
+		}
+	}
+
+	@Override
+	public void append(CharSequence text) {
+		int n = 0;
+		int size = text.length();
+		if (this.asciiCompatible) {
+			for (; n < size; n++) {
+				char c = text.charAt(n);
+				if (c >= 0x80) {
+					break;
+				}
+				this.buffer.writeByte(c);
+				this.sum += c;
+			}
+		}
+		if (n < size) {
+			int start = this.buffer.writerIndex();
+			this.buffer.writeCharSequence(text.subSequence(n, size), this.charset);
+			for (int i = start; i < this.buffer.writerIndex(); i++) {
+				this.sum += this.buffer.getByte(i) & 0xff;
+			}
+		}
+		this.length += size;
+	}
+
+	@Override
+	public int length() {
+		return this.length;
+	}
+
+	@Override
+	public String getChecksum() {
+		return MessageSink.formatChecksum(this.sum);
+	}
+}
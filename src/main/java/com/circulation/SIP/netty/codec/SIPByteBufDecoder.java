@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.netty.codec;
+
+import java.nio.charset.Charset;
+import java.util.List;
+
+import com.circulation.SIP.exceptions.ChecksumError;
+import com.circulation.SIP.messages.Message;
+import com.circulation.SIP.metrics.ServerMetrics;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.util.ByteProcessor;
+
+/**
+ * Splits the inbound byte stream into CR, LF or CRLF terminated frames and
+ * decodes each one straight from the buffer, replacing the
+ * DelimiterBasedFrameDecoder, StringDecoder and {@link SIPMessageDecoder}
+ * chain. When the SIP charset is single-byte the frame is never copied into
+ * a String as a whole; only the fields the message declares are.
+ * <p>
+ * Given {@link ServerMetrics}, each request is counted and its decode time
+ * recorded, and checksum errors and frames not understood are counted
+ * against the command in their first two bytes.
+ */
+public class SIPByteBufDecoder extends ByteToMessageDecoder {
+	private static final int DEFAULT_MAX_FRAME_LENGTH = 8192;
+	private static final byte[] HEX = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
+
+	private final boolean strictChecksumChecking;
+	private final int maxFrameLength;
+	private final Charset charset;
+	private final boolean singleByte;
+	private final ServerMetrics metrics;
+	private boolean discarding = false;
+
+	public SIPByteBufDecoder() {
+		this(false);
+	}
+
+	public SIPByteBufDecoder(boolean strictChecksumChecking) {
+		this(strictChecksumChecking, DEFAULT_MAX_FRAME_LENGTH);
+	}
+
+	public SIPByteBufDecoder(boolean strictChecksumChecking, ServerMetrics metrics) {
+		this(strictChecksumChecking, DEFAULT_MAX_FRAME_LENGTH, metrics);
+	}
+
+	public SIPByteBufDecoder(boolean strictChecksumChecking, int maxFrameLength) {
+		this(strictChecksumChecking, maxFrameLength, null);
+	}
+
+	public SIPByteBufDecoder(boolean strictChecksumChecking, int maxFrameLength, ServerMetrics metrics) {
+		this.strictChecksumChecking = strictChecksumChecking;
+		this.maxFrameLength = maxFrameLength;
+		this.metrics = metrics;
+		this.charset = Charset.forName(Message.getCharsetEncoding());
+		this.singleByte = this.charset.newEncoder().maxBytesPerChar() == 1.0f;
+	}
+
+	@Override
+	protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+		int start = in.readerIndex();
+		int eol = in.forEachByte(start, in.readableBytes(), ByteProcessor.FIND_CRLF);
+		if (eol < 0) {
+			if (in.readableBytes() > this.maxFrameLength) {
+				int discarded = in.readableBytes();
+				in.skipBytes(discarded);
+				if (!this.discarding) {
+					this.discarding = true;
+					ctx.fireExceptionCaught(new TooLongFrameException("frame length exceeds " + this.maxFrameLength + ": " + discarded + " - discarding"));
+				}
+			}
+			return;
+		}
+
+		int length = eol - start;
+		int delimiter = (in.getByte(eol) == '\r' && eol + 1 < in.writerIndex() && in.getByte(eol + 1) == '\n') ? 2 : 1;
+		if (this.discarding) {
+			this.discarding = false;
+			in.skipBytes(length + delimiter);
+			return;
+		}
+		if (length > this.maxFrameLength) {
+			in.skipBytes(length + delimiter);
+			ctx.fireExceptionCaught(new TooLongFrameException("frame length exceeds " + this.maxFrameLength + ": " + length + " - discarded"));
+			return;
+		}
+		if (length == 0) {
+			// the LF of a CRLF that arrived after its CR
+			in.skipBytes(delimiter);
+			return;
+		}
+
+		// a bad frame is reported without failing the read, so frames already
+		// buffered behind it are still decoded
+		long started = (this.metrics != null) ? System.nanoTime() : 0;
+		try {
+			if (this.strictChecksumChecking && !checkChecksum(in, start, length)) {
+				throw new ChecksumError();
+			}
+			CharSequence frame = this.singleByte ? new ByteBufCharSequence(in, start, length, this.charset) : in.toString(start, length, this.charset);
+			Message message = Message.decode(frame, null);
+			if (this.metrics != null) {
+				this.metrics.command(message).decoded(System.nanoTime() - started);
+			}
+			out.add(message);
+		} catch (Exception ex) {
+			if (this.metrics != null) {
+				this.metrics.command(in.getByte(start), (length > 1) ? in.getByte(start + 1) : -1).error(ex);
+			}
+			ctx.fireExceptionCaught(new DecoderException(ex));
+		} finally {
+			in.skipBytes(length + delimiter);
+		}
+	}
+
+	/**
+	 * Same rule as Message: frames without a trailing AZ field pass, otherwise
+	 * the four hex digits must match the negated 16 bit sum of the preceding
+	 * bytes.
+	 */
+	private static boolean checkChecksum(ByteBuf in, int start, int length) {
+		if (length < 6 || in.getByte(start + length - 6) != 'A' || in.getByte(start + length - 5) != 'Z') {
+			return true;
+		}
+		int end = start + length - 4;
+		int checksum = 0;
+		for (int i = start; i < end; i++) {
+			checksum += in.getByte(i) & 0xff;
+		}
+		checksum = -checksum & 0xffff;
+		for (int i = 0; i < 4; i++) {
+			if (in.getByte(end + i) != HEX[(checksum >> (12 - 4 * i)) & 0xf]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -1,4 +1,4 @@
-/* 
+/*
  * Copyright (C) 2020 Ceridwen Limited
  *
  * This program is free software: you can redistribute it and/or modify
@@ -16,22 +16,51 @@
  */
 package com.circulation.SIP.netty.codec;
 
-import java.util.List;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 
 import com.circulation.SIP.messages.Message;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.handler.codec.MessageToByteEncoder;
 
+/**
+ * Encodes messages, trailer and terminating CR included, straight into the
+ * outbound buffer in the SIP charset. A {@link SequencedMessage} is encoded
+ * with its sequence character in place of the message's own.
+ */
 @Sharable
-public class SIPMessageEncoder extends MessageToMessageEncoder<Message> {
-	
-	public SIPMessageEncoder() {}
+public class SIPMessageEncoder extends MessageToByteEncoder<Object> {
+	private final Charset charset;
+	private final boolean asciiCompatible;
+
+	public SIPMessageEncoder() {
+		this.charset = Charset.forName(Message.getCharsetEncoding());
+		byte[] ascii = new byte[0x80];
+		char[] chars = new char[0x80];
+		for (int i = 0; i < ascii.length; i++) {
+			ascii[i] = (byte) i;
+			chars[i] = (char) i;
+		}
+		this.asciiCompatible = Arrays.equals(ascii, new String(chars).getBytes(this.charset));
+	}
 
 	@Override
-	protected void encode(ChannelHandlerContext ctx, Message msg, List<Object> out) throws Exception {
-		out.add(msg.encode() + "\r");
+	public boolean acceptOutboundMessage(Object msg) throws Exception {
+		return (msg instanceof Message) || (msg instanceof SequencedMessage);
 	}
-}
 
+	@Override
+	protected void encode(ChannelHandlerContext ctx, Object msg, ByteBuf out) throws Exception {
+		ByteBufMessageSink sink = new ByteBufMessageSink(out, this.charset, this.asciiCompatible);
+		if (msg instanceof SequencedMessage) {
+			SequencedMessage sequenced = (SequencedMessage) msg;
+			sequenced.getMessage().encodeInto(sink, sequenced.getSequence());
+		} else {
+			((Message) msg).encodeInto(sink);
+		}
+		out.writeByte('\r');
+	}
+}
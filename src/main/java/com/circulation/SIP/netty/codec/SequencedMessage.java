@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.netty.codec;
+
+import com.circulation.SIP.messages.Message;
+
+/**
+ * A message to be written with the given sequence character rather than its
+ * own, so that a client can number each attempt at a request without setting
+ * it on a message its caller still holds.
+ */
+public final class SequencedMessage {
+	private final Message message;
+	private final Character sequence;
+
+	public SequencedMessage(Message message, Character sequence) {
+		this.message = message;
+		this.sequence = sequence;
+	}
+
+	public Message getMessage() {
+		return this.message;
+	}
+
+	/**
+	 * The AY sequence character, or null to send none.
+	 */
+	public Character getSequence() {
+		return this.sequence;
+	}
+}
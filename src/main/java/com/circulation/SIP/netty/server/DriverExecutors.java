@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.netty.server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * Executors for running drivers off the Netty I/O threads, so that a driver
+ * which blocks (on a database, say) only holds up its own connection.
+ * <p>
+ * {@link #fromSystemProperties(String)} picks one using
+ * <code>com.circulation.SIP.netty.server.DriverExecutor</code>:
+ * <code>pool</code> (the default) for a bounded pool sized by
+ * <code>com.circulation.SIP.netty.server.DriverThreads</code> and
+ * <code>com.circulation.SIP.netty.server.DriverQueue</code>,
+ * <code>virtual</code> for a virtual thread per request on JDK 21 or later, or
+ * <code>inline</code> to run drivers on the I/O thread as before.
+ */
+public class DriverExecutors {
+    private static final Log log = LogFactory.getLog(DriverExecutors.class);
+
+    public static final String PROP_DRIVER_EXECUTOR = "com.circulation.SIP.netty.server.DriverExecutor";
+    public static final String PROP_DRIVER_THREADS = "com.circulation.SIP.netty.server.DriverThreads";
+    public static final String PROP_DRIVER_QUEUE = "com.circulation.SIP.netty.server.DriverQueue";
+
+    public static final String PROP_DRIVER_EXECUTOR_POOL = "pool";
+    public static final String PROP_DRIVER_EXECUTOR_VIRTUAL = "virtual";
+    public static final String PROP_DRIVER_EXECUTOR_INLINE = "inline";
+
+    private static final int DEFAULT_QUEUE = 10000;
+
+    private DriverExecutors() {
+    }
+
+    /**
+     * Fixed size pool of daemon threads with a bounded queue; requests beyond
+     * the queue are rejected rather than piling up.
+     */
+    public static ExecutorService boundedPool(String name, int threads, int queue) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queue), new DefaultThreadFactory(name + "-driver", true));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * A new virtual thread per request, or null if the JVM does not have
+     * virtual threads.
+     */
+    public static ExecutorService virtualThreadPerRequest() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Executor configured by the system properties above, or null for inline
+     * execution.
+     */
+    public static ExecutorService fromSystemProperties(String name) {
+        String type = System.getProperty(PROP_DRIVER_EXECUTOR, PROP_DRIVER_EXECUTOR_POOL);
+        if (type.equalsIgnoreCase(PROP_DRIVER_EXECUTOR_INLINE)) {
+            return null;
+        }
+        if (type.equalsIgnoreCase(PROP_DRIVER_EXECUTOR_VIRTUAL)) {
+            ExecutorService executor = DriverExecutors.virtualThreadPerRequest();
+            if (executor != null) {
+                return executor;
+            }
+            log.warn("Virtual threads need JDK 21 or later, using a thread pool for " + name);
+        } else if (!type.equalsIgnoreCase(PROP_DRIVER_EXECUTOR_POOL)) {
+            log.warn("Unknown driver executor " + type + ", using a thread pool for " + name);
+        }
+        int threads = Integer.getInteger(PROP_DRIVER_THREADS, Runtime.getRuntime().availableProcessors() * 4).intValue();
+        int queue = Integer.getInteger(PROP_DRIVER_QUEUE, DEFAULT_QUEUE).intValue();
+        return DriverExecutors.boundedPool(name, threads, queue);
+    }
+}
@@ -16,17 +16,18 @@
  */
 package com.circulation.SIP.netty.server;
 
+import com.circulation.SIP.metrics.MetricsEndpoint;
+import com.circulation.SIP.metrics.ServerMetrics;
 import com.circulation.SIP.netty.server.driver.DriverFactory;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.ssl.SslContext;
@@ -34,6 +35,9 @@ import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.util.concurrent.GenericFutureListener;
 import io.netty.util.internal.StringUtil;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 public class SIPDaemon implements GenericFutureListener<ChannelFuture> {
   private static final Log log = LogFactory.getLog(SIPDaemon.class);
@@ -46,10 +50,22 @@ public class SIPDaemon implements GenericFutureListener<ChannelFuture> {
   private final String keyPassword;
   private final DriverFactory driverFactory;
   private final boolean strictChecksumChecking;
+  private final ExecutorService driverExecutor;
+  private final boolean ownsDriverExecutor;
+  private final ServerTransport transport;
+  private final int acceptors;
+  private final boolean reusePort;
+  private final int workerThreads;
+  private final int backlog;
+  private final boolean tcpNoDelay;
+  private final ServerMetrics metrics;
+  private MetricsEndpoint metricsEndpoint;
 
   private ChannelFuture f;
+  private final List<Channel> reusePortChannels = new ArrayList<Channel>();
   private EventLoopGroup bossGroup;
   private EventLoopGroup workerGroup;
+  private boolean stopped = false;
 
   public SIPDaemon(String name, String ip, int port, File keyCertChainFile, File keyFile, DriverFactory driverFactory, boolean strictChecksumChecking) {
     this(name, ip, port, keyCertChainFile, keyFile, null, driverFactory, strictChecksumChecking);
@@ -60,6 +76,15 @@ public class SIPDaemon implements GenericFutureListener<ChannelFuture> {
   }
   
   public SIPDaemon(String name, String ip, int port, File keyCertChainFile, File keyFile, String keyPassword, DriverFactory driverFactory, boolean strictChecksumChecking) {
+    this(name, ip, port, keyCertChainFile, keyFile, keyPassword, driverFactory, strictChecksumChecking, null);
+  }
+
+  /**
+   * @param driverExecutor executor the drivers run on, see {@link DriverExecutors};
+   *        if null one is configured from the system properties and shut down
+   *        with the daemon
+   */
+  public SIPDaemon(String name, String ip, int port, File keyCertChainFile, File keyFile, String keyPassword, DriverFactory driverFactory, boolean strictChecksumChecking, ExecutorService driverExecutor) {
     this.name = name;
     this.ip = ip;
     this.port = port;
@@ -68,6 +93,20 @@ public class SIPDaemon implements GenericFutureListener<ChannelFuture> {
     this.keyPassword = keyPassword;
     this.driverFactory = driverFactory;
     this.strictChecksumChecking = strictChecksumChecking;
+    this.ownsDriverExecutor = (driverExecutor == null);
+    this.driverExecutor = this.ownsDriverExecutor ? DriverExecutors.fromSystemProperties(name) : driverExecutor;
+    this.transport = ServerTransport.fromSystemProperties();
+    this.reusePort = Boolean.getBoolean(ServerTransport.PROP_REUSE_PORT) && this.transport.supportsReusePort();
+    int acceptors = Integer.getInteger(ServerTransport.PROP_ACCEPTORS, 1).intValue();
+    if (acceptors > 1 && !this.reusePort) {
+      log.warn("Server " + name + " needs SO_REUSEPORT and a native transport for " + acceptors + " acceptors, using one");
+      acceptors = 1;
+    }
+    this.acceptors = Math.max(acceptors, 1);
+    this.workerThreads = Integer.getInteger(ServerTransport.PROP_WORKER_THREADS, 0).intValue();
+    this.backlog = Integer.getInteger(ServerTransport.PROP_BACKLOG, ServerTransport.DEFAULT_BACKLOG).intValue();
+    this.tcpNoDelay = Boolean.parseBoolean(System.getProperty(ServerTransport.PROP_TCP_NODELAY, "true"));
+    this.metrics = new ServerMetrics(name);
   }
   
   public String getName() {
@@ -86,9 +125,20 @@ public class SIPDaemon implements GenericFutureListener<ChannelFuture> {
     return strictChecksumChecking;
   }
 
+  public ServerTransport getTransport() {
+    return transport;
+  }
+
+  public ServerMetrics getMetrics() {
+    return metrics;
+  }
+
   public void start() throws Exception {
       // Configure SSL.
       log.info("Server " + name + " on " + ip + " " + port + " starting...");
+      synchronized (this) {
+        stopped = false;
+      }
 
       final SslContext sslCtx;
       
@@ -102,31 +152,42 @@ public class SIPDaemon implements GenericFutureListener<ChannelFuture> {
         }
       }    	
 
-      bossGroup = new NioEventLoopGroup(1);
-      workerGroup = new NioEventLoopGroup();
+      bossGroup = transport.newEventLoopGroup(acceptors);
+      workerGroup = transport.newEventLoopGroup(workerThreads);
 
       try {
         ServerBootstrap b = new ServerBootstrap();
         b.group(bossGroup, workerGroup)
-           .channel(NioServerSocketChannel.class)
+           .channel(transport.getServerChannelClass())
            .handler(new LoggingHandler(LogLevel.INFO))
-           .childHandler(new SIPServerInitializer(driverFactory, strictChecksumChecking, sslCtx))
-           .option(ChannelOption.SO_BACKLOG, 128)          
-           .childOption(ChannelOption.SO_KEEPALIVE, true); 
+           .childHandler(new SIPServerInitializer(driverFactory, strictChecksumChecking, sslCtx, driverExecutor, metrics))
+           .option(ChannelOption.SO_BACKLOG, backlog)
+           .childOption(ChannelOption.SO_KEEPALIVE, true)
+           .childOption(ChannelOption.TCP_NODELAY, tcpNoDelay);
+        if (reusePort) {
+          b.option(transport.getReusePortOption(), true);
+        }
 
            // Bind and start to accept incoming connections.
           f = b.bind(ip, port).sync(); // (7)
+          // with SO_REUSEPORT each further bind gets its own socket and
+          // acceptor thread, and the kernel spreads connections across them
+          for (int i = 1; i < acceptors; i++) {
+            reusePortChannels.add(b.bind(ip, port).sync().channel());
+          }
 
           // Wait until the server socket is closed.
           // In this example, this does not happen, but you can do that to gracefully
           // shut down your server.
           f.channel().closeFuture().addListener(this);
 
+          publishMetrics();
 
-          log.info("Server " + name + " on " + ip + " " + port + " startup complete.");
+          log.info("Server " + name + " on " + ip + " " + port + " startup complete (" + transport.getName() + ", " + acceptors + " acceptor(s)).");
       } catch (Exception ex) {
           workerGroup.shutdownGracefully();
           bossGroup.shutdownGracefully();
+          shutdownDriverExecutor();
       }
   }
 
@@ -136,16 +197,70 @@ public class SIPDaemon implements GenericFutureListener<ChannelFuture> {
       if (f != null) {
         f.channel().close();
       }
+      for (Channel channel : reusePortChannels) {
+        channel.close();
+      }
+      shutdown();
+  }
+
+  /**
+   * Shuts down the event loops and the driver executor and withdraws the
+   * metrics, once, whether {@link #stop()} or the server socket closing
+   * gets here first.
+   */
+  private void shutdown() {
+      synchronized (this) {
+        if (stopped) {
+          return;
+        }
+        stopped = true;
+      }
       workerGroup.shutdownGracefully();
-      bossGroup.shutdownGracefully();		
+      bossGroup.shutdownGracefully();
+      shutdownDriverExecutor();
+      withdrawMetrics();
       log.info("Server " + name + " on " + ip + " " + port + " shutdown complete.");
   }
 
+  /**
+   * Registers the metrics with JMX unless com.circulation.SIP.metrics.Jmx is
+   * false, and adds them to the plaintext endpoint if a port is configured.
+   */
+  private synchronized void publishMetrics() {
+      if (Boolean.parseBoolean(System.getProperty(ServerMetrics.PROP_JMX, "true"))) {
+          metrics.register();
+      }
+      try {
+          metricsEndpoint = MetricsEndpoint.fromSystemProperties();
+          if (metricsEndpoint != null) {
+              metricsEndpoint.add(metrics);
+          }
+      } catch (Exception ex) {
+          log.warn("Server " + name + " unable to start metrics endpoint", ex);
+      }
+  }
+
+  private synchronized void withdrawMetrics() {
+      metrics.unregister();
+      if (metricsEndpoint != null) {
+          metricsEndpoint.remove(metrics);
+          metricsEndpoint = null;
+      }
+  }
+
+  private void shutdownDriverExecutor() {
+      if (ownsDriverExecutor && driverExecutor != null) {
+          driverExecutor.shutdown();
+      }
+  }
+
 	@Override
 	public void operationComplete(ChannelFuture arg0) throws Exception {
+        if (f != null && arg0.channel() != f.channel()) {
+          // the server socket of an earlier start
+          return;
+        }
         log.info("Server " + name + " on " + ip + " " + port + " shutting down...");
-        workerGroup.shutdownGracefully();
-        bossGroup.shutdownGracefully();		
-        log.info("Server " + name + " on " + ip + " " + port + " shutdown complete.");
+        shutdown();
 	}
 }
\ No newline at end of file
@@ -16,57 +16,63 @@
  */
 package com.circulation.SIP.netty.server;
 
-import com.circulation.SIP.netty.codec.SIPMessageDecoder;
+import java.util.concurrent.Executor;
+
+import com.circulation.SIP.metrics.ServerMetrics;
+import com.circulation.SIP.netty.codec.SIPByteBufDecoder;
 import com.circulation.SIP.netty.codec.SIPMessageEncoder;
 import com.circulation.SIP.netty.server.channel.SIPChannelHandler;
 import com.circulation.SIP.netty.server.driver.DriverFactory;
 
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
-import io.netty.channel.socket.SocketChannel;
-import io.netty.handler.codec.DelimiterBasedFrameDecoder;
-import io.netty.handler.codec.string.StringDecoder;
-import io.netty.handler.codec.string.StringEncoder;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.ssl.SslContext;
 
 
-public class SIPServerInitializer extends ChannelInitializer<SocketChannel> {
+/**
+ * Sets up the SIP pipeline on each accepted channel. Any kind of channel will
+ * do, so the same pipeline can be run in an EmbeddedChannel.
+ */
+public class SIPServerInitializer extends ChannelInitializer<Channel> {
 	
-    private final StringDecoder DECODER = new StringDecoder();
-    private final StringEncoder ENCODER = new StringEncoder();
-    private SIPMessageDecoder SIPDECODER;
+    private final boolean strictChecksumChecking;
     private final SIPMessageEncoder SIPENCODER = new SIPMessageEncoder();
 
     private SIPChannelHandler SERVER_HANDLER;
 
     private final SslContext sslCtx;
+    private final ServerMetrics metrics;
 
-    private ByteBuf[] getDelimiters() {
-        return new ByteBuf[] {
-        		Unpooled.wrappedBuffer(new byte[] { '\r', '\n' }),
-        		Unpooled.wrappedBuffer(new byte[] { '\r' }),
-                Unpooled.wrappedBuffer(new byte[] { '\n' }),
-        };    	
-    }
-    
     public SIPServerInitializer(DriverFactory driverFactory, boolean strictChecksumChecking, SslContext sslCtx) {
+        this(driverFactory, strictChecksumChecking, sslCtx, null);
+    }
+
+    public SIPServerInitializer(DriverFactory driverFactory, boolean strictChecksumChecking, SslContext sslCtx, Executor driverExecutor) {
+        this(driverFactory, strictChecksumChecking, sslCtx, driverExecutor, null);
+    }
+
+    /**
+     * @param metrics where requests are counted and timed, or null
+     */
+    public SIPServerInitializer(DriverFactory driverFactory, boolean strictChecksumChecking, SslContext sslCtx, Executor driverExecutor, ServerMetrics metrics) {
         this.sslCtx = sslCtx;
-        SIPDECODER = new SIPMessageDecoder(strictChecksumChecking);
-        SERVER_HANDLER = new SIPChannelHandler(driverFactory);
+        this.strictChecksumChecking = strictChecksumChecking;
+        this.metrics = metrics;
+        SERVER_HANDLER = new SIPChannelHandler(driverFactory, driverExecutor, metrics);
     }
     
     public SIPServerInitializer(DriverFactory driverFactory, boolean strictChecksumChecking) {
     	this.sslCtx = null;
-      SIPDECODER = new SIPMessageDecoder(strictChecksumChecking);
+      this.strictChecksumChecking = strictChecksumChecking;
+      this.metrics = null;
       SERVER_HANDLER = new SIPChannelHandler(driverFactory);
     }
 
     @Override
-    public void initChannel(SocketChannel ch) throws Exception {
+    public void initChannel(Channel ch) throws Exception {
         ChannelPipeline pipeline = ch.pipeline();
 
         if (sslCtx != null) {
@@ -75,13 +81,10 @@ public class SIPServerInitializer extends ChannelInitializer<SocketChannel> {
         
         pipeline.addLast(new LoggingHandler(LogLevel.DEBUG));
         
-        // Add the text line codec combination first,
-        pipeline.addLast(new DelimiterBasedFrameDecoder(8192, getDelimiters()));
+        // Add the framing decoder first, it parses messages straight from the buffer,
+        pipeline.addLast(new SIPByteBufDecoder(strictChecksumChecking, metrics));
         
-        // Add encoders and decoders
-        pipeline.addLast(DECODER);
-        pipeline.addLast(ENCODER);
-        pipeline.addLast(SIPDECODER);
+        // Add the encoder, it writes messages straight into the outbound buffer,
         pipeline.addLast(SIPENCODER);
         
         // and then business logic.
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.netty.server;
+
+import java.lang.reflect.Constructor;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+
+/**
+ * The Netty transport a {@link SIPDaemon} listens with.
+ * <p>
+ * {@link #fromSystemProperties()} picks one using
+ * <code>com.circulation.SIP.netty.server.Transport</code>: <code>nio</code>
+ * (the default), <code>epoll</code> or <code>io_uring</code> for the Linux
+ * native transports, or <code>auto</code> for the best one available. The
+ * native transports are looked up at runtime, so they only need to be on the
+ * classpath where they are used (see the <code>native-transport</code>
+ * profile); when one is missing or cannot load its library the daemon falls
+ * back to NIO.
+ * <p>
+ * The remaining properties are read by the daemon:
+ * <code>com.circulation.SIP.netty.server.Acceptors</code> (bound sockets,
+ * more than one needs <code>com.circulation.SIP.netty.server.ReusePort</code>
+ * and a native transport), <code>com.circulation.SIP.netty.server.WorkerThreads</code>
+ * (0 for the Netty default), <code>com.circulation.SIP.netty.server.Backlog</code>
+ * and <code>com.circulation.SIP.netty.server.TcpNoDelay</code>.
+ */
+public class ServerTransport {
+    private static final Log log = LogFactory.getLog(ServerTransport.class);
+
+    public static final String PROP_TRANSPORT = "com.circulation.SIP.netty.server.Transport";
+    public static final String PROP_ACCEPTORS = "com.circulation.SIP.netty.server.Acceptors";
+    public static final String PROP_REUSE_PORT = "com.circulation.SIP.netty.server.ReusePort";
+    public static final String PROP_WORKER_THREADS = "com.circulation.SIP.netty.server.WorkerThreads";
+    public static final String PROP_BACKLOG = "com.circulation.SIP.netty.server.Backlog";
+    public static final String PROP_TCP_NODELAY = "com.circulation.SIP.netty.server.TcpNoDelay";
+
+    public static final String PROP_TRANSPORT_NIO = "nio";
+    public static final String PROP_TRANSPORT_EPOLL = "epoll";
+    public static final String PROP_TRANSPORT_IO_URING = "io_uring";
+    public static final String PROP_TRANSPORT_AUTO = "auto";
+
+    public static final int DEFAULT_BACKLOG = 128;
+
+    public static final ServerTransport NIO = new ServerTransport(PROP_TRANSPORT_NIO, null, NioServerSocketChannel.class, null);
+
+    private final String name;
+    private final Constructor<? extends EventLoopGroup> groupConstructor;
+    private final Class<? extends ServerChannel> channelClass;
+    private final ChannelOption<Boolean> reusePort;
+
+    private ServerTransport(String name, Constructor<? extends EventLoopGroup> groupConstructor, Class<? extends ServerChannel> channelClass, ChannelOption<Boolean> reusePort) {
+        this.name = name;
+        this.groupConstructor = groupConstructor;
+        this.channelClass = channelClass;
+        this.reusePort = reusePort;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Class<? extends ServerChannel> getServerChannelClass() {
+        return channelClass;
+    }
+
+    /**
+     * @param threads number of event loops, or 0 for the Netty default
+     */
+    public EventLoopGroup newEventLoopGroup(int threads) {
+        if (groupConstructor == null) {
+            return new NioEventLoopGroup(threads);
+        }
+        try {
+            return groupConstructor.newInstance(threads);
+        } catch (Exception ex) {
+            throw new IllegalStateException("Unable to create " + name + " event loops", ex);
+        }
+    }
+
+    public boolean supportsReusePort() {
+        return reusePort != null;
+    }
+
+    /**
+     * The transport's SO_REUSEPORT option, or null if it has none.
+     */
+    public ChannelOption<Boolean> getReusePortOption() {
+        return reusePort;
+    }
+
+    public static ServerTransport epoll() {
+        return ServerTransport.loadNative(PROP_TRANSPORT_EPOLL, "io.netty.channel.epoll.Epoll",
+                "io.netty.channel.epoll.EpollEventLoopGroup", "io.netty.channel.epoll.EpollServerSocketChannel",
+                "io.netty.channel.epoll.EpollChannelOption");
+    }
+
+    public static ServerTransport ioUring() {
+        return ServerTransport.loadNative(PROP_TRANSPORT_IO_URING, "io.netty.incubator.channel.uring.IOUring",
+                "io.netty.incubator.channel.uring.IOUringEventLoopGroup", "io.netty.incubator.channel.uring.IOUringServerSocketChannel",
+                "io.netty.incubator.channel.uring.IOUringChannelOption");
+    }
+
+    /**
+     * The named transport, or NIO if that is not available here.
+     */
+    public static ServerTransport forName(String type) {
+        ServerTransport transport = null;
+        if (type.equalsIgnoreCase(PROP_TRANSPORT_NIO)) {
+            return NIO;
+        } else if (type.equalsIgnoreCase(PROP_TRANSPORT_EPOLL)) {
+            transport = ServerTransport.epoll();
+        } else if (type.equalsIgnoreCase(PROP_TRANSPORT_IO_URING)) {
+            transport = ServerTransport.ioUring();
+        } else if (type.equalsIgnoreCase(PROP_TRANSPORT_AUTO)) {
+            transport = ServerTransport.ioUring();
+            if (transport == null) {
+                transport = ServerTransport.epoll();
+            }
+        } else {
+            log.warn("Unknown transport " + type + ", using nio");
+        }
+        return transport == null ? NIO : transport;
+    }
+
+    public static ServerTransport fromSystemProperties() {
+        return ServerTransport.forName(System.getProperty(PROP_TRANSPORT, PROP_TRANSPORT_NIO));
+    }
+
+    /**
+     * Null if the transport's classes are not on the classpath or its native
+     * library will not load.
+     */
+    @SuppressWarnings("unchecked")
+    private static ServerTransport loadNative(String name, String availability, String group, String channel, String options) {
+        try {
+            Class<?> check = Class.forName(availability);
+            if (!((Boolean) check.getMethod("isAvailable").invoke(null)).booleanValue()) {
+                log.info("The " + name + " transport is not available: " + check.getMethod("unavailabilityCause").invoke(null));
+                return null;
+            }
+            Constructor<? extends EventLoopGroup> groupConstructor = Class.forName(group).asSubclass(EventLoopGroup.class).getConstructor(int.class);
+            Class<? extends ServerChannel> channelClass = Class.forName(channel).asSubclass(ServerChannel.class);
+            ChannelOption<Boolean> reusePort = (ChannelOption<Boolean>) Class.forName(options).getField("SO_REUSEPORT").get(null);
+            return new ServerTransport(name, groupConstructor, channelClass, reusePort);
+        } catch (ClassNotFoundException ex) {
+            log.info("The " + name + " transport is not on the classpath");
+            return null;
+        } catch (Exception ex) {
+            log.warn("Unable to load the " + name + " transport", ex);
+            return null;
+        } catch (LinkageError ex) {
+            log.warn("Unable to load the " + name + " transport", ex);
+            return null;
+        }
+    }
+}
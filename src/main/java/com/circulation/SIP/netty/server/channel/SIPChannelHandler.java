@@ -17,73 +17,288 @@
 package com.circulation.SIP.netty.server.channel;
 
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import com.circulation.SIP.exceptions.MessageNotUnderstood;
 import com.circulation.SIP.messages.ACSResend;
 import com.circulation.SIP.messages.Message;
 import com.circulation.SIP.messages.SCResend;
+import com.circulation.SIP.metrics.CommandMetrics;
+import com.circulation.SIP.metrics.ServerMetrics;
 import com.circulation.SIP.netty.server.driver.Driver;
 import com.circulation.SIP.netty.server.driver.DriverFactory;
+import com.circulation.SIP.util.MessageDispatcher;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.util.AttributeKey;
 
 /**
-* Handles a server-side channel.
+* Handles a server-side channel. Given an executor, drivers are run on it
+* rather than on the I/O thread. A client may pipeline requests: up to the
+* pipeline depth of them are processed at once, and responses, including
+* resends and error replies, always go back in the order the requests came
+* in, each carrying its request's AY sequence character.
+* <p>
+* The depth defaults to 1, one request at a time per channel, and is set
+* with <code>com.circulation.SIP.netty.server.PipelineDepth</code>. Deeper
+* pipelines need drivers that cope with a terminal's requests running
+* concurrently.
+* <p>
+* Given {@link ServerMetrics}, connections, driver and encode times and the
+* resends sent are recorded against each request's command.
 */
 @Sharable
 public class SIPChannelHandler extends SimpleChannelInboundHandler<Message> {
     private static Log logger = LogFactory.getLog(SIPChannelHandler.class);
 
+    public static final String PROP_PIPELINE_DEPTH = "com.circulation.SIP.netty.server.PipelineDepth";
+
+    private static final AttributeKey<ChannelState> STATE = AttributeKey.valueOf(SIPChannelHandler.class, "state");
+
 	private DriverFactory driverFactory;
+	private Executor executor;
+	private int pipelineDepth;
+	private ServerMetrics metrics;
 	
 	public SIPChannelHandler(DriverFactory driverFactory)
+	{
+		this(driverFactory, null);
+	}
+
+	public SIPChannelHandler(DriverFactory driverFactory, Executor executor)
+	{
+		this(driverFactory, executor, Integer.getInteger(PROP_PIPELINE_DEPTH, 1).intValue());
+	}
+
+	public SIPChannelHandler(DriverFactory driverFactory, Executor executor, int pipelineDepth)
+	{
+		this(driverFactory, executor, pipelineDepth, null);
+	}
+
+	public SIPChannelHandler(DriverFactory driverFactory, Executor executor, ServerMetrics metrics)
+	{
+		this(driverFactory, executor, Integer.getInteger(PROP_PIPELINE_DEPTH, 1).intValue(), metrics);
+	}
+
+	public SIPChannelHandler(DriverFactory driverFactory, Executor executor, int pipelineDepth, ServerMetrics metrics)
 	{
 		this.driverFactory = driverFactory;
+		this.executor = executor;
+		this.pipelineDepth = Math.max(1, pipelineDepth);
+		this.metrics = metrics;
 	}
 
+    /**
+     * A request waiting for its response to be written.
+     */
+    private static final class Exchange {
+        final Message request;
+        final CommandMetrics metrics;
+        Message response;
+        Throwable error;
+        boolean complete = false;
+
+        Exchange(Message request, CommandMetrics metrics) {
+            this.request = request;
+            this.metrics = metrics;
+        }
+    }
+
+    /**
+     * Per channel state, only touched on the channel's event loop.
+     */
+    private static final class ChannelState {
+        final ArrayDeque<Exchange> inOrder = new ArrayDeque<Exchange>();
+        final ArrayDeque<Exchange> waiting = new ArrayDeque<Exchange>();
+        int running = 0;
+        Message lastResponse = null;
+    }
+
+    private static ChannelState state(ChannelHandlerContext ctx) {
+        ChannelState state = ctx.channel().attr(STATE).get();
+        if (state == null) {
+            state = new ChannelState();
+            ctx.channel().attr(STATE).set(state);
+        }
+        return state;
+    }
+
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
 //        ctx.flush();
+        if (metrics != null) {
+            metrics.connectionOpened();
+        }
     }
 
-    private Message process(Message request) throws IllegalArgumentException, IllegalAccessException, InvocationTargetException, MessageNotUnderstood, InstantiationException {
-        Driver driver = driverFactory.getDriver();
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (metrics != null) {
+            metrics.connectionClosed();
+        }
+        super.channelInactive(ctx);
+    }
 
-        Method[] handlerMethods = driver.getClass().getMethods();
+    private Message process(Exchange exchange) throws IllegalArgumentException, IllegalAccessException, InvocationTargetException, MessageNotUnderstood, InstantiationException {
+        long started = (exchange.metrics != null) ? System.nanoTime() : 0;
+        try {
+            Driver driver = driverFactory.getDriver();
 
-        for (Method handlerMethod : handlerMethods) {
-            Class<?> types[] = handlerMethod.getParameterTypes();
-            if (types.length == 1) {
-                if (request.getClass() == types[0]) {
-                    return (Message) handlerMethod.invoke(driver, new Object[] { request });
-                }
+            return MessageDispatcher.dispatch(driver, exchange.request);
+        } finally {
+            if (exchange.metrics != null) {
+                exchange.metrics.driverCompleted(System.nanoTime() - started);
             }
         }
-        throw new MessageNotUnderstood();
     }
 
-    
-	Message response = null;
-    
     @Override
     public void channelRead0(ChannelHandlerContext ctx, Message request) throws Exception {
-        if (!(request instanceof ACSResend)) {
-        	response = process(request);
-        } else if (response == null) {
-        	response = new SCResend();
+        ChannelState state = state(ctx);
+        Exchange exchange = new Exchange(request, (metrics != null) ? metrics.command(request) : null);
+        state.inOrder.add(exchange);
+
+        if (request instanceof ACSResend) {
+            // answered with whatever was sent last when its turn comes
+            exchange.complete = true;
+            this.writeCompleted(ctx, state);
+        } else if (executor == null) {
+            try {
+                exchange.response = process(exchange);
+            } catch (Exception ex) {
+                exchange.error = ex;
+            }
+            exchange.complete = true;
+            this.writeCompleted(ctx, state);
+        } else {
+            state.waiting.add(exchange);
+            this.startWaiting(ctx, state);
+        }
+    }
+
+    private void startWaiting(final ChannelHandlerContext ctx, final ChannelState state) {
+        while (state.running < pipelineDepth && !state.waiting.isEmpty()) {
+            final Exchange exchange = state.waiting.poll();
+            state.running++;
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Message response = null;
+                        Throwable error = null;
+                        try {
+                            response = process(exchange);
+                        } catch (Throwable ex) {
+                            error = ex;
+                        }
+                        completed(ctx, state, exchange, response, error);
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                state.running--;
+                exchange.error = ex;
+                exchange.complete = true;
+            }
         }
+        this.writeCompleted(ctx, state);
+    }
 
-        response.setSequenceCharacter(request.getSequenceCharacter());
-        
-        ChannelFuture future = ctx.write(response);
+    private void completed(final ChannelHandlerContext ctx, final ChannelState state, final Exchange exchange, final Message response, final Throwable error) {
+        if (!ctx.executor().inEventLoop()) {
+            ctx.executor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    completed(ctx, state, exchange, response, error);
+                }
+            });
+            return;
+        }
+        state.running--;
+        exchange.response = response;
+        exchange.error = error;
+        exchange.complete = true;
+        this.startWaiting(ctx, state);
     }
 
+    /**
+     * Writes the responses at the head of the channel's queue that are ready,
+     * stopping at the first request still being processed.
+     */
+    private void writeCompleted(ChannelHandlerContext ctx, ChannelState state) {
+        boolean written = false;
+        while (!state.inOrder.isEmpty() && state.inOrder.peek().complete) {
+            Exchange exchange = state.inOrder.poll();
+            Message response;
+            ChannelFutureListener listener = LOG_WRITE_FAILURE;
+            if (exchange.error != null || (exchange.response == null && !(exchange.request instanceof ACSResend))) {
+                if (exchange.error != null) {
+                    logger.error("Transient communications error", exchange.error);
+                } else {
+                    logger.error("No response to " + exchange.request.getClass().getSimpleName());
+                }
+                if (exchange.metrics != null) {
+                    exchange.metrics.error(exchange.error);
+                }
+                response = new SCResend();
+                listener = CLOSE_ON_WRITE_FAILURE;
+            } else if (exchange.request instanceof ACSResend) {
+                if (state.lastResponse == null) {
+                    state.lastResponse = new SCResend();
+                }
+                response = state.lastResponse;
+            } else {
+                response = exchange.response;
+                state.lastResponse = response;
+            }
+            if (exchange.request != null) {
+                response.setSequenceCharacter(exchange.request.getSequenceCharacter());
+            }
+            if (exchange.metrics == null) {
+                ctx.write(response).addListener(listener);
+            } else {
+                if (response instanceof SCResend) {
+                    exchange.metrics.resend();
+                }
+                // on the event loop the encoder runs inside write
+                long started = System.nanoTime();
+                ChannelFuture future = ctx.write(response);
+                exchange.metrics.encoded(System.nanoTime() - started);
+                future.addListener(listener);
+            }
+            written = true;
+        }
+        if (written) {
+            ctx.flush();
+        }
+    }
+
+    private static final ChannelFutureListener LOG_WRITE_FAILURE = new ChannelFutureListener() {
+        @Override
+        public void operationComplete(ChannelFuture future) {
+            if (!future.isSuccess()) {
+                logger.error("Unable to send response", future.cause());
+            }
+        }
+    };
+
+    private static final ChannelFutureListener CLOSE_ON_WRITE_FAILURE = new ChannelFutureListener() {
+        @Override
+        public void operationComplete(ChannelFuture future) {
+            if (!future.isSuccess()) {
+                logger.error("Transient communications error", future.cause());
+                future.channel().close();
+            }
+        }
+    };
+
     @Override
     public void channelReadComplete(ChannelHandlerContext ctx) {
         ctx.flush();
@@ -94,15 +309,13 @@ public class SIPChannelHandler extends SimpleChannelInboundHandler<Message> {
     	if (cause instanceof java.io.IOException) {
     		logger.debug(cause.getMessage());
     	} else {
-	    	logger.error("Transient communications error", cause);
-//	        cause.printStackTrace();
-	        try {
-	            ctx.write(new SCResend().encode(null));
-	            ctx.flush();
-	        } catch (Exception e1) {
-	        	logger.error("Transient communications error", e1);
-	            ctx.close();
-	        }
+	        // replied to with SCResend, behind any responses still pending
+	        ChannelState state = state(ctx);
+	        Exchange exchange = new Exchange(null, (metrics != null) ? metrics.command((Message) null) : null);
+	        exchange.error = cause;
+	        exchange.complete = true;
+	        state.inOrder.add(exchange);
+	        this.writeCompleted(ctx, state);
 	    }
     }
-}
\ No newline at end of file
+}
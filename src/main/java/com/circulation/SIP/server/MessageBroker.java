@@ -17,15 +17,17 @@
 package com.circulation.SIP.server;
 
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 
 import com.circulation.SIP.exceptions.MessageNotUnderstood;
 import com.circulation.SIP.messages.ACSResend;
 import com.circulation.SIP.messages.Message;
+import com.circulation.SIP.metrics.CommandMetrics;
+import com.circulation.SIP.metrics.ServerMetrics;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.circulation.SIP.messages.SCResend;
+import com.circulation.SIP.util.MessageDispatcher;
 
 public class MessageBroker {
      private static Log logger = LogFactory.getLog(MessageBroker.class);
@@ -33,9 +35,18 @@ public class MessageBroker {
     private MessageHandler handler;
     private boolean strictChecksumChecking = false;
     private String lastResponse;
+    private ServerMetrics metrics;
 
     public MessageBroker(MessageHandler handler) {
+        this(handler, null);
+    }
+
+    /**
+     * @param metrics where requests are counted and timed, or null
+     */
+    public MessageBroker(MessageHandler handler, ServerMetrics metrics) {
         this.handler = handler;
+        this.metrics = metrics;
     }
 
     public void setStrictChecksumChecking(boolean flag) {
@@ -47,35 +58,40 @@ public class MessageBroker {
     }
 
     public Message process(Message request) throws IllegalArgumentException, IllegalAccessException, InvocationTargetException, MessageNotUnderstood {
-        Class<MessageHandler> handlerInterface = MessageHandler.class;
-
-        Method[] handlerMethods = handlerInterface.getMethods();
-
-        for (Method handlerMethod : handlerMethods) {
-            Class<?> types[] = handlerMethod.getParameterTypes();
-            if (types.length == 1) {
-                if (request.getClass() == types[0]) {
-                    return (Message) handlerMethod.invoke(this.handler, new Object[] { request });
-                }
-            }
-        }
-        throw new MessageNotUnderstood();
+        return MessageDispatcher.dispatch(MessageHandler.class, this.handler, request);
     }
 
     public String process(String request) {
+        CommandMetrics command = (this.metrics != null) ? this.metrics.command(request) : null;
         try {
            MessageBroker.logger.debug("Processing message: " + request);
+            long started = System.nanoTime();
             Message requestMessage = Message.decode(request, null, this.strictChecksumChecking);
+            if (command != null) {
+                command.decoded(System.nanoTime() - started);
+            }
             if (requestMessage instanceof ACSResend) {
               MessageBroker.logger.info("Resending response");
             } else {
+                started = System.nanoTime();
                 Message responseMessage = this.process(requestMessage);
+                if (command != null) {
+                    command.driverCompleted(System.nanoTime() - started);
+                }
+                started = System.nanoTime();
                 this.lastResponse = responseMessage.encode(requestMessage.getSequenceCharacter());
+                if (command != null) {
+                    command.encoded(System.nanoTime() - started);
+                }
             }
            MessageBroker.logger.debug("Sending response: " + this.lastResponse);
             return this.lastResponse;
         } catch (Exception e) {
            MessageBroker.logger.warn("Error trying to process message: " + request, e);
+            if (command != null) {
+                command.error(e);
+                command.resend();
+            }
             try {
                 return new SCResend().encode(null); // Do a resend properly
             } catch (Exception e1) {
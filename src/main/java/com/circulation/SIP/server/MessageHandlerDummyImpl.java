@@ -16,13 +16,22 @@
  */
 package com.circulation.SIP.server;
 
+import com.circulation.SIP.dao.CirculationStore;
 import com.circulation.SIP.dao.PulDao;
 import com.circulation.SIP.messages.*;
 import com.circulation.SIP.types.enumerations.HoldMode;
 
 public class MessageHandlerDummyImpl implements MessageHandler {
 
-    PulDao pulDao = new PulDao();
+    CirculationStore pulDao;
+
+    public MessageHandlerDummyImpl() {
+        this(new PulDao());
+    }
+
+    public MessageHandlerDummyImpl(CirculationStore pulDao) {
+        this.pulDao = pulDao;
+    }
 
     @Override
     public ACSStatus Status(SCStatus msg) {
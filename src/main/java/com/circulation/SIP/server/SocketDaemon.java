@@ -25,10 +25,22 @@ import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.circulation.SIP.metrics.ServerMetrics;
+import com.circulation.SIP.netty.server.DriverExecutors;
+
 public class SocketDaemon extends Thread {
     private static Log logger = LogFactory.getLog(SocketDaemon.class);
 
@@ -37,11 +49,65 @@ public class SocketDaemon extends Thread {
     private MessageBroker broker;
     private boolean running;
     private ServerSocket listener;
+    private ExecutorService executor;
+    private Semaphore connections;
+    private int idleTimeout;
+    private ServerMetrics metrics;
 
     public SocketDaemon(String ipAddress, int port, MessageHandler handler) {
+        this(ipAddress, port, handler, null, 0, 0);
+    }
+
+    /**
+     * @param executor runs the connections, or null for a new thread per
+     *        connection; it is shut down with the daemon
+     * @param maxConnections connections served at once, further connections
+     *        wait in the listen backlog; 0 for no limit
+     * @param idleTimeout milliseconds a connection may wait for a request
+     *        before it is closed; 0 for no timeout
+     */
+    public SocketDaemon(String ipAddress, int port, MessageHandler handler, ExecutorService executor, int maxConnections, int idleTimeout) {
         this.ipaddress = ipAddress;
         this.port = port;
-        this.broker = new MessageBroker(handler);
+        this.metrics = new ServerMetrics(ipAddress + ":" + port);
+        this.broker = new MessageBroker(handler, this.metrics);
+        this.executor = executor;
+        this.connections = (maxConnections > 0) ? new Semaphore(maxConnections) : null;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Requests and connections served, to register with JMX or a
+     * {@link com.circulation.SIP.metrics.MetricsEndpoint}.
+     */
+    public ServerMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Fixed size pool for connections, queueing up to queue connections
+     * beyond that; connections which do not fit are closed.
+     */
+    public static ExecutorService newConnectionPool(int threads, int queue) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(Math.max(queue, 1)), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "SIP-connection-" + count.incrementAndGet());
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * A virtual thread per connection, or null if the JVM does not have
+     * virtual threads.
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        return DriverExecutors.virtualThreadPerRequest();
     }
 
     @Override
@@ -55,11 +121,18 @@ public class SocketDaemon extends Thread {
 
             while (this.running) {
                 try {
-                    server = this.listener.accept();
-                    ConnectionThread thread = new ConnectionThread(server, this.broker);
-                    thread.start();
+                    this.acquire();
+                    try {
+                        server = this.listener.accept();
+                    } catch (IOException ex) {
+                        this.release();
+                        throw ex;
+                    }
+                    this.serve(server);
                 } catch (SocketException ex) {
                     // listener closed
+                } catch (InterruptedException ex) {
+                    this.running = false;
                 }
             }
 
@@ -69,27 +142,87 @@ public class SocketDaemon extends Thread {
         }
     }
 
+    private void acquire() throws InterruptedException {
+        if (this.connections != null && !this.connections.tryAcquire()) {
+            SocketDaemon.logger.warn("Connection limit reached, waiting for a connection to close");
+            this.connections.acquire();
+        }
+    }
+
+    private void release() {
+        if (this.connections != null) {
+            this.connections.release();
+        }
+    }
+
+    private void serve(Socket server) {
+        if (this.idleTimeout > 0) {
+            try {
+                server.setSoTimeout(this.idleTimeout);
+            } catch (SocketException ex) {
+                SocketDaemon.logger.info("Unable to set idle timeout, closing connection from " + server.getInetAddress().toString(), ex);
+                this.close(server);
+                return;
+            }
+        }
+        ClientConnection connection = new ClientConnection(server, this.broker, this.metrics) {
+            @Override
+            public void run() {
+                try {
+                    super.run();
+                } finally {
+                    SocketDaemon.this.release();
+                }
+            }
+        };
+        if (this.executor == null) {
+            new Thread(connection).start();
+            return;
+        }
+        try {
+            this.executor.execute(connection);
+        } catch (RejectedExecutionException ex) {
+            SocketDaemon.logger.warn("Too many connections, closing connection from " + server.getInetAddress().toString());
+            this.close(server);
+        }
+    }
+
+    private void close(Socket server) {
+        this.release();
+        try {
+            server.close();
+        } catch (IOException e) {
+        }
+    }
+
     public void shutdown() {
         SocketDaemon.logger.info("Server daemon shutting down");
         this.running = false;
+        // wakes the daemon if it is waiting for a connection to close
+        this.interrupt();
         try {
             this.listener.close();
         } catch (IOException e) {
         }
+        if (this.executor != null) {
+            this.executor.shutdown();
+        }
     }
 }
 
-class ConnectionThread extends Thread {
+class ClientConnection implements Runnable {
     private static final String PROP_CHARSET = "com.ceridwen.circulation.SIP.charset";
     private static final String PROP_DEFAULT_CHARSET = "Cp850";    
-    private static Log logger = LogFactory.getLog(ConnectionThread.class);
+    private static Log logger = LogFactory.getLog(ClientConnection.class);
 
     private Socket server;
     private MessageBroker broker;
+    private ServerMetrics metrics;
 
-    ConnectionThread(Socket server, MessageBroker broker) {
+    ClientConnection(Socket server, MessageBroker broker, ServerMetrics metrics) {
         this.broker = broker;
         this.server = server;
+        this.metrics = metrics;
     }
 
     protected String getCharset() {
@@ -98,8 +231,9 @@ class ConnectionThread extends Thread {
 
     @Override
     public void run() {
+        this.metrics.connectionOpened();
         try {
-           ConnectionThread.logger.info("New connection from " + this.server.getInetAddress().toString());
+           ClientConnection.logger.info("New connection from " + this.server.getInetAddress().toString());
             BufferedReader in = new BufferedReader(new InputStreamReader(this.server.getInputStream(), getCharset()));
             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(this.server.getOutputStream(), getCharset()));
             String input = in.readLine();
@@ -109,9 +243,16 @@ class ConnectionThread extends Thread {
                 out.flush();
                 input = in.readLine();
             } while (input != null);
-            this.server.close();
+        } catch (SocketTimeoutException ex) {
+           ClientConnection.logger.info("Closing idle connection from " + this.server.getInetAddress().toString());
         } catch (IOException ioe) {
            logger.info("IOException on socket listen: ", ioe);
+        } finally {
+            this.metrics.connectionClosed();
+            try {
+                this.server.close();
+            } catch (IOException e) {
+            }
         }
     }
 }
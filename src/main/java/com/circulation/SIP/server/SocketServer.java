@@ -16,15 +16,26 @@
  */
 package com.circulation.SIP.server;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
 import java.sql.*;
 
+import com.circulation.SIP.dao.CheckoutWriteBehind;
+import com.circulation.SIP.dao.CirculationStore;
+import com.circulation.SIP.dao.InMemoryCirculationStore;
+import com.circulation.SIP.dao.JdbcConnectionPool;
+import com.circulation.SIP.dao.PulDao;
+import com.circulation.SIP.dao.StorePersistence;
+import com.circulation.SIP.metrics.MetricsEndpoint;
+import com.circulation.SIP.metrics.ServerMetrics;
+
 public class SocketServer {
-    public static Connection connection = null;
+    private static JdbcConnectionPool connectionPool = null;
     public static String ClassName ;
     public static String UserName;
     public static String Password;
@@ -41,11 +52,20 @@ public class SocketServer {
             UserName = properties.getProperty("spring.datasource.username");
             Password = properties.getProperty("spring.datasource.password");
             Url = properties.getProperty("spring.datasource.url");
+            connectionPool = JdbcConnectionPool.fromProperties(properties);
 
             System.out.println("ILS Mock SIP Server IP : " + mockSipServerIp);
             System.out.println("ILS Mock SIP Server Port : " + mockSipServerPort);
 
-            SocketDaemon thread = new SocketDaemon(mockSipServerIp, Integer.parseInt(mockSipServerPort), new MessageHandlerDummyImpl());
+            int maxConnections = Integer.parseInt(properties.getProperty("ils.mock.sip.server.max-connections", "0"));
+            int idleTimeout = Integer.parseInt(properties.getProperty("ils.mock.sip.server.idle-timeout", "0"));
+            ExecutorService executor = createExecutor(properties, maxConnections);
+
+            CirculationStore store = createStore(properties);
+            MessageHandlerDummyImpl handler = new MessageHandlerDummyImpl(store);
+
+            SocketDaemon thread = new SocketDaemon(mockSipServerIp, Integer.parseInt(mockSipServerPort), handler, executor, maxConnections, idleTimeout);
+            publishMetrics(properties, thread.getMetrics(), store);
             thread.start();
         } finally {
             if (null != in) {
@@ -58,12 +78,111 @@ public class SocketServer {
         }
     }
 
-    public static Connection getConnection() throws Exception {
-        if (connection == null) {
+    /**
+     * Store from ils.mock.sip.store: mysql (the default) for PulDao, or memory
+     * for an in-memory store seeded from the ils.mock.sip.store.fixture file
+     * if there is one. With ils.mock.sip.store.data-dir the in-memory store
+     * is restored from and kept in that directory, snapshotted every
+     * ils.mock.sip.store.snapshot-interval seconds, and only seeded from the
+     * fixture when the directory is empty.
+     */
+    private static CirculationStore createStore(Properties properties) throws IOException {
+        if (properties.getProperty("ils.mock.sip.store", "mysql").equalsIgnoreCase("memory")) {
+            InMemoryCirculationStore store = new InMemoryCirculationStore();
+            String dataDir = properties.getProperty("ils.mock.sip.store.data-dir");
+            final StorePersistence persistence = (dataDir == null) ? null : new StorePersistence(store, new File(dataDir));
+            String fixture = properties.getProperty("ils.mock.sip.store.fixture");
+            if ((persistence == null || !persistence.recover()) && fixture != null) {
+                store.load(new File(fixture));
+            }
+            if (persistence != null) {
+                persistence.start(1000L * Long.parseLong(properties.getProperty("ils.mock.sip.store.snapshot-interval", "300")));
+                Runtime.getRuntime().addShutdownHook(new Thread() {
+                    @Override
+                    public void run() {
+                        persistence.close();
+                    }
+                });
+            }
+            return store;
+        }
+        long cacheTtl = Long.parseLong(properties.getProperty("ils.mock.sip.cache.ttl", String.valueOf(PulDao.DEFAULT_CACHE_TTL)));
+        int cacheSize = Integer.parseInt(properties.getProperty("ils.mock.sip.cache.max-size", String.valueOf(PulDao.DEFAULT_CACHE_SIZE)));
+        PulDao pulDao = new PulDao(cacheTtl, cacheSize);
+        if (Boolean.parseBoolean(properties.getProperty("ils.mock.sip.checkout.write-behind", "false"))) {
+            final CheckoutWriteBehind writeBehind = new CheckoutWriteBehind(
+                    new File(properties.getProperty("ils.mock.sip.checkout.journal", "checkout.journal")),
+                    Integer.parseInt(properties.getProperty("ils.mock.sip.checkout.batch-size", "100")),
+                    Long.parseLong(properties.getProperty("ils.mock.sip.checkout.batch-window", "200")));
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    writeBehind.close();
+                }
+            });
+            pulDao.setCheckoutWriteBehind(writeBehind);
+        }
+        return pulDao;
+    }
+
+    /**
+     * Registers the server's metrics with JMX unless ils.mock.sip.metrics.jmx
+     * is false, and serves them as plain text on ils.mock.sip.metrics.port,
+     * bound to ils.mock.sip.metrics.host if given, when that is set. The
+     * patron and item caches of a PulDao store are published with them.
+     */
+    private static void publishMetrics(Properties properties, ServerMetrics metrics, CirculationStore store) throws IOException {
+        if (store instanceof PulDao) {
+            metrics.addCache("patron", ((PulDao) store).getPatronCache());
+            metrics.addCache("item", ((PulDao) store).getItemCache());
+        }
+        if (Boolean.parseBoolean(properties.getProperty("ils.mock.sip.metrics.jmx", "true"))) {
+            metrics.register();
+        }
+        String port = properties.getProperty("ils.mock.sip.metrics.port");
+        if (port != null) {
+            MetricsEndpoint endpoint = new MetricsEndpoint(properties.getProperty("ils.mock.sip.metrics.host"), Integer.parseInt(port));
+            endpoint.add(metrics);
+            endpoint.start();
+        }
+    }
+
+    /**
+     * Executor for the server's connections from ils.mock.sip.server.executor:
+     * thread (the default) for a new thread per connection, pool for
+     * ils.mock.sip.server.threads threads queueing up to
+     * ils.mock.sip.server.queue connections, or virtual for virtual threads.
+     */
+    private static ExecutorService createExecutor(Properties properties, int maxConnections) {
+        String type = properties.getProperty("ils.mock.sip.server.executor", "thread");
+        if (type.equalsIgnoreCase("virtual")) {
+            ExecutorService executor = SocketDaemon.newVirtualThreadExecutor();
+            if (executor != null) {
+                return executor;
+            }
+            System.out.println("Virtual threads need JDK 21 or later, using a thread pool");
+        } else if (!type.equalsIgnoreCase("pool")) {
+            return null;
+        }
+        int defaultThreads = (maxConnections > 0) ? maxConnections : 200;
+        int threads = Integer.parseInt(properties.getProperty("ils.mock.sip.server.threads", String.valueOf(defaultThreads)));
+        int queue = Integer.parseInt(properties.getProperty("ils.mock.sip.server.queue", "100"));
+        return SocketDaemon.newConnectionPool(threads, queue);
+    }
+
+    public static synchronized JdbcConnectionPool getConnectionPool() throws Exception {
+        if (connectionPool == null) {
             Class.forName(ClassName);
-            connection = DriverManager.getConnection(Url,UserName,Password);
+            connectionPool = new JdbcConnectionPool(Url, UserName, Password);
         }
-        return connection;
+        return connectionPool;
+    }
+
+    /**
+     * Borrows a pooled connection; closing it returns it to the pool.
+     */
+    public static Connection getConnection() throws Exception {
+        return getConnectionPool().getConnection();
     }
 
 
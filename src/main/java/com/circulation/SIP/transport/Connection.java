@@ -16,8 +16,9 @@
  */
 package com.circulation.SIP.transport;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
 
 import com.circulation.SIP.exceptions.InvalidFieldLength;
 import com.circulation.SIP.exceptions.MandatoryFieldOmitted;
@@ -37,6 +38,8 @@ public abstract class Connection {
 	
     private static Log log = LogFactory.getLog(Connection.class);
 
+    private static final int MAX_PIPELINE_WINDOW = 10;
+
     private char sequence = '9'; //start at -1 as will be incremented on use
 
     private int connectionTimeout;
@@ -48,6 +51,8 @@ public abstract class Connection {
     private boolean addSequenceAndChecksum = true;
     private boolean strictSequenceChecking = false;
     private boolean strictChecksumChecking = false;
+    private int pipelineWindow = 1;
+    private boolean pipelineRejected = false; // the ACS got a batch wrong
 
     public void setAddSequenceAndChecksum(boolean flag) {
         this.addSequenceAndChecksum = flag;
@@ -121,6 +126,20 @@ public abstract class Connection {
         return this.retryWait;
     }
 
+    /**
+     * Requests {@link #sendBatch(List)} may have written but not yet had
+     * answered: at most 10, the number of sequence characters, and 1, the
+     * default, to send one at a time. Batches go one at a time regardless
+     * once the ACS has shown it does not handle pipelining.
+     */
+    public void setPipelineWindow(int pipelineWindow) {
+        this.pipelineWindow = Math.max(1, Math.min(MAX_PIPELINE_WINDOW, pipelineWindow));
+    }
+
+    public int getPipelineWindow() {
+        return this.pipelineWindow;
+    }
+
     private char getNextSequence() {
         this.sequence++;
         if (this.sequence > '9') {
@@ -132,7 +151,7 @@ public abstract class Connection {
     protected String strim(String input) {
         String ret = input;
 
-        while ((ret.charAt(0) == 0) && (StringUtils.isNotEmpty(ret))) {
+        while (StringUtils.isNotEmpty(ret) && (ret.charAt(0) == 0)) {
             ret = ret.substring(1);
 
         }
@@ -154,45 +173,23 @@ public abstract class Connection {
     protected abstract String internalWaitfor(String match) throws ConnectionFailure;
 
     public void send(String msg) throws ConnectionFailure {
-        Timer timer = null;
-        long timeout = this.getIdleTimeout();
-        if (timeout > 0) {
-            timer = new Timer();
-            timer.schedule(new KillConnectionTask(this), timeout);
-        }
+        ScheduledFuture<?> timeout = TimeoutScheduler.disconnectAfter(this, this.getIdleTimeout());
         try {
             this.internalSend(msg);
-        } catch (ConnectionFailure ex) {
-            if (timer != null) {
-                timer.cancel();
-            }
-            throw ex;
-        }
-        if (timer != null) {
-            timer.cancel();
+        } finally {
+            TimeoutScheduler.cancel(timeout);
         }
     }
 
     public String waitfor(String match) throws ConnectionFailure {
-        String ret = null;
-        Timer timer = null;
-        long timeout = this.getIdleTimeout() + 250;
-        if (timeout > 0) {
-            timer = new Timer();
-            timer.schedule(new KillConnectionTask(this), timeout);
-        }
+        // a little longer than the socket's own read timeout, which should go first
+        long idleTimeout = this.getIdleTimeout();
+        ScheduledFuture<?> timeout = TimeoutScheduler.disconnectAfter(this, (idleTimeout > 0) ? idleTimeout + 250 : 0);
         try {
-            ret = this.internalWaitfor(match);
-        } catch (ConnectionFailure ex) {
-            if (timer != null) {
-                timer.cancel();
-            }
-            throw ex;
-        }
-        if (timer != null) {
-            timer.cancel();
+            return this.internalWaitfor(match);
+        } finally {
+            TimeoutScheduler.cancel(timeout);
         }
-        return ret;
     }
 
     public synchronized Message send(Message msg) throws RetriesExceeded, ChecksumError, SequenceError, MessageNotUnderstood,
@@ -253,23 +250,105 @@ public abstract class Connection {
             throw e;
         }
     }
-}
 
-class KillConnectionTask extends TimerTask {
-    private static Log log = LogFactory.getLog(TimerTask.class);
-    private Connection connection;
+    /**
+     * Sends the requests and returns their responses in the same order.
+     * Given a pipeline window above 1, and sequence numbers being added, up
+     * to that many requests are written before their responses are read,
+     * and responses are matched to requests by their sequence character.
+     * Every request is encoded before any is written, so a request that
+     * cannot be encoded fails the batch without anything being sent.
+     * <p>
+     * If the ACS does not keep up its side of that - a response without a
+     * sequence character or with one not outstanding, a resend request or a
+     * response that does not decode - this connection stops pipelining. On
+     * that, or on a connection failure, the connection is remade and each
+     * request not yet answered is sent again with {@link #send(Message)},
+     * whose retries and errors then apply. A request the ACS acted on but
+     * whose response was lost is sent twice.
+     */
+    public synchronized List<Message> sendBatch(List<? extends Message> msgs) throws RetriesExceeded, ChecksumError, SequenceError,
+            MessageNotUnderstood, MandatoryFieldOmitted, InvalidFieldLength {
+        Message[] responses = new Message[msgs.size()];
+        if (this.getPipelineWindow() > 1 && this.getAddSequenceAndChecksum() && !this.pipelineRejected) {
+            char[] sequences = new char[msgs.size()];
+            String[] requests = new String[msgs.size()];
+            for (int i = 0; i < requests.length; i++) {
+                Message msg = msgs.get(i);
+                if (msg == null) {
+                    throw new MessageNotUnderstood();
+                }
+                sequences[i] = this.getNextSequence();
+                requests[i] = msg.encode(sequences[i]);
+            }
+            try {
+                this.pipeline(requests, sequences, responses);
+            } catch (ConnectionFailure ex) {
+                Connection.log.warn("Connection to " + this.getHost() + ":" + this.getPort() + " failed during a batch, sending the rest one at a time", ex);
+                this.reconnect();
+            } catch (MessageNotUnderstood | ChecksumError | MandatoryFieldOmitted | InvalidFieldLength ex) {
+                Connection.log.warn(this.getHost() + ":" + this.getPort() + " does not handle pipelining, sending one at a time", ex);
+                this.pipelineRejected = true;
+                this.reconnect();
+            }
+        }
+        for (int i = 0; i < responses.length; i++) {
+            if (responses[i] == null) {
+                responses[i] = this.send(msgs.get(i));
+            }
+        }
+        return Arrays.asList(responses);
+    }
 
-    public KillConnectionTask(Connection conn) {
-        this.connection = conn;
+    /**
+     * Throws MessageNotUnderstood, ChecksumError, MandatoryFieldOmitted or
+     * InvalidFieldLength only for responses, the requests being encoded
+     * already.
+     */
+    private void pipeline(String[] requests, char[] sequences, Message[] responses) throws ConnectionFailure, MessageNotUnderstood,
+            ChecksumError, MandatoryFieldOmitted, InvalidFieldLength {
+        int[] outstanding = new int[MAX_PIPELINE_WINDOW]; // request index by sequence digit
+        Arrays.fill(outstanding, -1);
+        int written = 0;
+        int waiting = 0;
+        while (written < requests.length || waiting > 0) {
+            while (written < requests.length && waiting < this.getPipelineWindow()) {
+                Connection.log.debug(">>> " + requests[written]);
+                this.send(requests[written]);
+                outstanding[sequences[written] - '0'] = written;
+                written++;
+                waiting++;
+            }
+            String response = this.strim(this.waitfor("\r"));
+            Connection.log.debug("<<< " + response);
+            Message responseMessage;
+            try {
+                responseMessage = Message.decode(response, null, this.getStrictChecksumChecking());
+            } catch (SequenceError ex) {
+                throw new MessageNotUnderstood(); // not raised without an expected sequence
+            }
+            Character sequence = (responseMessage == null) ? null : responseMessage.getSequenceCharacter();
+            int slot = (sequence == null) ? -1 : sequence.charValue() - '0';
+            if (responseMessage instanceof SCResend || slot < 0 || slot >= MAX_PIPELINE_WINDOW || outstanding[slot] < 0) {
+                throw new MessageNotUnderstood();
+            }
+            responses[outstanding[slot]] = responseMessage;
+            outstanding[slot] = -1;
+            waiting--;
+        }
     }
 
-    @Override
-    public void run() {
+    /**
+     * Drops whatever a failed batch left unread on the connection.
+     */
+    private void reconnect() throws RetriesExceeded {
+        this.disconnect();
         try {
-            KillConnectionTask.log.error("Attempting to force close timed out connection");
-            this.connection.disconnect();
+            this.connect();
+        } catch (RetriesExceeded ex) {
+            throw ex;
         } catch (Exception ex) {
-            KillConnectionTask.log.error("Force closed timed out connection failed", ex);
+            throw new RetriesExceeded(ex);
         }
     }
 }
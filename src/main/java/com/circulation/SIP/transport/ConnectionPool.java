@@ -0,0 +1,536 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.transport;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.circulation.SIP.exceptions.ChecksumError;
+import com.circulation.SIP.exceptions.InvalidFieldLength;
+import com.circulation.SIP.exceptions.MandatoryFieldOmitted;
+import com.circulation.SIP.exceptions.MessageNotUnderstood;
+import com.circulation.SIP.exceptions.RetriesExceeded;
+import com.circulation.SIP.exceptions.SequenceError;
+import com.circulation.SIP.messages.ACSStatus;
+import com.circulation.SIP.messages.Login;
+import com.circulation.SIP.messages.LoginResponse;
+import com.circulation.SIP.messages.Message;
+import com.circulation.SIP.messages.SCStatus;
+import com.circulation.SIP.types.enumerations.ProtocolVersion;
+
+/**
+ * Pool of connections to ACS hosts, shared by threads sending requests.
+ * <p>
+ * A connection is opened once, logged in if a {@link Login} is set, and
+ * checked with an SC Status before it is first used; after that it goes
+ * back and forth between the pool and callers, one caller at a time, so a
+ * request costs neither a TCP or TLS handshake nor a login. Connections
+ * idle for longer than the validation interval are sent an SC Status before
+ * they are handed out, and the housekeeper pings the idle ones on the same
+ * interval, which also stops the ACS timing them out. Connections that fail
+ * a ping or a request are closed and replaced, connections above the
+ * minimum are closed once they have been idle for the maximum idle time,
+ * and each host is kept topped up to the minimum.
+ */
+public class ConnectionPool {
+    private static Log log = LogFactory.getLog(ConnectionPool.class);
+
+    private final ConnectionFactory factory;
+    private int minIdle = 0;
+    private int maxPerHost = 8;
+    private long borrowTimeout = 30000;
+    private long validationInterval = 30000;
+    private long maxIdleTime = 300000;
+    private Login login;
+    private ProtocolVersion protocolVersion = ProtocolVersion.VERSION_2_00;
+
+    private final Map<String, Host> hosts = new HashMap<String, Host>();
+    private final Map<Connection, Pooled> borrowed = new IdentityHashMap<Connection, Pooled>();
+    private boolean closed = false;
+    private ScheduledExecutorService housekeeper;
+
+    public ConnectionPool(ConnectionFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Connections kept open to each host that has been used, even when idle.
+     */
+    public void setMinIdle(int minIdle) {
+        this.minIdle = minIdle;
+    }
+
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    public void setMaxPerHost(int maxPerHost) {
+        this.maxPerHost = maxPerHost;
+    }
+
+    public int getMaxPerHost() {
+        return maxPerHost;
+    }
+
+    /**
+     * Milliseconds to wait for a connection when all of a host's are in use.
+     */
+    public void setBorrowTimeout(long borrowTimeout) {
+        this.borrowTimeout = borrowTimeout;
+    }
+
+    public long getBorrowTimeout() {
+        return borrowTimeout;
+    }
+
+    /**
+     * Milliseconds a connection may sit idle before it is pinged.
+     */
+    public void setValidationInterval(long validationInterval) {
+        this.validationInterval = validationInterval;
+    }
+
+    public long getValidationInterval() {
+        return validationInterval;
+    }
+
+    /**
+     * Milliseconds a connection above the minimum may sit idle before it is
+     * closed.
+     */
+    public void setMaxIdleTime(long maxIdleTime) {
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    public long getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    /**
+     * Sent on each new connection, which is only used if the login is ok;
+     * null, the default, for ACSs that do not want one.
+     */
+    public void setLogin(Login login) {
+        this.login = login;
+    }
+
+    public Login getLogin() {
+        return login;
+    }
+
+    /**
+     * Version sent in the SC Status handshake and pings.
+     */
+    public void setProtocolVersion(ProtocolVersion protocolVersion) {
+        this.protocolVersion = protocolVersion;
+    }
+
+    public ProtocolVersion getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    public synchronized int getActiveCount() {
+        return borrowed.size();
+    }
+
+    public synchronized int getIdleCount() {
+        int idle = 0;
+        for (Host host : hosts.values()) {
+            idle += host.idle.size();
+        }
+        return idle;
+    }
+
+    /**
+     * Opens connections to host and port up to the minimum now, rather than
+     * on the first request.
+     */
+    public void warmUp(String host, int port) {
+        this.startHousekeeping();
+        Host target;
+        synchronized (this) {
+            target = this.host(host, port);
+        }
+        this.fillToMinimum(target);
+    }
+
+    /**
+     * Sends a request on a pooled connection to host and port. The
+     * connection is returned to the pool afterwards, unless the request
+     * failed in a way that leaves the connection in doubt. A failed request
+     * is not tried again on another connection.
+     */
+    public Message send(String host, int port, Message request) throws RetriesExceeded, ChecksumError, SequenceError,
+            MessageNotUnderstood, MandatoryFieldOmitted, InvalidFieldLength {
+        return this.send(host, port, request, false);
+    }
+
+    /**
+     * As {@link #send(String, int, Message)}, but with retry set, a request
+     * whose connection turns out to be dead, which happens when the ACS has
+     * dropped it while it was idle, is tried once more on a connection that
+     * has just been checked. Only for requests that are safe to repeat, such
+     * as status and information requests: the failure may be a lost
+     * response rather than a lost request, and there is no telling which, so
+     * a checkout or a fee payment could be acted on twice.
+     */
+    public Message send(String host, int port, Message request, boolean retry) throws RetriesExceeded, ChecksumError, SequenceError,
+            MessageNotUnderstood, MandatoryFieldOmitted, InvalidFieldLength {
+        // a failure to borrow is not retried, only a send on a borrowed connection
+        Connection connection = this.borrow(host, port, false);
+        try {
+            return this.send(connection, request);
+        } catch (RetriesExceeded ex) {
+            if (!retry) {
+                throw ex;
+            }
+            log.debug("Retrying on a validated connection to " + host + ":" + port, ex);
+            return this.send(this.borrow(host, port, true), request);
+        }
+    }
+
+    private Message send(Connection connection, Message request) throws RetriesExceeded, ChecksumError, SequenceError,
+            MessageNotUnderstood, MandatoryFieldOmitted, InvalidFieldLength {
+        boolean healthy = false;
+        try {
+            Message response = connection.send(request);
+            healthy = true;
+            return response;
+        } catch (MandatoryFieldOmitted | InvalidFieldLength ex) {
+            // the request could not be encoded, nothing was sent
+            healthy = true;
+            throw ex;
+        } finally {
+            if (healthy) {
+                this.release(connection);
+            } else {
+                this.invalidate(connection);
+            }
+        }
+    }
+
+    /**
+     * Borrows a connection to host and port, which must be handed back with
+     * {@link #release(Connection)}, or {@link #invalidate(Connection)} if it
+     * failed.
+     */
+    public Connection borrow(String host, int port) throws RetriesExceeded {
+        return this.borrow(host, port, false);
+    }
+
+    private Connection borrow(String host, int port, boolean validate) throws RetriesExceeded {
+        this.startHousekeeping();
+        long deadline = System.currentTimeMillis() + borrowTimeout;
+        Pooled pooled = null;
+        while (pooled == null) {
+            Host target;
+            boolean create = false;
+            synchronized (this) {
+                if (closed) {
+                    throw new RetriesExceeded(new IllegalStateException("Connection pool is closed"));
+                }
+                target = this.host(host, port);
+                if (!target.idle.isEmpty()) {
+                    pooled = target.idle.pop();
+                } else if (target.total < maxPerHost) {
+                    target.total++;
+                    create = true;
+                } else {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        throw new RetriesExceeded(new TimeoutException("Timed out waiting for a connection to " + target + ", all " + maxPerHost
+                                + " are in use"));
+                    }
+                    try {
+                        this.wait(wait);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new RetriesExceeded(ex);
+                    }
+                    continue;
+                }
+            }
+            if (create) {
+                pooled = this.open(target);
+            } else if (validate ? !this.ping(pooled.connection) : !this.validate(pooled)) {
+                this.discard(pooled);
+                pooled = null;
+            }
+        }
+        synchronized (this) {
+            borrowed.put(pooled.connection, pooled);
+        }
+        return pooled.connection;
+    }
+
+    public void release(Connection connection) {
+        Pooled pooled;
+        synchronized (this) {
+            pooled = borrowed.remove(connection);
+        }
+        if (pooled == null) {
+            log.warn("Connection released to a pool it was not borrowed from");
+            return;
+        }
+        this.restore(pooled);
+    }
+
+    /**
+     * Closes a borrowed connection instead of returning it; a new one is
+     * opened in its place when needed.
+     */
+    public void invalidate(Connection connection) {
+        Pooled pooled;
+        synchronized (this) {
+            pooled = borrowed.remove(connection);
+        }
+        if (pooled == null) {
+            connection.disconnect();
+            return;
+        }
+        this.discard(pooled);
+    }
+
+    /**
+     * Closes the idle connections now and the borrowed ones as they are
+     * handed back.
+     */
+    public void close() {
+        List<Pooled> closing = new ArrayList<Pooled>();
+        synchronized (this) {
+            closed = true;
+            for (Host host : hosts.values()) {
+                closing.addAll(host.idle);
+                host.idle.clear();
+            }
+            if (housekeeper != null) {
+                housekeeper.shutdown();
+            }
+            this.notifyAll();
+        }
+        for (Pooled pooled : closing) {
+            this.discard(pooled);
+        }
+    }
+
+    private Host host(String host, int port) {
+        String key = host + ":" + port;
+        Host target = hosts.get(key);
+        if (target == null) {
+            target = new Host(host, port);
+            hosts.put(key, target);
+        }
+        return target;
+    }
+
+    private synchronized void startHousekeeping() {
+        if (housekeeper != null || closed) {
+            return;
+        }
+        housekeeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ConnectionPool-housekeeper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long period = Math.max(1000, Math.min(validationInterval, maxIdleTime) / 2);
+        housekeeper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ConnectionPool.this.housekeeping();
+                } catch (RuntimeException ex) {
+                    log.warn("Connection pool housekeeping failed", ex);
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private void housekeeping() {
+        long now = System.currentTimeMillis();
+        List<Pooled> expired = new ArrayList<Pooled>();
+        List<Pooled> stale = new ArrayList<Pooled>();
+        List<Host> targets;
+        synchronized (this) {
+            for (Host host : hosts.values()) {
+                int remaining = host.total;
+                Iterator<Pooled> oldest = host.idle.descendingIterator();
+                while (oldest.hasNext()) {
+                    Pooled pooled = oldest.next();
+                    long idle = now - pooled.lastUsed;
+                    if (idle > maxIdleTime && remaining > minIdle) {
+                        oldest.remove();
+                        expired.add(pooled);
+                        remaining--;
+                    } else if (idle >= validationInterval) {
+                        // out of the pool while it is pinged
+                        oldest.remove();
+                        stale.add(pooled);
+                    }
+                }
+            }
+            targets = new ArrayList<Host>(hosts.values());
+        }
+        for (Pooled pooled : expired) {
+            this.discard(pooled);
+        }
+        for (Pooled pooled : stale) {
+            if (this.ping(pooled.connection)) {
+                this.restore(pooled);
+            } else {
+                this.discard(pooled);
+            }
+        }
+        for (Host host : targets) {
+            this.fillToMinimum(host);
+        }
+    }
+
+    private void fillToMinimum(Host host) {
+        while (true) {
+            synchronized (this) {
+                if (closed || host.total >= minIdle) {
+                    return;
+                }
+                host.total++;
+            }
+            Pooled pooled;
+            try {
+                pooled = this.open(host);
+            } catch (RetriesExceeded ex) {
+                log.warn("Unable to open connection to " + host, ex);
+                return;
+            }
+            this.restore(pooled);
+        }
+    }
+
+    /**
+     * Opens and logs in a connection counted in its host's total already.
+     */
+    private Pooled open(Host host) throws RetriesExceeded {
+        Connection connection = null;
+        try {
+            connection = factory.newConnection(host.host, host.port);
+            connection.connect();
+            if (login != null) {
+                Message response = connection.send(login);
+                if (!(response instanceof LoginResponse) || !Boolean.TRUE.equals(((LoginResponse) response).isOk())) {
+                    throw new IOException("Login to " + host + " refused");
+                }
+            }
+            if (!this.ping(connection)) {
+                throw new IOException("No ACS Status from " + host);
+            }
+            return new Pooled(host, connection);
+        } catch (Exception ex) {
+            if (connection != null) {
+                connection.disconnect();
+            }
+            synchronized (this) {
+                host.total--;
+                this.notifyAll();
+            }
+            throw (ex instanceof RetriesExceeded) ? (RetriesExceeded) ex : new RetriesExceeded(ex);
+        }
+    }
+
+    private boolean validate(Pooled pooled) {
+        if (System.currentTimeMillis() - pooled.lastUsed < validationInterval) {
+            return true;
+        }
+        return this.ping(pooled.connection);
+    }
+
+    private boolean ping(Connection connection) {
+        SCStatus status = new SCStatus();
+        status.setProtocolVersion(protocolVersion);
+        try {
+            return connection.send(status) instanceof ACSStatus;
+        } catch (Exception ex) {
+            log.debug("Ping failed", ex);
+            return false;
+        }
+    }
+
+    private void restore(Pooled pooled) {
+        pooled.lastUsed = System.currentTimeMillis();
+        synchronized (this) {
+            if (!closed) {
+                pooled.host.idle.push(pooled);
+                this.notifyAll();
+                return;
+            }
+        }
+        this.discard(pooled);
+    }
+
+    private void discard(Pooled pooled) {
+        synchronized (this) {
+            pooled.host.total--;
+            this.notifyAll();
+        }
+        pooled.connection.disconnect();
+    }
+
+    /**
+     * Connections to one host; guarded by the pool.
+     */
+    private static class Host {
+        private final String host;
+        private final int port;
+        private final ArrayDeque<Pooled> idle = new ArrayDeque<Pooled>();
+        private int total = 0;
+
+        Host(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+
+    private static class Pooled {
+        private final Host host;
+        private final Connection connection;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        Pooled(Host host, Connection connection) {
+            this.host = host;
+            this.connection = connection;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.SocketTimeoutException;
+
+/**
+ * Reads frames ending in a terminator, usually a CR, from a connection's
+ * input stream into one buffer that is kept for the life of the connection.
+ * Each read is searched only from where the search for the frame stopped, so a frame
+ * costs time in proportion to its length however many reads it arrives in,
+ * and anything read past the end of a frame is kept for the next one.
+ */
+final class FrameReader {
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private final InputStream in;
+    private final String charset;
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int start = 0; // first byte of the frame being read
+    private int end = 0; // end of the bytes read
+    private int scanned = 0; // bytes before this hold no complete terminator
+
+    FrameReader(InputStream in, String charset) {
+        this.in = in;
+        this.charset = charset;
+    }
+
+    /**
+     * The next frame, without its terminator. Gives up with a
+     * SocketTimeoutException once giveup, a currentTimeMillis, has passed
+     * without one, or never if giveup is 0, and with an EOFException if the
+     * stream ends first.
+     */
+    String read(String terminator, long giveup) throws IOException {
+        byte[] match = this.encode(terminator);
+        // bytes left over from a read that gave up may hold this terminator
+        this.scanned = this.start;
+        while (true) {
+            int found = this.find(match);
+            if (found >= 0) {
+                int from = this.start;
+                if (match.length == 1 && match[0] == '\r') {
+                    // the LF of an ACS that ends its frames with CRLF
+                    while (from < found && this.buffer[from] == '\n') {
+                        from++;
+                    }
+                }
+                String frame = new String(this.buffer, from, found - from, this.charset);
+                this.start = found + match.length;
+                this.scanned = this.start;
+                if (this.start == this.end) {
+                    this.start = this.end = this.scanned = 0;
+                }
+                return frame;
+            }
+            if (giveup > 0 && System.currentTimeMillis() >= giveup) {
+                throw new SocketTimeoutException("No complete frame before the idle timeout");
+            }
+            this.fill();
+        }
+    }
+
+    /**
+     * Drops anything read past the last frame, such as what follows a
+     * prompt that was waited for.
+     */
+    void discard() {
+        this.start = this.end = this.scanned = 0;
+    }
+
+    void close() throws IOException {
+        this.in.close();
+    }
+
+    private int find(byte[] match) {
+        int last = this.end - match.length;
+        int i = this.scanned;
+        for (; i <= last; i++) {
+            if (this.buffer[i] == match[0]) {
+                int j = 1;
+                while (j < match.length && this.buffer[i + j] == match[j]) {
+                    j++;
+                }
+                if (j == match.length) {
+                    return i;
+                }
+            }
+        }
+        // a terminator may yet finish in the bytes still to come
+        this.scanned = Math.max(this.start, i);
+        return -1;
+    }
+
+    private void fill() throws IOException {
+        if (this.end == this.buffer.length) {
+            int length = this.end - this.start;
+            if (this.start > 0) {
+                System.arraycopy(this.buffer, this.start, this.buffer, 0, length);
+            } else {
+                byte[] bigger = new byte[this.buffer.length * 2];
+                System.arraycopy(this.buffer, 0, bigger, 0, length);
+                this.buffer = bigger;
+            }
+            this.scanned -= this.start;
+            this.start = 0;
+            this.end = length;
+        }
+        int len = this.in.read(this.buffer, this.end, this.buffer.length - this.end);
+        if (len < 0) {
+            throw new EOFException("Connection closed with " + (this.end - this.start) + " bytes unframed");
+        }
+        this.end += len;
+    }
+
+    private byte[] encode(String terminator) throws UnsupportedEncodingException {
+        if (terminator.length() == 1 && terminator.charAt(0) < 0x80) {
+            return new byte[] { (byte) terminator.charAt(0) };
+        }
+        return terminator.getBytes(this.charset);
+    }
+}
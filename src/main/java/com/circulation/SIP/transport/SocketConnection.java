@@ -16,9 +16,7 @@
  */
 package com.circulation.SIP.transport;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.net.InetSocketAddress;
 import java.net.Socket;
@@ -34,7 +32,7 @@ public class SocketConnection extends Connection implements AutoCloseable {
     private static Log log = LogFactory.getLog(SocketConnection.class);
 
     private Socket socket;
-    private BufferedReader in;
+    private FrameReader in;
     private BufferedWriter out;
 
     protected Socket getSocket() throws Exception {
@@ -48,7 +46,7 @@ public class SocketConnection extends Connection implements AutoCloseable {
             this.socket.connect(new InetSocketAddress(this.getHost(), this.getPort()), this.getConnectionTimeout());
             this.socket.setSoTimeout(this.getIdleTimeout());
             this.out = new BufferedWriter(new OutputStreamWriter(this.socket.getOutputStream(), Message.getCharsetEncoding()));
-            this.in = new BufferedReader(new InputStreamReader(this.socket.getInputStream(), Message.getCharsetEncoding()));
+            this.in = new FrameReader(this.socket.getInputStream(), Message.getCharsetEncoding());
         } catch (Exception ex) {
             if (retryAttempts > 0) {
                 try {
@@ -90,24 +88,12 @@ public class SocketConnection extends Connection implements AutoCloseable {
 
     @Override
     protected String internalWaitfor(String match) throws ConnectionFailure {
-        StringBuilder message = new StringBuilder();
-        char buffer[] = new char[2048];
-        int len;
-        long giveup = System.currentTimeMillis() + this.getIdleTimeout();
-
+        long giveup = (this.getIdleTimeout() > 0) ? System.currentTimeMillis() + this.getIdleTimeout() : 0;
         try {
-            do {
-                len = this.in.read(buffer);
-                message.append(new String(buffer, 0, len));
-            } while (message.lastIndexOf(match) < 0 && System.currentTimeMillis() < giveup);
+            return this.in.read(match, giveup);
         } catch (Exception ex) {
             throw new ConnectionFailure(ex);
         }
-
-        String msg = message.toString();
-        int cutoff = msg.lastIndexOf(match);
-        String ret = msg.substring(0, cutoff);
-        return ret;
     }
 
     @Override
@@ -16,9 +16,7 @@
  */
 package com.circulation.SIP.transport;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 
 import com.circulation.SIP.exceptions.ConnectionFailure;
@@ -38,7 +36,7 @@ public class TelnetConnection extends Connection {
     private String loggedOnText;
 
     private TelnetClient client = new TelnetClient();
-    private BufferedReader in;
+    private FrameReader in;
     private BufferedWriter out;
 
     public void setUsername(String username) {
@@ -83,7 +81,7 @@ public class TelnetConnection extends Connection {
             this.client.connect(this.getHost(), this.getPort());
             this.client.setSoTimeout(this.getIdleTimeout());
             this.out = new BufferedWriter(new OutputStreamWriter(this.client.getOutputStream(), Message.getCharsetEncoding()));
-            this.in = new BufferedReader(new InputStreamReader(this.client.getInputStream(), Message.getCharsetEncoding()));
+            this.in = new FrameReader(this.client.getInputStream(), Message.getCharsetEncoding());
         } catch (Exception e) {
             if (retry > 0) {
                 try {
@@ -99,6 +97,8 @@ public class TelnetConnection extends Connection {
         try {
             this.login(this.getUsername(), this.getPassword());
             this.waitfor(this.getLoggedOnText());
+            // the rest of the banner is not a response
+            this.in.discard();
         } catch (Exception e) {
             this.disconnect();
             if (retry > 0) {
@@ -134,24 +134,12 @@ public class TelnetConnection extends Connection {
 
     @Override
     protected String internalWaitfor(String match) throws ConnectionFailure {
-        StringBuffer message = new StringBuffer();
-        char buffer[] = new char[2048];
-        int len;
-        long giveup = System.currentTimeMillis() + this.getIdleTimeout();
-
+        long giveup = (this.getIdleTimeout() > 0) ? System.currentTimeMillis() + this.getIdleTimeout() : 0;
         try {
-            do {
-                len = this.in.read(buffer);
-                message.append(new String(buffer, 0, len));
-            } while ((message.toString()).lastIndexOf(match) < 0  && System.currentTimeMillis() < giveup);
+            return this.in.read(match, giveup);
         } catch (Exception ex) {
             throw new ConnectionFailure(ex);
         }
-
-        String msg = message.toString();
-        int cutoff = msg.lastIndexOf(match);
-        String ret = msg.substring(0, cutoff);
-        return ret;
     }
 
     @Override
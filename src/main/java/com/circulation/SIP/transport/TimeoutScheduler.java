@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.transport;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The one thread every {@link Connection} in the JVM uses to close
+ * connections that have not finished a send or a read within their idle
+ * timeout. Cancelled timeouts are removed from the queue straight away, so
+ * the usual case, a response arriving in time, leaves nothing behind.
+ * <p>
+ * Counts of timeouts scheduled and fired are kept for monitoring.
+ */
+public final class TimeoutScheduler {
+    private static final Log log = LogFactory.getLog(TimeoutScheduler.class);
+
+    private static final ScheduledThreadPoolExecutor TIMER;
+    private static final LongAdder scheduled = new LongAdder();
+    private static final LongAdder fired = new LongAdder();
+
+    static {
+        TIMER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "SIP-timeouts");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    private TimeoutScheduler() {
+    }
+
+    /**
+     * Disconnects the connection after timeout milliseconds unless the
+     * handle is cancelled first; null if timeout is not positive.
+     */
+    static ScheduledFuture<?> disconnectAfter(final Connection connection, long timeout) {
+        if (timeout <= 0) {
+            return null;
+        }
+        TimeoutScheduler.scheduled.increment();
+        return TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                TimeoutScheduler.fired.increment();
+                try {
+                    TimeoutScheduler.log.error("Attempting to force close timed out connection");
+                    connection.disconnect();
+                } catch (Exception ex) {
+                    TimeoutScheduler.log.error("Force closed timed out connection failed", ex);
+                }
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    static void cancel(ScheduledFuture<?> timeout) {
+        if (timeout != null) {
+            timeout.cancel(false);
+        }
+    }
+
+    public static long getScheduledCount() {
+        return TimeoutScheduler.scheduled.sum();
+    }
+
+    public static long getFiredCount() {
+        return TimeoutScheduler.fired.sum();
+    }
+
+    /**
+     * Timeouts waiting to fire.
+     */
+    public static int getPendingCount() {
+        return TIMER.getQueue().size();
+    }
+}
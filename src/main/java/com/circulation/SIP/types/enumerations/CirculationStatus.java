@@ -31,6 +31,8 @@ public enum CirculationStatus implements AbstractEnumeration {
     LOST("12"),
     MISSING("13");
 
+    private static final EnumerationTable<CirculationStatus> TABLE = new EnumerationTable<CirculationStatus>(CirculationStatus.values());
+
     private final String code;
 
     private CirculationStatus(String code) {
@@ -49,11 +51,6 @@ public enum CirculationStatus implements AbstractEnumeration {
 
     @Override
     public final AbstractEnumeration getKey(String code) {
-        for (AbstractEnumeration i : CirculationStatus.values()) {
-            if (i.getCode().equals(code)) {
-                return i;
-            }
-        }
-        return null;
+        return CirculationStatus.TABLE.get(code);
     }
 }
@@ -189,6 +189,8 @@ public enum CurrencyType implements AbstractEnumeration {
     ZIMBABWE_DOLLARS("ZWD"),
     UK_POUNDS("GBP");
 
+    private static final EnumerationTable<CurrencyType> TABLE = new EnumerationTable<CurrencyType>(CurrencyType.values());
+
     private final String code;
 
     private CurrencyType(String code) {
@@ -202,12 +204,7 @@ public enum CurrencyType implements AbstractEnumeration {
 
     @Override
     public AbstractEnumeration getKey(String code) {
-        for (AbstractEnumeration i : CurrencyType.values()) {
-            if (i.getCode().equals(code)) {
-                return i;
-            }
-        }
-        return null;
+        return CurrencyType.TABLE.get(code);
     }
 
     public String toString() {
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.types.enumerations;
+
+/**
+ * Code to constant table behind {@link AbstractEnumeration#getKey(String)},
+ * built once per enumeration. The table is sized so that no two codes share
+ * a slot, which for the short codes SIP uses is found well before the table
+ * grows large, so a lookup is one probe and one equals with no allocation.
+ * Should no such size turn up, colliding codes probe on to the next slot.
+ */
+public final class EnumerationTable<E extends AbstractEnumeration> {
+    private static final int MAX_SPREAD = 64;
+
+    private final String[] codes;
+    private final AbstractEnumeration[] constants;
+    private final int mask;
+
+    public EnumerationTable(E[] values) {
+        int size = Integer.highestOneBit(Math.max(values.length, 1) * 2 - 1) << 1;
+        int limit = size * MAX_SPREAD;
+        while (size < limit && !EnumerationTable.isPerfect(values, size - 1)) {
+            size <<= 1;
+        }
+        if (size >= limit) {
+            size = limit / MAX_SPREAD;
+        }
+        this.codes = new String[size];
+        this.constants = new AbstractEnumeration[size];
+        this.mask = size - 1;
+        for (E value : values) {
+            int slot = EnumerationTable.hash(value.getCode()) & mask;
+            while (codes[slot] != null && !codes[slot].equals(value.getCode())) {
+                slot = (slot + 1) & mask;
+            }
+            // as the scan this replaces, the first constant with a code wins
+            if (codes[slot] == null) {
+                codes[slot] = value.getCode();
+                constants[slot] = value;
+            }
+        }
+    }
+
+    /**
+     * The constant with the given code, or null.
+     */
+    @SuppressWarnings("unchecked")
+    public E get(String code) {
+        if (code == null) {
+            return null;
+        }
+        int slot = EnumerationTable.hash(code) & mask;
+        String candidate;
+        while ((candidate = codes[slot]) != null) {
+            if (candidate.equals(code)) {
+                return (E) constants[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    private static boolean isPerfect(AbstractEnumeration[] values, int mask) {
+        String[] used = new String[mask + 1];
+        for (AbstractEnumeration value : values) {
+            int slot = EnumerationTable.hash(value.getCode()) & mask;
+            if (used[slot] != null && !used[slot].equals(value.getCode())) {
+                return false;
+            }
+            used[slot] = value.getCode();
+        }
+        return true;
+    }
+
+    private static int hash(String code) {
+        int h = code.hashCode();
+        return h ^ (h >>> 7) ^ (h >>> 16);
+    }
+}
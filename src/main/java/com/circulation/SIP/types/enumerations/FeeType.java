@@ -27,6 +27,8 @@ public enum FeeType implements AbstractEnumeration {
     COMPUTER_ACCESS_CHARGE("08"),
     HOLD_FEE("09");
 
+    private static final EnumerationTable<FeeType> TABLE = new EnumerationTable<FeeType>(FeeType.values());
+
     private final String code;
 
     private FeeType(String code) {
@@ -45,11 +47,6 @@ public enum FeeType implements AbstractEnumeration {
 
     @Override
     public final AbstractEnumeration getKey(String code) {
-        for (AbstractEnumeration i : FeeType.values()) {
-            if (i.getCode().equals(code)) {
-                return i;
-            }
-        }
-        return null;
+        return FeeType.TABLE.get(code);
     }
 }
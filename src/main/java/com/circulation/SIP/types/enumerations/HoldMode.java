@@ -21,6 +21,8 @@ public enum HoldMode implements AbstractEnumeration {
     ADD("+"),
     DELETE("-");
 
+    private static final EnumerationTable<HoldMode> TABLE = new EnumerationTable<HoldMode>(HoldMode.values());
+
     private final String code;
 
     private HoldMode(String code) {
@@ -39,11 +41,6 @@ public enum HoldMode implements AbstractEnumeration {
 
     @Override
     public final AbstractEnumeration getKey(String code) {
-        for (AbstractEnumeration i : HoldMode.values()) {
-            if (i.getCode().equals(code)) {
-                return i;
-            }
-        }
-        return null;
+        return HoldMode.TABLE.get(code);
     }
 }
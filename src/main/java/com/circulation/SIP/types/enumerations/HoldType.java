@@ -22,6 +22,8 @@ public enum HoldType implements AbstractEnumeration {
     SPECIFIC_COPY("3"),
     SUBLOCATION_COPY("4");
 
+    private static final EnumerationTable<HoldType> TABLE = new EnumerationTable<HoldType>(HoldType.values());
+
     private final String code;
 
     private HoldType(String code) {
@@ -40,11 +42,6 @@ public enum HoldType implements AbstractEnumeration {
 
     @Override
     public final AbstractEnumeration getKey(String code) {
-        for (AbstractEnumeration i : HoldType.values()) {
-            if (i.getCode().equals(code)) {
-                return i;
-            }
-        }
-        return null;
+        return HoldType.TABLE.get(code);
     }
 }
@@ -46,6 +46,8 @@ public enum Language implements AbstractEnumeration {
     BELGIAN("026"),
     TAIWANESE("027");
 
+    private static final EnumerationTable<Language> TABLE = new EnumerationTable<Language>(Language.values());
+
     private final String code;
 
     private Language(String code) {
@@ -64,11 +66,6 @@ public enum Language implements AbstractEnumeration {
 
     @Override
     public final AbstractEnumeration getKey(String code) {
-        for (AbstractEnumeration i : Language.values()) {
-            if (i.getCode().equals(code)) {
-                return i;
-            }
-        }
-        return null;
+        return Language.TABLE.get(code);
     }
 }
@@ -29,6 +29,8 @@ public enum MediaType implements AbstractEnumeration {
     BOOK_WITH_CD("009"),
     BOOK_WITH_AUDIO_TAPE("010");
 
+    private static final EnumerationTable<MediaType> TABLE = new EnumerationTable<MediaType>(MediaType.values());
+
     private final String code;
 
     private MediaType(String code) {
@@ -47,11 +49,6 @@ public enum MediaType implements AbstractEnumeration {
 
     @Override
     public final AbstractEnumeration getKey(String code) {
-        for (AbstractEnumeration i : MediaType.values()) {
-            if (i.getCode().equals(code)) {
-                return i;
-            }
-        }
-        return null;
+        return MediaType.TABLE.get(code);
     }
 }
@@ -21,6 +21,8 @@ public enum PaymentType implements AbstractEnumeration {
     VISA("01"),
     CREDIT_CARD("02");
 
+    private static final EnumerationTable<PaymentType> TABLE = new EnumerationTable<PaymentType>(PaymentType.values());
+
     private final String code;
 
     private PaymentType(String code) {
@@ -39,11 +41,6 @@ public enum PaymentType implements AbstractEnumeration {
 
     @Override
     public final AbstractEnumeration getKey(String code) {
-        for (AbstractEnumeration i : PaymentType.values()) {
-            if (i.getCode().equals(code)) {
-                return i;
-            }
-        }
-        return null;
+        return PaymentType.TABLE.get(code);
     }
 }
@@ -20,6 +20,8 @@ public enum ProtocolVersion implements AbstractEnumeration {
     VERSION_2_00("2.00"),
     VERSION_1_00("1.00");
 
+    private static final EnumerationTable<ProtocolVersion> TABLE = new EnumerationTable<ProtocolVersion>(ProtocolVersion.values());
+
     private final String code;
 
     private ProtocolVersion(String code) {
@@ -38,11 +40,6 @@ public enum ProtocolVersion implements AbstractEnumeration {
 
     @Override
     public final AbstractEnumeration getKey(String code) {
-        for (AbstractEnumeration i : ProtocolVersion.values()) {
-            if (i.getCode().equals(code)) {
-                return i;
-            }
-        }
-        return null;
+        return ProtocolVersion.TABLE.get(code);
     }
 }
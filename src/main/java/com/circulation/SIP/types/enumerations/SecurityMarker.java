@@ -22,6 +22,8 @@ public enum SecurityMarker implements AbstractEnumeration {
     TATTLE_TAPE("02"),
     WHISPER_TAPE("03");
 
+    private static final EnumerationTable<SecurityMarker> TABLE = new EnumerationTable<SecurityMarker>(SecurityMarker.values());
+
     private final String code;
 
     private SecurityMarker(String code) {
@@ -40,11 +42,6 @@ public enum SecurityMarker implements AbstractEnumeration {
 
     @Override
     public final AbstractEnumeration getKey(String code) {
-        for (AbstractEnumeration i : SecurityMarker.values()) {
-            if (i.getCode().equals(code)) {
-                return i;
-            }
-        }
-        return null;
+        return SecurityMarker.TABLE.get(code);
     }
 }
@@ -21,6 +21,8 @@ public enum StatusCode implements AbstractEnumeration {
     OUT_OF_PAPER("1"),
     SHUTTING_DOWN("2");
 
+    private static final EnumerationTable<StatusCode> TABLE = new EnumerationTable<StatusCode>(StatusCode.values());
+
     private final String code;
 
     private StatusCode(String code) {
@@ -39,11 +41,6 @@ public enum StatusCode implements AbstractEnumeration {
 
     @Override
     public final AbstractEnumeration getKey(String code) {
-        for (AbstractEnumeration i : StatusCode.values()) {
-            if (i.getCode().equals(code)) {
-                return i;
-            }
-        }
-        return null;
+        return StatusCode.TABLE.get(code);
     }
 }
@@ -19,100 +19,92 @@ package com.circulation.SIP.types.flagfields;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 
+/**
+ * Fixed length field of Y/N style flags. The flags are kept as bits, one per
+ * position, and rendered with the first valid character for unset and the
+ * last for set; the rendered form is cached until a flag changes. Any
+ * other character reads as unset. Serialized as the rendered string, as
+ * before the flags were kept as bits.
+ */
 public abstract class AbstractFlagField implements Serializable {
 
     private static final long serialVersionUID = -3439876098750195408L;
-    private String flags;
+    private static final ObjectStreamField[] serialPersistentFields = { new ObjectStreamField("flags", String.class) };
+
+    private transient long bits;
+    private transient String rendered;
 
     AbstractFlagField(String flags) {
-        this.flags = flags;
-        this.checkLength();
+        this.parse(flags);
     }
 
     abstract protected int getLength();
 
     abstract protected char[] getValid();
 
-    private boolean isValid(char ch) {
-        for (char valid : this.getValid()) {
-            if (ch == valid) {
-                return true;
-            }
+    private void parse(String flags) {
+        char[] valid = this.getValid();
+        int length = Math.min(this.getLength(), 64);
+        this.bits = 0;
+        this.rendered = null;
+        if ((flags == null) || (valid.length == 0)) {
+            return;
         }
-        return false;
-    }
-
-    private void checkLength() {
-        StringBuffer result = new StringBuffer("");
-        for (int i = 0; i < this.getLength(); i++) {
-            if (i < this.flags.length()) {
-                char ch = this.flags.charAt(i);
-                if (this.isValid(ch)) {
-                    result.append(ch);
-                } else {
-                    result.append(this.getValid()[0]);
-                }
-            } else {
-                result.append(this.getValid()[0]);
+        char on = valid[valid.length - 1];
+        for (int i = 0; i < length && i < flags.length(); i++) {
+            if (flags.charAt(i) == on) {
+                this.bits |= 1L << i;
             }
         }
-        this.flags = result.toString();
     }
 
     @Override
     public String toString() {
-        this.checkLength();
-        return this.flags;
+        String result = this.rendered;
+        if (result == null) {
+            char[] valid = this.getValid();
+            char[] chars = new char[this.getLength()];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = (i < 64 && (this.bits & (1L << i)) != 0) ? valid[valid.length - 1] : valid[0];
+            }
+            result = new String(chars);
+            this.rendered = result;
+        }
+        return result;
     }
 
     protected boolean isSet(int field) {
-        this.checkLength();
-        if ((field < this.flags.length()) && (this.getValid().length > 0)) {
-            if (this.flags.charAt(field) == this.getValid()[this.getValid().length - 1]) {
-                return true;
-            } else {
-                return false;
-            }
-        } else {
-            return false;
-        }
+        return (field < this.getLength()) && (field < 64) && ((this.bits & (1L << field)) != 0);
     }
 
     protected void set(int field, boolean flag) {
-      if (flag) {
-        this.set(field);
-      } else {
-        this.unset(field);
-      }
-    }
-    
-    private void set(int field) {
-        this.checkLength();
-        if ((field < this.flags.length()) && (this.getValid().length > 0)) {
-            this.flags = this.flags.substring(0, field) + this.getValid()[this.getValid().length - 1] + this.flags.substring(field + 1);
+        if ((field >= this.getLength()) || (field >= 64) || (this.getValid().length == 0)) {
+            return;
         }
-    }
-
-    private void unset(int field) {
-        this.checkLength();
-        if ((field < this.flags.length()) && (this.getValid().length > 0)) {
-            this.flags = this.flags.substring(0, field) + this.getValid()[0] + this.flags.substring(field + 1);
+        long updated = flag ? (this.bits | (1L << field)) : (this.bits & ~(1L << field));
+        if (updated != this.bits) {
+            this.bits = updated;
+            this.rendered = null;
         }
     }
 
     public void clear() {
-        this.flags = "";
-        this.checkLength();
+        this.bits = 0;
+        this.rendered = null;
     }
 
     private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
-        ois.defaultReadObject();
+        ObjectInputStream.GetField fields = ois.readFields();
+        this.parse((String) fields.get("flags", ""));
     }
 
     private void writeObject(ObjectOutputStream oos) throws IOException {
-        oos.defaultWriteObject();
+        ObjectOutputStream.PutField fields = oos.putFields();
+        fields.put("flags", this.toString());
+        oos.writeFields();
     }
 
 }
@@ -18,6 +18,7 @@ package com.circulation.SIP.types.flagfields;
 
 public class PatronStatus extends AbstractFlagField {
     private static final long serialVersionUID = -1160351918609471912L;
+    private static final char[] VALID = { ' ', 'Y' };
     
     private static final int CHARGE_PRIVILEGES_DENIED = 0;
     private static final int RENEWAL_PRIVILIGES_DENIED = 1;
@@ -134,7 +135,7 @@ public class PatronStatus extends AbstractFlagField {
 
     @Override
     protected char[] getValid() {
-        return new char[] { ' ', 'Y' };
+        return VALID;
     }
 
     public static void main(String[] args) {
@@ -18,6 +18,7 @@ package com.circulation.SIP.types.flagfields;
 
 public class Summary extends AbstractFlagField {
     private static final long serialVersionUID = 5874238608719119875L;
+    private static final char[] VALID = { ' ', 'Y' };
     private static final int HOLD_ITEMS = 0;
     private static final int OVERDUE_ITEMS = 1;
     private static final int CHARGED_ITEMS = 2;
@@ -84,7 +85,7 @@ public class Summary extends AbstractFlagField {
 
     @Override
     protected char[] getValid() {
-        return new char[] { ' ', 'Y' };
+        return VALID;
     }
 
     @Override
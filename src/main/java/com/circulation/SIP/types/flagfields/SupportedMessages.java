@@ -18,6 +18,7 @@ package com.circulation.SIP.types.flagfields;
 
 public class SupportedMessages extends AbstractFlagField {
     private static final long serialVersionUID = -7794339322282396820L;
+    private static final char[] VALID = { 'N', 'Y' };
     private static final int PATRON_STATUS_REQUEST = 0;
     private static final int CHECK_OUT = 1;
     private static final int CHECK_IN = 2;
@@ -147,7 +148,7 @@ public class SupportedMessages extends AbstractFlagField {
 
     @Override
     protected char[] getValid() {
-        return new char[] { 'N', 'Y' };
+        return VALID;
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.circulation.SIP.exceptions.MessageNotUnderstood;
+import com.circulation.SIP.messages.Message;
+
+/**
+ * Routes a request to the public method of a handler which takes exactly the
+ * request's class, as the server and netty message routing always has. The
+ * methods are looked up once per handler type rather than on every request,
+ * and called through method handles where the handler type allows it.
+ */
+public class MessageDispatcher {
+    private static final MethodType DISPATCH_TYPE = MethodType.methodType(Message.class, Object.class, Message.class);
+
+    private static final ClassValue<Map<Class<?>, Target>> TABLES = new ClassValue<Map<Class<?>, Target>>() {
+        @Override
+        protected Map<Class<?>, Target> computeValue(Class<?> type) {
+            return MessageDispatcher.buildTable(type);
+        }
+    };
+
+    private MessageDispatcher() {
+    }
+
+    /**
+     * Dispatches on the handler's own class.
+     */
+    public static Message dispatch(Object handler, Message request) throws IllegalAccessException, InvocationTargetException, MessageNotUnderstood {
+        return MessageDispatcher.dispatch(handler.getClass(), handler, request);
+    }
+
+    /**
+     * Dispatches on the methods of handlerType, which handler must implement;
+     * exceptions thrown by the handler are wrapped in an
+     * InvocationTargetException as reflection would.
+     */
+    public static Message dispatch(Class<?> handlerType, Object handler, Message request) throws IllegalAccessException, InvocationTargetException, MessageNotUnderstood {
+        Target target = TABLES.get(handlerType).get(request.getClass());
+        if (target == null) {
+            throw new MessageNotUnderstood();
+        }
+        if (target.handle == null) {
+            return (Message) target.method.invoke(handler, new Object[] { request });
+        }
+        try {
+            return (Message) target.handle.invokeExact(handler, request);
+        } catch (Throwable ex) {
+            throw new InvocationTargetException(ex);
+        }
+    }
+
+    private static Map<Class<?>, Target> buildTable(Class<?> type) {
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        Map<Class<?>, Target> table = new HashMap<Class<?>, Target>();
+        for (Method method : type.getMethods()) {
+            Class<?> types[] = method.getParameterTypes();
+            if (types.length != 1 || !Message.class.isAssignableFrom(types[0]) || table.containsKey(types[0])) {
+                continue;
+            }
+            MethodHandle handle;
+            try {
+                handle = lookup.unreflect(method).asType(DISPATCH_TYPE);
+            } catch (IllegalAccessException ex) {
+                // non-public handler class; reflection reports this per call
+                handle = null;
+            } catch (RuntimeException ex) {
+                // return type that is not a message
+                handle = null;
+            }
+            table.put(types[0], new Target(method, handle));
+        }
+        return table;
+    }
+
+    private static class Target {
+        private final Method method;
+        private final MethodHandle handle;
+
+        Target(Method method, MethodHandle handle) {
+            this.method = method;
+            this.handle = handle;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.dao;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CheckoutWriteBehindTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * check_out without a key on transaction_id, as in the schema: every
+     * insert adds a row. In failAfterInsert mode batches are inserted and
+     * then reported as failed, as when the connection drops before the
+     * result arrives.
+     */
+    private static class Table {
+        final List<String> rows = Collections.synchronizedList(new ArrayList<String>());
+        volatile boolean failAfterInsert = false;
+
+        Connection connect() {
+            return (Connection) Proxy.newProxyInstance(Table.class.getClassLoader(), new Class[] { Connection.class }, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (method.getName().equals("prepareStatement")) {
+                        return Table.this.statement((String) args[0]);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        private PreparedStatement statement(final String sql) {
+            final List<String> batch = new ArrayList<String>();
+            final String[] id = new String[1];
+            return (PreparedStatement) Proxy.newProxyInstance(Table.class.getClassLoader(), new Class[] { PreparedStatement.class }, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    String name = method.getName();
+                    if (name.equals("setString") && ((Integer) args[0]) == 1) {
+                        id[0] = (String) args[1];
+                    } else if (name.equals("addBatch")) {
+                        batch.add(id[0]);
+                    } else if (name.equals("executeBatch")) {
+                        rows.addAll(batch);
+                        batch.clear();
+                        if (failAfterInsert) {
+                            throw new SQLException("Connection lost", "08S01");
+                        }
+                        return new int[0];
+                    } else if (name.equals("executeQuery")) {
+                        return Table.this.result(sql.startsWith("select") && rows.contains(id[0]));
+                    }
+                    return null;
+                }
+            });
+        }
+
+        private ResultSet result(final boolean found) {
+            return (ResultSet) Proxy.newProxyInstance(Table.class.getClassLoader(), new Class[] { ResultSet.class }, new InvocationHandler() {
+                private boolean read = false;
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (method.getName().equals("next")) {
+                        boolean next = found && !read;
+                        read = true;
+                        return next;
+                    }
+                    return null;
+                }
+            });
+        }
+    }
+
+    private static CheckoutWriteBehind open(File journal, final Table table) throws Exception {
+        return new CheckoutWriteBehind(journal, 10, 10) {
+            @Override
+            Connection connect() {
+                return table.connect();
+            }
+        };
+    }
+
+    private static void drain(CheckoutWriteBehind writeBehind, Table table, int rows) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while ((writeBehind.getPendingCount() > 0 || table.rows.size() < rows) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void replayOfPartiallyFlushedJournalInsertsEachCheckoutOnce() throws Exception {
+        File journal = new File(folder.getRoot(), "checkouts.journal");
+        Table table = new Table();
+        CheckoutWriteBehind writeBehind = open(journal, table);
+        for (int i = 1; i <= 3; i++) {
+            writeBehind.record("t" + i, 0, "patron", "item" + i, 0);
+        }
+        drain(writeBehind, table, 3);
+        assertEquals(3, table.rows.size());
+
+        // inserted, but the flusher never learns so and the process goes down
+        table.failAfterInsert = true;
+        writeBehind.record("t4", 0, "patron", "item4", 0);
+        writeBehind.record("t5", 0, "patron", "item5", 0);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (table.rows.size() < 5 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        writeBehind.close();
+
+        table.failAfterInsert = false;
+        writeBehind = open(journal, table);
+        writeBehind.record("t6", 0, "patron", "item6", 0);
+        drain(writeBehind, table, 6);
+        writeBehind.close();
+
+        List<String> rows = new ArrayList<String>(table.rows);
+        Collections.sort(rows);
+        assertEquals(Arrays.asList("t1", "t2", "t3", "t4", "t5", "t6"), rows);
+    }
+
+    @Test
+    public void insertedCheckoutsAreNotReplayed() throws Exception {
+        File journal = new File(folder.getRoot(), "checkouts.journal");
+        Table table = new Table();
+        CheckoutWriteBehind writeBehind = open(journal, table);
+        for (int i = 1; i <= 25; i++) {
+            writeBehind.record("t" + i, 0, "patron", "item" + i, 0);
+        }
+        drain(writeBehind, table, 25);
+        writeBehind.close();
+        assertEquals(25, table.rows.size());
+        // nothing left after the checkpoint, so only the header remains
+        assertEquals(8, journal.length());
+
+        writeBehind = open(journal, table);
+        assertEquals(0, writeBehind.getPendingCount());
+        writeBehind.close();
+        assertEquals(25, table.rows.size());
+    }
+}
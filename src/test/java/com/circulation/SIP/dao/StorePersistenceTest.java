@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2020 Ceridwen Limited
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.circulation.SIP.dao;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StorePersistenceTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void emptyDirectoryNeedsSeeding() throws Exception {
+        File directory = folder.newFolder("data");
+        assertFalse(new StorePersistence(new InMemoryCirculationStore(), directory).recover());
+    }
+
+    @Test
+    public void crashBeforeFirstSnapshotNeedsSeeding() throws Exception {
+        File directory = folder.newFolder("data");
+        InMemoryCirculationStore store = new InMemoryCirculationStore();
+        assertFalse(new StorePersistence(store, directory).recover());
+        store.putLogin("fixture", "secret");
+        // what start() leaves behind when the process dies before its snapshot is written
+        new ChangeLog(directory, 0).close();
+        assertTrue(ChangeLog.segment(directory, 0).exists());
+
+        InMemoryCirculationStore restarted = new InMemoryCirculationStore();
+        assertFalse(new StorePersistence(restarted, directory).recover());
+    }
+
+    @Test
+    public void restoresSnapshotAndChanges() throws Exception {
+        File directory = folder.newFolder("data");
+        InMemoryCirculationStore store = new InMemoryCirculationStore();
+        StorePersistence persistence = new StorePersistence(store, directory);
+        assertFalse(persistence.recover());
+        store.putLogin("fixture", "secret");
+        persistence.start(0);
+        store.putLogin("later", "password");
+        persistence.close();
+
+        InMemoryCirculationStore restarted = new InMemoryCirculationStore();
+        assertTrue(new StorePersistence(restarted, directory).recover());
+        assertTrue(restarted.validateLogin("fixture", "secret"));
+        assertTrue(restarted.validateLogin("later", "password"));
+    }
+
+    @Test
+    public void changesWithoutSnapshotAreRestored() throws Exception {
+        File directory = folder.newFolder("data");
+        ChangeLog log = new ChangeLog(directory, 0);
+        log.appendLogin("logged", "password");
+        log.close();
+
+        InMemoryCirculationStore restarted = new InMemoryCirculationStore();
+        assertTrue(new StorePersistence(restarted, directory).recover());
+        assertTrue(restarted.validateLogin("logged", "password"));
+    }
+}